@@ -0,0 +1,865 @@
+package cs321.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A B+Tree stored in a file, an alternative layout behind BTreeInterface.
+ *
+ * All keys and their counts live in the leaves, which are chained from left
+ * to right by next leaf pointers. Internal nodes only hold separators, cut
+ * down to the shortest prefix that still tells two children apart, and are
+ * only limited by the bytes of their page, not by the degree, so they fit
+ * more children per page than the 2t of a leaf or a BTree node. Dumps and scans find their first leaf and
+ * then follow the chain instead of going back up through internal nodes.
+ * After a bulk load the leaves are stored one after the other, so the chain
+ * is read sequentially.
+ *
+ * Pages keep their UTF-8 keys in a heap at the end of the page, like
+ * SlottedPageFormat:
+ *
+ * <pre>
+ * header  [0] byte leaf flag   [2] short numKeys   [4] short heap start
+ *         [8] long address of the next leaf, or of the rightmost child
+ * slot i  [0] long count of key i in a leaf, address of child i in an internal node
+ *         [8] short key offset   [10] short key length
+ * </pre>
+ *
+ * Child i of an internal node holds the keys from separator i - 1
+ * (inclusive) up to separator i (exclusive). A leaf is full at 2t - 1 keys
+ * or when a key of the maximum length no longer fits, an internal node only
+ * when a separator of the maximum length no longer fits. Full nodes are
+ * split on the way down as in BTree, and keys are never deleted.
+ *
+ * The order statistics and the top frequency search scan the leaf chain.
+ */
+public class BPlusTree implements BTreeInterface {
+
+    /**
+     * File version that marks a B+Tree file, see BTree for the header layout.
+     */
+    static final int VERSION_BPLUS = 3;
+
+    private static final int DEFAULT_DEGREE = 25;
+    private static final int HEADER_SIZE = 64; // the BTree header, with the first leaf at [56]
+    private static final int PAGE_HEADER_BYTES = 16;
+    private static final int SLOT_BYTES = 12;
+    private static final int MAX_KEY_BYTES = SlottedPageFormat.MAX_KEY_BYTES;
+    private static final int AVG_KEY_BYTES = SlottedPageFormat.AVG_KEY_BYTES;
+
+    private int degree;
+    private long size;
+    private int height;
+    private long nodeCount;
+    private long rootAddress;
+    private long firstLeaf;
+    private long nextDiskAddress;
+    private int pageSize;
+    private int maxSeparators; // separators of one byte that fit into an internal page
+    private PageStore store;
+    private ByteBuffer buffer; // encodes pages before they are written
+    private ByteBuffer metaBuffer;
+    private Page root;
+
+    private final boolean readOnly;
+    private final int checkpointInterval;
+    private final boolean syncOnCheckpoint;
+    private int pendingChanges = 0;
+
+    /**
+     * Creates a B+Tree, or opens the existing one stored in the named file.
+     * The cache, buffer pool, pinned level and page cache settings do not apply to a B+Tree.
+     *
+     * @param degree degree of the tree, 0 selects the default degree; leaves hold at most 2t - 1 keys
+     * @param name name of the file that stores the tree
+     * @param options storage settings
+     * @throws IllegalArgumentException if the degree is invalid, the file is not a B+Tree file,
+     *         or the file of a read-only tree does not exist
+     */
+    public BPlusTree(int degree, String name, BTreeOptions options) {
+        if (degree == 0) {
+            this.degree = DEFAULT_DEGREE;
+        } else if (degree < 2) {
+            throw new IllegalArgumentException("Degree must be at least 2 (or 0 for default).");
+        } else {
+            this.degree = degree;
+        }
+        this.readOnly = options.isReadOnly();
+        this.checkpointInterval = options.getCheckpointInterval();
+        this.syncOnCheckpoint = options.isSyncOnCheckpoint();
+
+        File tempFile = new File(name);
+        if (readOnly && !tempFile.isFile()) {
+            throw new IllegalArgumentException("BTree file " + name + " does not exist");
+        }
+
+        try {
+            FileChannel file = new RandomAccessFile(tempFile, readOnly ? "r" : "rw").getChannel();
+            boolean isNew = file.size() == 0;
+            if (isNew && readOnly) {
+                file.close();
+                throw new IllegalArgumentException("BTree file " + name + " is empty");
+            }
+            if (isNew) {
+                pageSize = pageSize(this.degree);
+            } else {
+                readMetaData(file, name);
+            }
+
+            maxSeparators = (pageSize - PAGE_HEADER_BYTES) / (SLOT_BYTES + 1);
+            buffer = ByteBuffer.allocateDirect(pageSize);
+            metaBuffer = ByteBuffer.allocateDirect(HEADER_SIZE);
+            if (options.isMemoryMapped()) {
+                store = new MappedPageStore(file, HEADER_SIZE, pageSize, options.getMappedChunkSize(), readOnly);
+            } else {
+                store = new ChannelPageStore(file, pageSize);
+            }
+
+            if (isNew) {
+                nextDiskAddress = HEADER_SIZE;
+                root = allocatePage(true);
+                rootAddress = root.address;
+                firstLeaf = root.address;
+                write(root);
+                writeMetaData();
+            } else {
+                nextDiskAddress = Math.max(store.size(), HEADER_SIZE);
+                root = decode(store.read(rootAddress), rootAddress);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Size of a page that fits 2t - 1 keys of average length, and at least 4
+     * keys of the maximum length.
+     *
+     * @param degree degree of the tree
+     * @return page size in bytes
+     * @throws IllegalArgumentException if the page would be too large to address with 16 bit offsets
+     */
+    static int pageSize(int degree) {
+        long keyArea = Math.max((2L * degree - 1) * (SLOT_BYTES + AVG_KEY_BYTES), 4 * (SLOT_BYTES + MAX_KEY_BYTES));
+        long size = PAGE_HEADER_BYTES + keyArea;
+        if (size > 0xFFFF) {
+            throw new IllegalArgumentException("Degree " + degree + " is too large for B+Tree pages");
+        }
+        return (int) size;
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public int getDegree() {
+        return degree;
+    }
+
+    @Override
+    public long getNumberOfNodes() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of internal levels above the leaves
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Inserts a key with its count into its leaf, or adds the count to the
+     * key if it is already there. Only the 8 bytes of the count are written
+     * for an increase.
+     *
+     * @param obj the key to insert
+     * @throws IllegalStateException if the tree is read-only
+     * @throws IllegalArgumentException if the key is longer than 96 UTF-8 bytes
+     */
+    @Override
+    public void insert(TreeObject obj) throws IOException {
+        checkWritable();
+        String key = obj.getKey();
+        int bytes = checkKey(key);
+
+        if (isFull(root)) {
+            Page newRoot = allocatePage(false);
+            newRoot.children[0] = root.address;
+            splitChild(newRoot, 0, root);
+            root = newRoot;
+            rootAddress = newRoot.address;
+            height++;
+            changed();
+        }
+
+        Page x = root;
+        while (!x.isLeaf) {
+            int i = childIndex(x, key);
+            Page child = read(x.children[i]);
+            if (isFull(child)) {
+                Page right = splitChild(x, i, child);
+                if (key.compareTo(x.keys[i]) >= 0) {
+                    child = right;
+                }
+            }
+            x = child;
+        }
+
+        int position = findKey(x, key);
+        if (position >= 0) {
+            x.counts[position] += obj.getCount();
+            store.writeLong(x.address + PAGE_HEADER_BYTES + (long) position * SLOT_BYTES, x.counts[position]);
+            return;
+        }
+        position = -position - 1;
+        System.arraycopy(x.keys, position, x.keys, position + 1, x.numKeys - position);
+        System.arraycopy(x.counts, position, x.counts, position + 1, x.numKeys - position);
+        x.keys[position] = key;
+        x.counts[position] = obj.getCount();
+        x.numKeys++;
+        x.used += SLOT_BYTES + bytes;
+        write(x);
+        size++;
+        changed();
+    }
+
+    /**
+     * Builds the tree bottom-up from keys that are already sorted and
+     * counted. The leaves are packed full and written one after the other, so
+     * the leaf chain is stored in key order, then each level of internal
+     * nodes is built from the one below.
+     *
+     * @param sortedKeys the keys in strictly increasing order with their final counts
+     * @throws IllegalStateException if the tree already holds keys or is read-only
+     * @throws IllegalArgumentException if the keys are not strictly increasing or a key is too long
+     */
+    @Override
+    public void bulkLoad(Collection<TreeObject> sortedKeys) throws IOException {
+        checkWritable();
+        if (size != 0) {
+            throw new IllegalStateException("bulkLoad requires an empty BTree");
+        }
+        if (sortedKeys.isEmpty()) {
+            return;
+        }
+
+        // The empty root is the only page so far, its page is reused for the first leaf
+        nextDiskAddress = root.address;
+        nodeCount = 0;
+
+        // Leaves, each followed directly by the next one in the file
+        List<Long> level = new ArrayList<>();
+        List<String> separators = new ArrayList<>(); // separator i comes before child i + 1 of level
+        Page leaf = null;
+        String previous = null;
+        for (TreeObject obj : sortedKeys) {
+            String key = obj.getKey();
+            int bytes = checkKey(key);
+            if (previous != null && key.compareTo(previous) <= 0) {
+                throw new IllegalArgumentException("bulkLoad keys must be strictly increasing: "
+                        + previous + " before " + key);
+            }
+            if (leaf != null && isFull(leaf)) {
+                leaf.next = nextDiskAddress;
+                write(leaf);
+                separators.add(shortestSeparator(previous, key));
+                leaf = null;
+            }
+            if (leaf == null) {
+                leaf = allocatePage(true);
+                level.add(leaf.address);
+            }
+            leaf.keys[leaf.numKeys] = key;
+            leaf.counts[leaf.numKeys] = obj.getCount();
+            leaf.numKeys++;
+            leaf.used += SLOT_BYTES + bytes;
+            previous = key;
+        }
+        write(leaf);
+        firstLeaf = level.get(0);
+
+        int h = 0;
+        while (level.size() > 1) {
+            List<Long> parents = new ArrayList<>();
+            List<String> parentSeparators = new ArrayList<>();
+            int start = 0;
+            while (start < level.size()) {
+                int end = groupEnd(level, separators, start);
+                Page node = allocatePage(false);
+                node.children[0] = level.get(start);
+                for (int i = start + 1; i < end; i++) {
+                    node.keys[node.numKeys] = separators.get(i - 1);
+                    node.children[node.numKeys + 1] = level.get(i);
+                    node.numKeys++;
+                    node.used += SLOT_BYTES + keyBytes(node.keys[node.numKeys - 1]);
+                }
+                write(node);
+                parents.add(node.address);
+                if (end < level.size()) {
+                    parentSeparators.add(separators.get(end - 1));
+                }
+                start = end;
+            }
+            level = parents;
+            separators = parentSeparators;
+            h++;
+        }
+
+        root = null; // the old root page now holds the first leaf
+        rootAddress = level.get(0);
+        root = read(rootAddress);
+        size = sortedKeys.size();
+        height = h;
+        flush();
+    }
+
+    /**
+     * Picks the children of the next internal node when bulk loading: as many
+     * as the bytes of a page allow, but never so many that a single child is
+     * left over for the last node.
+     *
+     * @return the index after the last child of the node
+     */
+    private int groupEnd(List<Long> level, List<String> separators, int start) {
+        int used = PAGE_HEADER_BYTES;
+        int end = start + 1;
+        while (end < level.size() && pageSize - used >= SLOT_BYTES + MAX_KEY_BYTES) {
+            used += SLOT_BYTES + keyBytes(separators.get(end - 1));
+            end++;
+        }
+        if (level.size() - end == 1) {
+            end--; // the last node gets two children instead of one
+        }
+        return end;
+    }
+
+    @Override
+    public void dumpToFile(PrintWriter out) {
+        Iterator<TreeObject> keys = scan(null, null);
+        while (keys.hasNext()) {
+            TreeObject obj = keys.next();
+            out.println(obj.getKey() + " " + obj.getCount());
+        }
+    }
+
+    /**
+     * Dumps all keys and counts to a table of the database, see BTree.dumpToDatabase.
+     *
+     * @param dbName name of the database file
+     * @param tableName name of the table, which is replaced if it exists
+     * @throws IOException if the database could not be written
+     */
+    @Override
+    public void dumpToDatabase(String dbName, String tableName) throws IOException {
+        BTree.dumpToDatabase(scan(null, null), dbName, tableName);
+    }
+
+    @Override
+    public TreeObject search(String key) throws IOException {
+        Page leaf = findLeaf(key);
+        int position = findKey(leaf, key);
+        return position < 0 ? null : new TreeObject(key, leaf.counts[position]);
+    }
+
+    @Override
+    public long count(String key) throws IOException {
+        Page leaf = findLeaf(key);
+        int position = findKey(leaf, key);
+        return position < 0 ? 0 : leaf.counts[position];
+    }
+
+    /**
+     * Iterates over the keys from from to to, both inclusive, by following
+     * the leaf chain. The tree must not be changed while the iterator is in use.
+     */
+    @Override
+    public Iterator<TreeObject> scan(String from, String to) {
+        return new LeafCursor(from, to, null);
+    }
+
+    @Override
+    public Iterator<TreeObject> scanPrefix(String prefix) {
+        return new LeafCursor(prefix, null, prefix);
+    }
+
+    @Override
+    public List<TreeObject> topFrequent(int k) {
+        return BTree.topFrequent(scan(null, null), k);
+    }
+
+    @Override
+    public long rank(String key) {
+        long rank = 0;
+        Iterator<TreeObject> keys = scan(null, key);
+        while (keys.hasNext()) {
+            if (!keys.next().getKey().equals(key)) {
+                rank++;
+            }
+        }
+        return rank;
+    }
+
+    @Override
+    public TreeObject select(long i) {
+        if (i < 0 || i >= size) {
+            return null;
+        }
+        Iterator<TreeObject> keys = scan(null, null);
+        for (long skipped = 0; skipped < i; skipped++) {
+            keys.next();
+        }
+        return keys.next();
+    }
+
+    @Override
+    public long rangeCount(String from, String to) {
+        long count = 0;
+        for (Iterator<TreeObject> keys = scan(from, to); keys.hasNext(); keys.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public long rangeSum(String from, String to) {
+        long sum = 0;
+        Iterator<TreeObject> keys = scan(from, to);
+        while (keys.hasNext()) {
+            sum += keys.next().getCount();
+        }
+        return sum;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (readOnly) {
+            return;
+        }
+        writeMetaData();
+        if (syncOnCheckpoint) {
+            store.force();
+        }
+        pendingChanges = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        store.close();
+    }
+
+    /**
+     * Deletes a key from the tree. Not Implemented.
+     *
+     * @param key the key to be deleted
+     */
+    @Override
+    public void delete(String key) {
+
+    }
+
+    //------------------------------------------------------------------
+    // Private Helper Methods
+    //------------------------------------------------------------------
+
+    /**
+     * A node of the tree as it is held in memory.
+     */
+    private static class Page {
+        long address;
+        boolean isLeaf;
+        int numKeys;
+        int used = PAGE_HEADER_BYTES; // bytes of the header, the slots and the keys
+        String[] keys;
+        long[] counts;   // leaves only
+        long[] children; // internal nodes only, numKeys + 1 are used
+        long next;       // leaves only, 0 for the last leaf
+
+        /**
+         * @param maxKeys the most keys of a leaf, or separators of an internal node
+         */
+        Page(int maxKeys, long address, boolean isLeaf) {
+            this.address = address;
+            this.isLeaf = isLeaf;
+            keys = new String[maxKeys];
+            if (isLeaf) {
+                counts = new long[maxKeys];
+            } else {
+                children = new long[maxKeys + 1];
+            }
+        }
+    }
+
+    /**
+     * Iterates over the keys of the leaf chain, starting at the first key that
+     * is not less than from.
+     */
+    private class LeafCursor implements Iterator<TreeObject> {
+        private final String to;
+        private final String prefix;
+        private Page leaf;
+        private int index;
+        private TreeObject next;
+
+        LeafCursor(String from, String to, String prefix) {
+            this.to = to;
+            this.prefix = prefix;
+            try {
+                if (from == null) {
+                    leaf = read(firstLeaf);
+                } else {
+                    leaf = findLeaf(from);
+                    index = findKey(leaf, from);
+                    if (index < 0) {
+                        index = -index - 1;
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public TreeObject next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            TreeObject current = next;
+            next = advance();
+            return current;
+        }
+
+        private TreeObject advance() {
+            try {
+                while (leaf != null && index == leaf.numKeys) {
+                    leaf = leaf.next == 0 ? null : read(leaf.next);
+                    index = 0;
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            if (leaf == null) {
+                return null;
+            }
+            String key = leaf.keys[index];
+            if ((to != null && key.compareTo(to) > 0) || (prefix != null && !key.startsWith(prefix))) {
+                leaf = null;
+                return null;
+            }
+            return new TreeObject(key, leaf.counts[index++]);
+        }
+    }
+
+    /**
+     * Walks from the root to the leaf that holds, or would hold, the key.
+     */
+    private Page findLeaf(String key) throws IOException {
+        Page x = root;
+        while (!x.isLeaf) {
+            x = read(x.children[childIndex(x, key)]);
+        }
+        return x;
+    }
+
+    /**
+     * @return the index of the child of an internal node whose keys range includes the key
+     */
+    private static int childIndex(Page x, String key) {
+        int position = findKey(x, key);
+        return position >= 0 ? position + 1 : -position - 1;
+    }
+
+    /**
+     * Binary searches the keys of a page.
+     *
+     * @return the index of the key, or (-(insertion point) - 1) if it is not in the page
+     */
+    private static int findKey(Page x, String key) {
+        int low = 0;
+        int high = x.numKeys - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = key.compareTo(x.keys[mid]);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * Splits the full child at index i of parent. A leaf keeps its lower half
+     * and the shortest separator between the halves goes up; an internal node
+     * gives its middle separator to the parent.
+     *
+     * @return the new right sibling
+     */
+    private Page splitChild(Page parent, int i, Page child) {
+        Page right = allocatePage(child.isLeaf);
+        int mid = child.numKeys / 2;
+        String separator;
+        if (child.isLeaf) {
+            int moved = child.numKeys - mid;
+            System.arraycopy(child.keys, mid, right.keys, 0, moved);
+            System.arraycopy(child.counts, mid, right.counts, 0, moved);
+            right.numKeys = moved;
+            right.next = child.next;
+            child.next = right.address;
+            separator = shortestSeparator(child.keys[mid - 1], right.keys[0]);
+        } else {
+            int moved = child.numKeys - mid - 1;
+            separator = child.keys[mid];
+            System.arraycopy(child.keys, mid + 1, right.keys, 0, moved);
+            System.arraycopy(child.children, mid + 1, right.children, 0, moved + 1);
+            right.numKeys = moved;
+        }
+        for (int j = mid; j < child.numKeys; j++) {
+            child.keys[j] = null;
+        }
+        child.numKeys = mid;
+        child.used = usedBytes(child);
+        right.used = usedBytes(right);
+
+        System.arraycopy(parent.keys, i, parent.keys, i + 1, parent.numKeys - i);
+        System.arraycopy(parent.children, i + 1, parent.children, i + 2, parent.numKeys - i);
+        parent.keys[i] = separator;
+        parent.children[i + 1] = right.address;
+        parent.numKeys++;
+        parent.used += SLOT_BYTES + keyBytes(separator);
+
+        write(child);
+        write(right);
+        write(parent);
+        return right;
+    }
+
+    /**
+     * The shortest prefix of right that is still greater than left.
+     *
+     * @param left the last key of the left node
+     * @param right the first key of the right node, greater than left
+     * @return a separator s with left &lt; s &lt;= right
+     */
+    static String shortestSeparator(String left, String right) {
+        int n = 0;
+        while (n < left.length() && n < right.length() && left.charAt(n) == right.charAt(n)) {
+            n++;
+        }
+        int length = Math.min(n + 1, right.length());
+        if (Character.isHighSurrogate(right.charAt(length - 1)) && length < right.length()) {
+            length++; // keep surrogate pairs whole so the separator can be encoded
+        }
+        return right.substring(0, length);
+    }
+
+    /**
+     * A leaf is full at 2t - 1 keys, an internal node only by its bytes.
+     * Either is full once a key of the maximum length would not fit.
+     */
+    private boolean isFull(Page x) {
+        if (x.isLeaf && x.numKeys == 2 * degree - 1) {
+            return true;
+        }
+        return pageSize - x.used < SLOT_BYTES + MAX_KEY_BYTES;
+    }
+
+    /**
+     * Adds up the bytes of a page, for the halves of a split.
+     */
+    private static int usedBytes(Page x) {
+        int used = PAGE_HEADER_BYTES + x.numKeys * SLOT_BYTES;
+        for (int i = 0; i < x.numKeys; i++) {
+            used += keyBytes(x.keys[i]);
+        }
+        return used;
+    }
+
+    private static int keyBytes(String key) {
+        return key.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * @return the number of UTF-8 bytes of the key
+     */
+    private static int checkKey(String key) {
+        int bytes = keyBytes(key);
+        if (bytes > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key is longer than " + MAX_KEY_BYTES + " bytes: " + key);
+        }
+        return bytes;
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("BTree was opened read-only");
+        }
+    }
+
+    /**
+     * Counts a change to the metadata and writes it out once every
+     * checkpointInterval changes, like BTree.
+     */
+    private void changed() throws IOException {
+        pendingChanges++;
+        if (checkpointInterval > 0 && pendingChanges >= checkpointInterval) {
+            flush();
+        }
+    }
+
+    private Page allocatePage(boolean isLeaf) {
+        Page page = new Page(isLeaf ? 2 * degree - 1 : maxSeparators, nextDiskAddress, isLeaf);
+        nextDiskAddress += pageSize;
+        nodeCount++;
+        return page;
+    }
+
+    private Page read(long address) throws IOException {
+        if (address == rootAddress && root != null) {
+            return root;
+        }
+        return decode(store.read(address), address);
+    }
+
+    private void write(Page x) {
+        try {
+            encode(x, buffer);
+            store.write(x.address, buffer);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void encode(Page x, ByteBuffer page) {
+        page.clear();
+        int heap = pageSize;
+        for (int i = 0; i < x.numKeys; i++) {
+            byte[] key = x.keys[i].getBytes(StandardCharsets.UTF_8);
+            heap -= key.length;
+            int slot = PAGE_HEADER_BYTES + i * SLOT_BYTES;
+            page.putLong(slot, x.isLeaf ? x.counts[i] : x.children[i]);
+            page.putShort(slot + 8, (short) heap);
+            page.putShort(slot + 10, (short) key.length);
+            page.position(heap);
+            page.put(key);
+        }
+
+        page.put(0, (byte) (x.isLeaf ? 1 : 0));
+        page.put(1, (byte) 0);
+        page.putShort(2, (short) x.numKeys);
+        page.putShort(4, (short) heap);
+        page.putShort(6, (short) 0);
+        page.putLong(8, x.isLeaf ? x.next : x.children[x.numKeys]);
+
+        // Zero the free space so stale bytes never reach the file
+        for (int i = PAGE_HEADER_BYTES + x.numKeys * SLOT_BYTES; i < heap; i++) {
+            page.put(i, (byte) 0);
+        }
+
+        page.position(0);
+        page.limit(pageSize);
+    }
+
+    private Page decode(ByteBuffer page, long address) {
+        int base = page.position();
+        boolean isLeaf = page.get(base) == 1;
+        Page x = new Page(isLeaf ? 2 * degree - 1 : maxSeparators, address, isLeaf);
+        x.numKeys = page.getShort(base + 2);
+        x.used = PAGE_HEADER_BYTES + x.numKeys * SLOT_BYTES;
+        for (int i = 0; i < x.numKeys; i++) {
+            int slot = base + PAGE_HEADER_BYTES + i * SLOT_BYTES;
+            int keyOffset = page.getShort(slot + 8) & 0xFFFF;
+            byte[] key = new byte[page.getShort(slot + 10)];
+            x.used += key.length;
+            for (int j = 0; j < key.length; j++) {
+                key[j] = page.get(base + keyOffset + j);
+            }
+            x.keys[i] = new String(key, StandardCharsets.UTF_8);
+            if (x.isLeaf) {
+                x.counts[i] = page.getLong(slot);
+            } else {
+                x.children[i] = page.getLong(slot);
+            }
+        }
+        if (x.isLeaf) {
+            x.next = page.getLong(base + 8);
+        } else {
+            x.children[x.numKeys] = page.getLong(base + 8);
+        }
+        return x;
+    }
+
+    private void writeMetaData() {
+        try {
+            ByteBuffer meta = metaBuffer;
+            meta.clear();
+            meta.putLong(BTree.MAGIC);
+            meta.putInt(VERSION_BPLUS);
+            meta.putInt(degree);
+            meta.putLong(rootAddress);
+            meta.putLong(size);
+            meta.putInt(0); // flags
+            meta.putInt(pageSize);
+            meta.putLong(nodeCount);
+            meta.putInt(height);
+            meta.putInt(0);
+            meta.putLong(firstLeaf);
+            meta.flip();
+            store.writeAt(0, meta);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Reads the header of an existing file, which records the degree.
+     *
+     * @throws IllegalArgumentException if the file is not a B+Tree file
+     */
+    private void readMetaData(FileChannel file, String name) throws IOException {
+        ByteBuffer meta = ByteBuffer.allocate(HEADER_SIZE);
+        while (meta.hasRemaining()) {
+            if (file.read(meta, meta.position()) < 0) {
+                break;
+            }
+        }
+        meta.flip();
+        if (meta.remaining() < HEADER_SIZE || meta.getLong(0) != BTree.MAGIC || meta.getInt(8) != VERSION_BPLUS) {
+            file.close();
+            throw new IllegalArgumentException(name + " is not a B+Tree file");
+        }
+        degree = meta.getInt(12);
+        rootAddress = meta.getLong(16);
+        size = meta.getLong(24);
+        pageSize = meta.getInt(36);
+        nodeCount = meta.getLong(40);
+        height = meta.getInt(48);
+        firstLeaf = meta.getLong(56);
+        if (pageSize != pageSize(degree)) {
+            throw new IOException("B+Tree file has " + pageSize + " byte pages, expected " + pageSize(degree));
+        }
+    }
+}
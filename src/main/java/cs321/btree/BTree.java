@@ -6,101 +6,81 @@ import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 
 // addition of the cache to improve speed
-import cs321.cache.Cache;
-import cs321.cache.KeyInterface;
+import cs321.cache.CacheInterface;
 
 public class BTree implements BTreeInterface {
 
-    //------------------------------------------------------------------
-    // Private Node Class
-    //------------------------------------------------------------------
-
-    /**
-     * Inner class to represent a binary search tree node.
-     *
-     */
-    private class Node implements KeyInterface<Long> {
-        private long address; //8 bytes
-        private long parent; //8 bytes
-        private int numKeys; //4 bytes
-        private boolean isLeaf; //1 byte
-        private TreeObject[] keys;
-        private long[] childPointers;
-
-        /**
-         * Constructor for a node.
-         */
-        public Node(TreeObject key) {
-            parent = 0;
-            keys = new TreeObject[2 * degree - 1];
-            keys[0] = key;
-            childPointers = new long[2 * degree];
-            numKeys = 0;
-            isLeaf = true;
-            address = nextDiskAddress;
-            nextDiskAddress += nodeSize;
-        }
-
-        /**
-         * {@inheritDoc}
-         */
-        public String toString() {
-            String string = "Node:  keys = ";
-            for (TreeObject key : keys) {
-                string += key.toString() + "  ";
-            }
-            return string;
-        }
-
-        /**
-         * This method constructs a non alocating Node
-         * */
-        private Node() {
-            parent = 0;
-            keys = new TreeObject[2 * degree - 1];
-            childPointers = new long[2 * degree];
-            numKeys = 0;
-            isLeaf = true;
-        }
-
-        @Override
-        public Long getKey() {
-            return address;
-        }
-
-    } // end of Private Node Class
-
     //------------------------------------------------------------------
     // Variables
     //------------------------------------------------------------------
     private long size;
     private int height;
+    private long nodeCount;
     private int degree;
-    private int METADATA_SIZE = 2 * Long.BYTES; // rootAddress + size
+    private int METADATA_SIZE = LEGACY_METADATA_SIZE;
     private long nextDiskAddress;
-    private FileChannel file;
-    private ByteBuffer buffer;
+    private PageStore store;
+    private PageFormat format;
+    private ByteBuffer buffer; // encodes nodes before they are written
+    private ByteBuffer metaBuffer; // encodes the metadata
     private int nodeSize;
+    private int fanout; // children per node when bulk loading
 
     private long rootAddress;
     private Node root;
 
     // Cache (Project 1) — configurable via flags
-    private boolean useCache;               // false when disabled
-    private Cache<Long, Node> cache;        // null when disabled
+    private boolean useCache;                 // false when disabled
+    private CacheInterface<Long, Node> cache; // null when disabled
+
+    // Write-back buffer pool, null when every change is written straight to disk
+    private BufferPool<Node> pool;
+
+    // Inserts that changed the tree since the metadata was last written
+    private int checkpointInterval;
+    private boolean syncOnCheckpoint;
+    private int pendingChanges = 0;
+
+    // Read-only trees are never written and can be searched by several threads
+    private boolean readOnly;
+
+    // Upper levels kept decoded for lookups, null when disabled or after a change
+    private int pinnedLevels;
+    private long pinnedBytes;
+    private PinnedLevels pinned;
 
 
     private static final int DEFAULT_DEGREE = 25;
+    private static final long NOT_FOUND = -1;
+
+    // Files that start with MAGIC have a versioned header, older files only
+    // store rootAddress and size and use fixed slot pages
+    static final long MAGIC = 0x4353333231425452L; // "CS321BTR"
+    private static final int VERSION_SLOTTED = 2;
+    private static final int LEGACY_METADATA_SIZE = 2 * Long.BYTES; // rootAddress + size
+    private static final int HEADER_SIZE = 64; // magic, version, degree, rootAddress, size, flags, pageSize, nodeCount, height, reserved
+    private static final int FLAG_STATS = 1; // nodeCount and height are stored in the header
+    // The other flag bits are the PageFormat augmentations of the pages
+
+    // Highest count first, equal counts in key order
+    private static final Comparator<TreeObject> BY_COUNT = (a, b) ->
+            a.getCount() != b.getCount() ? Long.compare(b.getCount(), a.getCount()) : a.compareTo(b);
 
 
 
@@ -116,6 +96,24 @@ public class BTree implements BTreeInterface {
     }
 
     public BTree(int degree, String name) {
+        this(degree, name, new BTreeOptions());
+    }
+
+    public BTree(int degree, String name, boolean useCache, int cacheSize) {
+        this(degree, name, new BTreeOptions().cache(useCache ? cacheSize : 0));
+    }
+
+    /**
+     * Creates a BTree, or opens the existing one stored in the named file,
+     * using the given storage and cache settings.
+     *
+     * @param degree degree of the BTree, 0 selects the default degree
+     * @param name name of the file that stores the BTree
+     * @param options storage and cache settings
+     * @throws IllegalArgumentException if the degree is invalid, the options ask for max counts or
+     *         subtree sizes in fixed slot pages, or the file of a read-only tree does not exist
+     */
+    public BTree(int degree, String name, BTreeOptions options) {
         this.degree = degree;
         if (degree == 0) {
             this.degree = DEFAULT_DEGREE;
@@ -126,30 +124,73 @@ public class BTree implements BTreeInterface {
         }
         this.size = 0;
         this.height = 0;
-        this.useCache = false;
-        this.cache = null;
+        this.useCache = options.isUseCache();
+        if (!useCache) {
+            this.cache = null;
+        } else if (options.isConcurrentCache()) {
+            this.cache = options.getCachePolicy().createConcurrent(options.getCacheSize());
+        } else {
+            this.cache = options.getCachePolicy().create(options.getCacheSize());
+        }
+        this.readOnly = options.isReadOnly();
+        this.pool = options.getBufferPoolFrames() > 0 && !readOnly ? new BufferPool<>(options.getBufferPoolFrames(), this::writeNode) : null;
+        this.checkpointInterval = options.getCheckpointInterval();
+        this.syncOnCheckpoint = options.isSyncOnCheckpoint();
+        this.pinnedLevels = options.getPinnedLevels();
+        this.pinnedBytes = options.getPinnedBytes();
+        if (options.isFixedSlotFormat() && (options.isMaxCounts() || options.isSubtreeSizes())) {
+            throw new IllegalArgumentException("Fixed slot pages cannot store max counts or subtree sizes");
+        }
 
-        nodeSize = Integer.BYTES + ((2 * this.degree) - 1) * TreeObject.BYTES + 1 + Long.BYTES + (2 * this.degree) * Long.BYTES + Long.BYTES;
-        buffer = ByteBuffer.allocateDirect(nodeSize);
         File tempFile = new File(name);
+        if (readOnly && !tempFile.isFile()) {
+            throw new IllegalArgumentException("BTree file " + name + " does not exist");
+        }
 
         try {
-            if (!tempFile.exists()) {
-                tempFile.createNewFile();
-                RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
-                file = randomAccessFile.getChannel();
+            boolean exists = tempFile.exists();
+            FileChannel file = new RandomAccessFile(tempFile, readOnly ? "r" : "rw").getChannel();
+            boolean isNew = !exists || file.size() == 0;
+            if (isNew && readOnly) {
+                file.close();
+                throw new IllegalArgumentException("BTree file " + name + " is empty");
+            }
+            if (isNew) {
+                chooseFormat(options.isFixedSlotFormat(), (options.isMaxCounts() ? PageFormat.MAX_COUNTS : 0)
+                        | (options.isSubtreeSizes() ? PageFormat.SUBTREE_SIZES : 0));
+            } else {
+                readMetaData(file);
+            }
+
+            nodeSize = format.pageSize();
+            buffer = ByteBuffer.allocateDirect(nodeSize);
+            metaBuffer = ByteBuffer.allocateDirect(METADATA_SIZE);
+            if (options.isMemoryMapped()) {
+                store = new MappedPageStore(file, METADATA_SIZE, nodeSize, options.getMappedChunkSize(), readOnly);
+            } else {
+                store = new ChannelPageStore(file, nodeSize);
+            }
+            if (options.getPageCacheBytes() > 0) {
+                store = new PageCacheStore(store, METADATA_SIZE, nodeSize, options.getPageCacheBytes());
+            }
+
+            if (isNew) {
                 nextDiskAddress = METADATA_SIZE;
-                root = new Node(null);
-                rootAddress = root.address;
-                diskWrite(root);
+                Node empty = allocateNode();
+                diskWrite(empty);
+                setRoot(empty);
                 writeMetaData();
             }
             else {
-                RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
-                file = randomAccessFile.getChannel();
-                readMetaData();
-                root = diskRead(rootAddress);
-                nextDiskAddress = Math.max(file.size(), METADATA_SIZE);
+                setRoot(diskRead(rootAddress));
+                nextDiskAddress = Math.max(store.size(), METADATA_SIZE);
+                if (nodeCount < 0) {
+                    // Older files do not store these, pages are never freed so every page is a node
+                    nodeCount = (nextDiskAddress - METADATA_SIZE) / nodeSize;
+                    height = calculateHeight(root);
+                }
+                // Loaded now, so threads searching a read-only tree never load them
+                pinUpperLevels();
             }
 
         } catch (IOException e) {
@@ -157,16 +198,54 @@ public class BTree implements BTreeInterface {
         }
     }
 
-    public BTree(int degree, String name, boolean useCache, int cacheSize) {
-        this(degree, name);
-        this.useCache = useCache;
-        this.cache = useCache ? new cs321.cache.Cache<>(cacheSize) : null;
-    }
-
     public void printCacheStats(java.io.PrintStream out) {
         if (useCache && cache != null) {
             out.println(cache.toString());
         }
+        if (pool != null) {
+            out.println(pool.toString());
+        }
+        if (store instanceof PageCacheStore) {
+            out.println(store.toString());
+        }
+        if (pinned != null) {
+            out.println(pinned.toString());
+        }
+    }
+
+    /**
+     * Writes every node changed since the last checkpoint, and the metadata,
+     * to the file. Without a buffer pool all nodes are already on disk and
+     * only the metadata is written. With syncOnCheckpoint the file is also
+     * forced to the storage device.
+     *
+     * @throws IOException if a node could not be written
+     */
+    @Override
+    public void flush() throws IOException {
+        if (readOnly) {
+            return;
+        }
+        if (pool != null) {
+            pool.flush();
+        }
+        writeMetaData();
+        if (syncOnCheckpoint) {
+            store.force();
+        }
+        pendingChanges = 0;
+    }
+
+    /**
+     * Writes all pending changes and closes the file. In memory mapped mode the
+     * unused end of the last mapped chunk is trimmed off the file.
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+        store.close();
     }
 
     //------------------------------------------------------------------
@@ -200,19 +279,19 @@ public class BTree implements BTreeInterface {
     public int getDegree() {return degree;}
 
     /**
-     * This calls a recursive helper function to calculate the number of nodes from the root
+     * The number of nodes is kept up to date as nodes are created
      * @return Returns the number of nodes in the BTree.
      */
     @Override
-    public long getNumberOfNodes() {return countNodes(root);}
+    public long getNumberOfNodes() {return nodeCount;}
 
     /**
-     * Calls a recursive helper function to calculate the height of the tree
+     * The height only changes when the root is split, so it is kept up to date
      * @return The height of the BTree
      */
     @Override
     public int getHeight() {
-        return calculateHeight(root);
+        return height;
     }
 
     /**
@@ -229,13 +308,17 @@ public class BTree implements BTreeInterface {
 
     /**
      * Insert a given SSH key into the B-Tree. If the key already exists in the B-Tree,
-     * the frequency count is incremented. Otherwise, a new node is inserted
-     * following the B-Tree insertion algorithm.
+     * the frequency count is increased by the count of obj. Otherwise, a new node is
+     * inserted following the B-Tree insertion algorithm.
      *
      * @param obj A TreeObject representing an SSH key.
      */
     @Override
     public void insert(TreeObject obj) throws IOException {
+        checkWritable();
+        format.checkKey(obj.getKey());
+        pinned = null;
+
         // If the root is empty, set the object to be inserted to be the root
         if (root.numKeys == 0) {
             root.keys[0] = obj;
@@ -243,28 +326,77 @@ public class BTree implements BTreeInterface {
             root.isLeaf = true;
             size = 1;
             diskWrite(root);
+            changed();
             return; // Exit
         }
 
         // If root is full, split it by number of degrees first to allow a non-full insertion
-        if (root.numKeys == 2 * degree - 1) {
-            Node newRoot = new Node(null);
+        if (format.isFull(root)) {
+            Node newRoot = allocateNode();
             newRoot.isLeaf = false; // We have to set the newRoot.isLeaf to be false so it can have children for insertion
             newRoot.childPointers[0] = root.address;
             diskWrite(newRoot);
             splitChild(newRoot, 0);
-            root = newRoot;
-            rootAddress = root.address;
-            writeMetaData();
+            setRoot(newRoot);
+            height++;
+            changed();
         }
         boolean insertedNew = insertNonFull(root, obj);
         if (insertedNew){
             size++;
-            writeMetaData(); // Update metadata with new size
+            changed(); // Update metadata with new size
         }
     }
 
 
+    /**
+     * Builds the whole tree bottom-up from keys that are already sorted and
+     * counted, which is much faster than inserting them one at a time.
+     *
+     * The shape of the tree is worked out from the number of keys so that the
+     * nodes are packed as full as the B-Tree properties allow. Nodes are then
+     * written in one sequential pass, children before their parent, and each
+     * node is written exactly once.
+     *
+     * @param sortedKeys the keys in strictly increasing order with their final counts
+     * @throws IOException for the disk IO errors
+     * @throws IllegalStateException if the tree already holds keys or is read-only
+     * @throws IllegalArgumentException if the keys are not strictly increasing
+     */
+    @Override
+    public void bulkLoad(Collection<TreeObject> sortedKeys) throws IOException {
+        checkWritable();
+        if (size != 0) {
+            throw new IllegalStateException("bulkLoad requires an empty BTree");
+        }
+        pinned = null;
+        long n = sortedKeys.size();
+        if (n == 0) {
+            return;
+        }
+
+        // Pack as many keys per node as the longest key allows
+        int maxKeyBytes = 0;
+        for (TreeObject key : sortedKeys) {
+            format.checkKey(key.getKey());
+            maxKeyBytes = Math.max(maxKeyBytes, format.keyBytes(key.getKey()));
+        }
+        fanout = format.maxKeysPerPage(maxKeyBytes) + 1;
+
+        // The empty root is the only node so far, its page is reused for the first leaf
+        nextDiskAddress = root.address;
+
+        int h = 0;
+        while (maxKeys(h) < n) {
+            h++;
+        }
+        nodeCount = 0;
+        setRoot(bulkBuild(h, n, new SortedKeySource(sortedKeys.iterator()), true));
+        size = n;
+        height = h;
+        flush();
+    }
+
         /**
      * Print out all objects in the given BTree in an inorder traversal to a file.
      *
@@ -321,6 +453,19 @@ public class BTree implements BTreeInterface {
             return;
         }
 
+        dumpToDatabase(scan(null, null), dbName, tableName);
+    }
+
+    /**
+     * Writes keys with their counts to a table of the database, replacing
+     * the table if it exists. Shared by the dumpToDatabase of every tree.
+     *
+     * @param keys the keys to write, in the order they are inserted
+     * @param dbName name of the database file
+     * @param tableName name of the table
+     * @throws IOException if the database could not be written
+     */
+    static void dumpToDatabase(Iterator<TreeObject> keys, String dbName, String tableName) throws IOException {
         String url = "jdbc:sqlite:" + dbName;
         
         try (Connection conn = DriverManager.getConnection(url)) {
@@ -336,10 +481,14 @@ public class BTree implements BTreeInterface {
                 stmt.executeUpdate(createTableSQL);
             }
             
-            // Insert data using in-order traversal
             String insertSQL = "INSERT INTO " + quotedTableName + " (key, frequency) VALUES (?, ?)";
             try (PreparedStatement pstmt = conn.prepareStatement(insertSQL)) {
-                dumpInOrderToDatabase(root, pstmt);
+                while (keys.hasNext()) {
+                    TreeObject treeObj = keys.next();
+                    pstmt.setString(1, treeObj.getKey());
+                    pstmt.setLong(2, treeObj.getCount());
+                    pstmt.executeUpdate();
+                }
             }
 
         } catch (SQLException e) {
@@ -348,57 +497,297 @@ public class BTree implements BTreeInterface {
     }
 
     /**
-     * Helper method to perform in-order traversal and dump keys with frequencies to database.
+     * Searches for a key in the given BTree.
      *
-     * @param node  the current node to traverse
-     * @param pstmt the PreparedStatement for database insertion
-     * @throws SQLException if database operation fails
+     * @param key The key value to search for.
+     * @return a TreeObject with the key and its count, or null if the key is not in the tree
      */
-    private void dumpInOrderToDatabase(Node node, PreparedStatement pstmt) throws SQLException {
-        if (node == null) return;
-        
-        for (int i = 0; i < node.numKeys; i++) {
-            // Visit left child if not a leaf
+    @Override
+    public TreeObject search(String key) throws IOException {
+        long count = lookup(key);
+        if (count == NOT_FOUND) {
+            return null; // Key not found
+        }
+        return new TreeObject(key, count);
+    }
+
+    /**
+     * Returns how often a key was inserted without creating any objects for
+     * the nodes on the search path.
+     *
+     * @param key The key value to search for.
+     * @return the count of the key, 0 if the key is not in the tree
+     */
+    @Override
+    public long count(String key) throws IOException {
+        return Math.max(lookup(key), 0);
+    }
+
+    /**
+     * Iterates over the keys from from to to, both inclusive, in increasing
+     * order. Nodes are read lazily as the iterator advances and only the
+     * path from the root to the current node is held in memory.
+     *
+     * The tree must not be changed while the iterator is in use.
+     *
+     * @param from smallest key to return, or null to start at the first key
+     * @param to largest key to return, or null to run to the last key
+     * @return an iterator over copies of the stored TreeObjects
+     */
+    @Override
+    public Iterator<TreeObject> scan(String from, String to) {
+        return new Cursor(from, to, null);
+    }
+
+    /**
+     * Iterates over all keys that start with the given prefix in increasing
+     * order, reading only the nodes that can hold such keys.
+     *
+     * @param prefix the prefix of the keys to return
+     * @return an iterator over copies of the stored TreeObjects
+     */
+    @Override
+    public Iterator<TreeObject> scanPrefix(String prefix) {
+        return new Cursor(prefix, null, prefix);
+    }
+
+    /**
+     * Returns the k keys with the highest counts.
+     *
+     * With max counts this is a best-first search: keys and unread subtrees
+     * wait in one priority queue ordered by count, where a subtree counts as
+     * its max count. A subtree is only read once it reaches the head of the
+     * queue, so subtrees whose max count is below the k-th highest count are
+     * never read. Without max counts every key is scanned.
+     *
+     * @param k number of keys to return
+     * @return copies of at most k TreeObjects, highest count first and equal counts in key order
+     */
+    @Override
+    public List<TreeObject> topFrequent(int k) {
+        List<TreeObject> top = new ArrayList<>();
+        if (k <= 0 || size == 0) {
+            return top;
+        }
+        if (!format.hasMaxCounts()) {
+            return topFrequent(scan(null, null), k);
+        }
+
+        PriorityQueue<Candidate> queue = new PriorityQueue<>();
+        queue.add(new Candidate(null, Long.MAX_VALUE, rootAddress));
+        while (!queue.isEmpty() && top.size() < k) {
+            Candidate head = queue.poll();
+            if (head.key != null) {
+                top.add(new TreeObject(head.key.getKey(), head.count));
+                continue;
+            }
+            Node node = head.address == rootAddress ? root : diskRead(head.address);
+            for (int i = 0; i < node.numKeys; i++) {
+                queue.add(new Candidate(node.keys[i], node.keys[i].getCount(), 0));
+            }
             if (!node.isLeaf) {
-                dumpInOrderToDatabase(diskRead(node.childPointers[i]), pstmt);
+                for (int i = 0; i <= node.numKeys; i++) {
+                    queue.add(new Candidate(null, node.maxCounts[i], node.childPointers[i]));
+                }
             }
-            
-            // Process current key
-            TreeObject treeObj = node.keys[i];
-            pstmt.setString(1, treeObj.getKey());
-            pstmt.setLong(2, treeObj.getCount());
-            pstmt.executeUpdate();
         }
-        
-        // Visit rightmost child if not a leaf
-        if (!node.isLeaf) {
-            dumpInOrderToDatabase(diskRead(node.childPointers[node.numKeys]), pstmt);
+        return top;
+    }
+
+    /**
+     * topFrequent for trees without max counts, keeps the best k keys of a
+     * full scan in a heap.
+     *
+     * @param keys iterator over all keys
+     * @param k number of keys to return
+     * @return at most k keys, highest count first and equal counts in key order
+     */
+    static List<TreeObject> topFrequent(Iterator<TreeObject> keys, int k) {
+        PriorityQueue<TreeObject> best = new PriorityQueue<>(BY_COUNT.reversed());
+        while (keys.hasNext()) {
+            best.add(keys.next());
+            if (best.size() > k) {
+                best.poll();
+            }
         }
+        List<TreeObject> top = new ArrayList<>(best);
+        top.sort(BY_COUNT);
+        return top;
     }
 
     /**
-     * Searches for a key in the given BTree.
+     * Counts the keys that are less than the given key.
      *
-     * @param key The key value to search for.
+     * With subtree sizes only the nodes on the search path of the key are
+     * read, otherwise the keys are scanned.
+     *
+     * @param key the key, which does not have to be in the tree, not null
+     * @return the number of smaller keys, which is the index of the key if it is in the tree
      */
     @Override
-    public TreeObject search(String key) throws IOException {
-        Node currentNode = root;
-        while (currentNode != null) {
-            int position = Arrays.binarySearch(currentNode.keys, 0, currentNode.numKeys, new TreeObject(key));
-            if (position >= 0) {
-                return currentNode.keys[position]; // Key found, return the TreeObject
+    public long rank(String key) {
+        return totalBelow(key, false, false);
+    }
+
+    /**
+     * Finds the key at the given index of the sorted keys, so select(0) is
+     * the smallest key and select(getSize() * p / 100) the key at the p-th
+     * percentile.
+     *
+     * With subtree sizes only one path of nodes is read, otherwise the keys
+     * are scanned.
+     *
+     * @param i index of the key, 0 to getSize() - 1
+     * @return a copy of the TreeObject at that index, or null if the index is out of range
+     */
+    @Override
+    public TreeObject select(long i) {
+        if (i < 0 || i >= size) {
+            return null;
+        }
+        if (!format.hasSubtreeSizes()) {
+            Iterator<TreeObject> keys = scan(null, null);
+            for (long skipped = 0; skipped < i; skipped++) {
+                keys.next();
+            }
+            return keys.next();
+        }
+
+        Node node = root;
+        while (true) {
+            Node next = null;
+            for (int j = 0; j <= node.numKeys; j++) {
+                if (!node.isLeaf) {
+                    if (i < node.keyCounts[j]) {
+                        next = diskRead(node.childPointers[j]);
+                        break;
+                    }
+                    i -= node.keyCounts[j];
+                }
+                if (j < node.numKeys) {
+                    if (i == 0) {
+                        return new TreeObject(node.keys[j].getKey(), node.keys[j].getCount());
+                    }
+                    i--;
+                }
+            }
+            node = next;
+        }
+    }
+
+    /**
+     * Counts the keys from from to to, both inclusive.
+     *
+     * @param from smallest key to count, or null to start at the first key
+     * @param to largest key to count, or null to run to the last key
+     * @return the number of keys in the range
+     */
+    @Override
+    public long rangeCount(String from, String to) {
+        return rangeTotal(from, to, false);
+    }
+
+    /**
+     * Adds up the counts of the keys from from to to, both inclusive.
+     *
+     * @param from smallest key to include, or null to start at the first key
+     * @param to largest key to include, or null to run to the last key
+     * @return the sum of the counts in the range
+     */
+    @Override
+    public long rangeSum(String from, String to) {
+        return rangeTotal(from, to, true);
+    }
+
+    private long rangeTotal(String from, String to, boolean sum) {
+        long below = from == null ? 0 : totalBelow(from, false, sum);
+        return Math.max(0, totalBelow(to, true, sum) - below);
+    }
+
+    /**
+     * Counts the keys below a bound, or adds up their counts. Keys and
+     * subtrees left of the search path are taken from the node and the
+     * subtree sizes it stores, so only the path itself is read.
+     *
+     * @param key the bound, null for no bound
+     * @param inclusive true to include a key equal to the bound
+     * @param sum true for the sum of the counts, false for the number of keys
+     * @return the total of the keys below the bound, of all keys if the bound is null
+     */
+    private long totalBelow(String key, boolean inclusive, boolean sum) {
+        if (!format.hasSubtreeSizes()) {
+            long total = 0;
+            Iterator<TreeObject> keys = scan(null, key);
+            while (keys.hasNext()) {
+                TreeObject next = keys.next();
+                if (inclusive || key == null || !next.getKey().equals(key)) {
+                    total += sum ? next.getCount() : 1;
+                }
             }
-            position = -position - 1; // Get the insertion point
-            if (currentNode.isLeaf) {
-                break; // Key not found in a leaf node
+            return total;
+        }
+
+        long total = 0;
+        Node node = root;
+        while (node != null) {
+            int keysBelow;     // keys of the node below the bound
+            int childrenBelow; // children whose whole subtree is below the bound
+            Node next = null;
+            int position = key == null ? -1 : findKey(node, key);
+            if (key == null) {
+                keysBelow = node.numKeys;
+                childrenBelow = node.numKeys + 1;
+            } else if (position >= 0) {
+                keysBelow = inclusive ? position + 1 : position;
+                childrenBelow = position + 1;
+            } else {
+                // Descend into the child that can hold the bound
+                keysBelow = -position - 1;
+                childrenBelow = keysBelow;
+                if (!node.isLeaf) {
+                    next = diskRead(node.childPointers[keysBelow]);
+                }
             }
-            // Move to the appropriate child pointer
-            long childAddress = currentNode.childPointers[position];
-            currentNode = diskRead(childAddress);
+
+            for (int j = 0; j < keysBelow; j++) {
+                total += sum ? node.keys[j].getCount() : 1;
+            }
+            if (!node.isLeaf) {
+                for (int j = 0; j < childrenBelow; j++) {
+                    total += sum ? node.countSums[j] : node.keyCounts[j];
+                }
+            }
+            node = next;
+        }
+        return total;
+    }
+
+    /**
+     * A key, or an unread subtree, waiting in the queue of topFrequent.
+     * Subtrees go before keys with the same count, so a key is only returned
+     * once no unread subtree can hold a key that should come first.
+     */
+    private static class Candidate implements Comparable<Candidate> {
+        final TreeObject key; // null for a subtree
+        final long count;     // the count of the key, or the max count of the subtree
+        final long address;   // address of the subtree
+
+        Candidate(TreeObject key, long count, long address) {
+            this.key = key;
+            this.count = count;
+            this.address = address;
         }
 
-        return null; // Key not found
+        @Override
+        public int compareTo(Candidate other) {
+            if (count != other.count) {
+                return Long.compare(other.count, count);
+            }
+            if ((key == null) != (other.key == null)) {
+                return key == null ? -1 : 1;
+            }
+            return key == null ? 0 : key.compareTo(other.key);
+        }
     }
 
     /**
@@ -415,6 +804,199 @@ public class BTree implements BTreeInterface {
     // Private Helper Methods
     //------------------------------------------------------------------
 
+    /**
+     * Walks from the root to the key. Nodes that are already in memory are
+     * searched directly. Other pages are binary searched in the page buffer
+     * by comparing the encoded key bytes, so no node is decoded. With the
+     * cache enabled pages are decoded and cached as before so repeated
+     * lookups are served from the cache. With pinned levels the walk starts
+     * in them and only reads the nodes below.
+     *
+     * @param key the key to search for
+     * @return the count of the key, or NOT_FOUND
+     */
+    private long lookup(String key) throws IOException {
+        byte[] encoded = null;
+        long address = rootAddress;
+        if (pinnedLevels > 0 || pinnedBytes > 0) {
+            if (pinned == null) {
+                pinUpperLevels();
+            }
+            int position = pinned.find(key);
+            if (position >= 0) {
+                return pinned.count(position);
+            }
+            address = pinned.child(-position - 1);
+        }
+        while (address != 0) {
+            Node node;
+            if (address == rootAddress) {
+                node = root;
+            } else if (useCache) {
+                node = diskRead(address);
+            } else {
+                node = pool != null ? pool.get(address) : null;
+            }
+
+            if (node != null) {
+                int position = findKey(node, key);
+                if (position >= 0) {
+                    return node.keys[position].getCount();
+                }
+                if (node.isLeaf) {
+                    return NOT_FOUND;
+                }
+                address = node.childPointers[-position - 1];
+                continue;
+            }
+
+            if (encoded == null) {
+                encoded = format.encodeKey(key);
+            }
+            ByteBuffer page = store.read(address);
+            int position = format.search(page, encoded);
+            if (position >= 0) {
+                return format.count(page, position);
+            }
+            if (format.isLeaf(page)) {
+                return NOT_FOUND;
+            }
+            address = format.child(page, -position - 1);
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Loads the upper levels of the tree for lookups, if the options ask for
+     * them.
+     */
+    private void pinUpperLevels() {
+        if (pinnedLevels > 0 || pinnedBytes > 0) {
+            pinned = PinnedLevels.load(root, pinnedLevels, pinnedBytes, this::diskRead);
+        }
+    }
+
+    /**
+     * Binary searches the keys of a node.
+     *
+     * @return the index of the key, or (-(insertion point) - 1) if it is not in the node
+     */
+    private static int findKey(Node node, String key) {
+        int low = 0;
+        int high = node.numKeys - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = key.compareTo(node.keys[mid].getKey());
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    /**
+     * An in-order iterator that keeps a stack with one frame per level on the
+     * path from the root. A frame holds a node and the index of its next key;
+     * for an internal node every key before that index and the subtrees to
+     * the left of it have already been returned.
+     */
+    private class Cursor implements Iterator<TreeObject> {
+        private final ArrayDeque<Frame> path = new ArrayDeque<>();
+        private final String to;
+        private final String prefix;
+        private TreeObject next;
+
+        Cursor(String from, String to, String prefix) {
+            this.to = to;
+            this.prefix = prefix;
+
+            // Seek down to the first key that is not less than from
+            Node node = root;
+            while (node != null && node.numKeys > 0) {
+                int i = 0;
+                if (from != null) {
+                    i = findKey(node, from);
+                    if (i < 0) {
+                        i = -i - 1;
+                    }
+                }
+                push(node, i);
+                if (node.isLeaf) {
+                    break;
+                }
+                node = diskRead(node.childPointers[i]);
+            }
+            next = advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public TreeObject next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            TreeObject current = next;
+            next = advance();
+            return current;
+        }
+
+        /**
+         * Finds the key after the last one returned, or null when the scan is done.
+         */
+        private TreeObject advance() {
+            while (!path.isEmpty()) {
+                Frame frame = path.peek();
+                Node node = frame.node;
+                if (frame.index == node.numKeys) {
+                    path.pop();
+                    continue;
+                }
+
+                TreeObject key = node.keys[frame.index];
+                frame.index++;
+                if (!node.isLeaf) {
+                    // The subtree right of the key comes next, starting at its leftmost leaf
+                    Node child = diskRead(node.childPointers[frame.index]);
+                    while (child != null) {
+                        push(child, 0);
+                        child = child.isLeaf ? null : diskRead(child.childPointers[0]);
+                    }
+                }
+
+                if ((to != null && key.getKey().compareTo(to) > 0)
+                        || (prefix != null && !key.getKey().startsWith(prefix))) {
+                    path.clear();
+                    return null;
+                }
+                return new TreeObject(key.getKey(), key.getCount());
+            }
+            return null;
+        }
+
+        private void push(Node node, int index) {
+            Frame frame = new Frame();
+            frame.node = node;
+            frame.index = index;
+            path.push(frame);
+        }
+    }
+
+    /**
+     * One level of the path held by a Cursor.
+     */
+    private static class Frame {
+        Node node;
+        int index;
+    }
+
     private Node Successor(Node S){
         if (S.isLeaf) {
             return null; // No successor for leaf nodes
@@ -486,84 +1068,196 @@ public class BTree implements BTreeInterface {
         return calculateHeight(firstChild) + 1;
     }
 
-    /**
-     * Counts all the nodes in the B tree starting from the given node
-     * and checks all the child nodes then adds them to the count
-     *
-     * @param node the node to start the counting from
-     * @return the number of nodes in the subtree
-     */
-    private long countNodes(Node node) {
-        if (node == null) {
-            return 0;
-        }
-        long count = 1;
-        if (!node.isLeaf) {
-            for (int i = 0; i <= node.numKeys; i++) {
-                Node child = diskRead(node.childPointers[i]);
-                count += countNodes(child);
-            }
-        }
-        return count;
-    }
-
-
     /**
      * Inserts the key into subtree rooted at Node x which isnt full
      * It then splits a full child while going down
      *
+     * With augmented pages the path is remembered, and once the final count of
+     * the key is known the statistics of the children on the path are updated.
+     *
      * @param x node to go down from
      * @param k key to insert
      * @return true if a new key was added else return false if count is increased
      * @throws IOException for the disk IO errors
      */
     private boolean insertNonFull(Node x, TreeObject k) throws IOException {
-
-        for (int j = 0; j < x.numKeys; j++) {
-            int cmp = k.compareTo(x.keys[j]);
-            if (cmp == 0) {
-                x.keys[j].incCount();
-                diskWrite(x);
-                return false;
-            }
-            if (x.isLeaf && cmp < 0) break;
+        Node[] pathNodes = null;
+        int[] pathChildren = null;
+        int depth = 0;
+        if (format.augmentations() != 0) {
+            pathNodes = new Node[height + 1];
+            pathChildren = new int[height + 1];
         }
+        while (true) {
+            Node child;
+            // Keep x in the buffer pool while it is being changed
+            pin(x);
+            try {
+                for (int j = 0; j < x.numKeys; j++) {
+                    int cmp = k.compareTo(x.keys[j]);
+                    if (cmp == 0) {
+                        x.keys[j].incCount(k.getCount());
+                        writeCount(x, j);
+                        updatePath(pathNodes, pathChildren, depth, x.keys[j].getCount(), k.getCount(), false);
+                        return false;
+                    }
+                    if (x.isLeaf && cmp < 0) break;
+                }
+
+                if (x.isLeaf) {
+
+                    int i = x.numKeys - 1;
+                    while (i >= 0 && k.compareTo(x.keys[i]) < 0) {
+                        x.keys[i + 1] = x.keys[i];
+                        i--;
+                    }
+                    x.keys[i + 1] = k;
+                    x.numKeys++;
+                    diskWrite(x);
+                    updatePath(pathNodes, pathChildren, depth, k.getCount(), k.getCount(), true);
+                    return true;
+                }
+                int i = x.numKeys - 1;
+                while (i >= 0 && k.compareTo(x.keys[i]) < 0) i--;
+                int childIdx = i + 1;
+
+                child = diskRead(x.childPointers[childIdx]);
 
-        if (x.isLeaf) {
+                if (child != null && format.isFull(child)) {
+                    splitChild(x, childIdx, child);   // promotes median into x
 
-            int i = x.numKeys - 1;
-            while (i >= 0 && k.compareTo(x.keys[i]) < 0) {
-                x.keys[i + 1] = x.keys[i];
-                i--;
+                    int cmpMid = k.compareTo(x.keys[childIdx]);
+                    if (cmpMid == 0) {
+                        x.keys[childIdx].incCount(k.getCount());
+                        writeCount(x, childIdx);
+                        updatePath(pathNodes, pathChildren, depth, x.keys[childIdx].getCount(), k.getCount(), false);
+                        return false;
+                    }
+                    if (cmpMid > 0){
+                        childIdx++;
+                    }
+                    child = diskRead(x.childPointers[childIdx]);
+                }
+                if (pathNodes != null) {
+                    pathNodes[depth] = x;
+                    pathChildren[depth] = childIdx;
+                    depth++;
+                }
+            } finally {
+                unpin(x);
             }
-            x.keys[i + 1] = k;
-            x.numKeys++;
-            diskWrite(x);
-            return true;
+            x = child;
         }
-        int i = x.numKeys - 1;
-        while (i >= 0 && k.compareTo(x.keys[i]) < 0) i--;
-        int childIdx = i + 1;
+    }
 
-        Node child = diskRead(x.childPointers[childIdx]);
 
-        if (child != null && child.numKeys == 2 * degree - 1) {
-            splitChild(x, childIdx, child);   // promotes median into x
+    /**
+     * Updates the statistics of the children along an insert path, from the
+     * bottom up, after a key was inserted or its count was increased.
+     *
+     * Max counts are raised to the new count of the key. A node whose max
+     * count is already that high has ancestors that are too, so without
+     * subtree sizes the walk stops there. Subtree sizes change all the way up:
+     * every subtree on the path gains the increment, and the key if it is new.
+     *
+     * @param pathNodes the nodes on the path, null without augmented pages
+     * @param pathChildren the index of the child taken in each node
+     * @param depth number of nodes on the path
+     * @param count the new count of the key
+     * @param added the amount the count grew by, the whole count of a new key
+     * @param newKey true if the key was inserted, false if its count was increased
+     */
+    private void updatePath(Node[] pathNodes, int[] pathChildren, int depth, long count, long added, boolean newKey) {
+        if (pathNodes == null) {
+            return;
+        }
+        for (int d = depth - 1; d >= 0; d--) {
+            Node node = pathNodes[d];
+            int i = pathChildren[d];
+            boolean raised = false;
+            if (node.maxCounts != null && node.maxCounts[i] < count) {
+                node.maxCounts[i] = count;
+                writeLong(node, format.maxCountOffset(i, node.numKeys), count);
+                raised = true;
+            }
+            if (node.keyCounts != null) {
+                int offset = format.keyCountOffset(i, node.numKeys);
+                if (newKey) {
+                    node.keyCounts[i]++;
+                    writeLong(node, offset, node.keyCounts[i]);
+                }
+                node.countSums[i] += added;
+                writeLong(node, offset + Long.BYTES, node.countSums[i]);
+            } else if (!raised) {
+                return;
+            }
+        }
+    }
 
-            int cmpMid = k.compareTo(x.keys[childIdx]);
-            if (cmpMid == 0) {
-                x.keys[childIdx].incCount();
-                diskWrite(x);
-                return false;
+    /**
+     * Sets the statistics that x keeps for child i from the child itself.
+     *
+     * @param x an internal node
+     * @param i index of the child in x
+     * @param child the child, with its own statistics up to date
+     */
+    private static void setChildStats(Node x, int i, Node child) {
+        if (x.maxCounts != null) {
+            x.maxCounts[i] = maxCount(child);
+        }
+        if (x.keyCounts != null) {
+            long keys = child.numKeys;
+            long sum = 0;
+            for (int j = 0; j < child.numKeys; j++) {
+                sum += child.keys[j].getCount();
             }
-            if (cmpMid > 0){
-                childIdx++;
+            if (!child.isLeaf) {
+                for (int j = 0; j <= child.numKeys; j++) {
+                    keys += child.keyCounts[j];
+                    sum += child.countSums[j];
+                }
             }
-            child = diskRead(x.childPointers[childIdx]);
+            x.keyCounts[i] = keys;
+            x.countSums[i] = sum;
         }
-        return insertNonFull(child, k);
     }
 
+    /**
+     * Shifts the statistics of the children right of childIndex one place to
+     * the right to make room for a new child.
+     */
+    private static void shiftChildStats(long[] stats, int childIndex, int numKeys) {
+        if (stats != null) {
+            System.arraycopy(stats, childIndex + 1, stats, childIndex + 2, numKeys - childIndex);
+        }
+    }
+
+    /**
+     * Moves the statistics of the children from index from on to a new sibling.
+     */
+    private void moveChildStats(long[] stats, int from, long[] siblingStats, int count) {
+        if (stats != null) {
+            System.arraycopy(stats, from, siblingStats, 0, count);
+            Arrays.fill(stats, from, degree * 2, 0L);
+        }
+    }
+
+    /**
+     * The largest count of a key in the subtree of x, worked out from the
+     * keys of x and the max counts of its children.
+     */
+    private static long maxCount(Node x) {
+        long max = 0;
+        for (int i = 0; i < x.numKeys; i++) {
+            max = Math.max(max, x.keys[i].getCount());
+        }
+        if (!x.isLeaf) {
+            for (int i = 0; i <= x.numKeys; i++) {
+                max = Math.max(max, x.maxCounts[i]);
+            }
+        }
+        return max;
+    }
 
     /**
      * Splits the full child at childIndex of parent
@@ -579,29 +1273,43 @@ public class BTree implements BTreeInterface {
     /**
      * Splits the full child at parent.children[childIndex] and promotes the median key in the parent
      *
+     * A child with 2t - 1 keys is split at key t - 1 as usual. With slotted
+     * pages a child can also be full because its page ran out of bytes, so the
+     * split point is always the middle of the keys the child actually has.
+     *
      * @param parent the node whose child is being split
      * @param childIndex index of the full child within parent.children
      */
     private void splitChild(Node parent, int childIndex, Node fullChild) {
-        Node newSibling = new Node(null);
+        Node newSibling = allocateNode();
         newSibling.isLeaf = fullChild.isLeaf;
         newSibling.parent = parent.address;
-        TreeObject median = fullChild.keys[degree - 1];
-        newSibling.numKeys = degree - 1;
+        int mid = fullChild.numKeys / 2;
+        int moved = fullChild.numKeys - mid - 1;
+        TreeObject median = fullChild.keys[mid];
+        newSibling.numKeys = moved;
 
-        System.arraycopy(fullChild.keys, degree, newSibling.keys, 0, degree - 1);
+        System.arraycopy(fullChild.keys, mid + 1, newSibling.keys, 0, moved);
         if (!fullChild.isLeaf) {
-            System.arraycopy(fullChild.childPointers, degree, newSibling.childPointers, 0, degree);
-            Arrays.fill(fullChild.childPointers, degree, degree * 2, 0L);
+            System.arraycopy(fullChild.childPointers, mid + 1, newSibling.childPointers, 0, moved + 1);
+            Arrays.fill(fullChild.childPointers, mid + 1, degree * 2, 0L);
+            moveChildStats(fullChild.maxCounts, mid + 1, newSibling.maxCounts, moved + 1);
+            moveChildStats(fullChild.keyCounts, mid + 1, newSibling.keyCounts, moved + 1);
+            moveChildStats(fullChild.countSums, mid + 1, newSibling.countSums, moved + 1);
         }
 
         // clear moved keys in old child
-        Arrays.fill(fullChild.keys, degree - 1, 2 * degree - 1, null);
-        fullChild.numKeys = degree - 1;
+        Arrays.fill(fullChild.keys, mid, 2 * degree - 1, null);
+        fullChild.numKeys = mid;
 
         // Make space for new child pointer in parent
         System.arraycopy(parent.childPointers, childIndex + 1, parent.childPointers, childIndex + 2, parent.numKeys - childIndex);
         parent.childPointers[childIndex + 1] = newSibling.address;
+        shiftChildStats(parent.maxCounts, childIndex, parent.numKeys);
+        shiftChildStats(parent.keyCounts, childIndex, parent.numKeys);
+        shiftChildStats(parent.countSums, childIndex, parent.numKeys);
+        setChildStats(parent, childIndex, fullChild);
+        setChildStats(parent, childIndex + 1, newSibling);
 
         // Make space for new key in parent
         System.arraycopy(parent.keys, childIndex, parent.keys, childIndex + 1, parent.numKeys - childIndex);
@@ -614,6 +1322,102 @@ public class BTree implements BTreeInterface {
 
     }
 
+    /**
+     * Builds a subtree of the given height holding the next n keys of the source
+     * and writes its nodes in post order.
+     *
+     * Each internal node gets the fewest children whose subtrees can hold its
+     * keys (but at least half the fanout, which is t for fixed slot pages, or 2
+     * for the root) and the keys are spread evenly over them, so every subtree
+     * stays within its minimum and maximum size.
+     *
+     * @param h height of the subtree, 0 for a leaf
+     * @param n number of keys in the subtree
+     * @param keys source of the sorted keys
+     * @param isRoot true if the subtree is the whole tree
+     * @return the root of the subtree, already written to disk
+     */
+    private Node bulkBuild(int h, long n, SortedKeySource keys, boolean isRoot) {
+        TreeObject[] nodeKeys = new TreeObject[2 * degree - 1];
+        long[] children = new long[2 * degree];
+        Node[] childNodes = null;
+        int numKeys;
+
+        if (h == 0) {
+            numKeys = (int) n;
+            for (int i = 0; i < numKeys; i++) {
+                nodeKeys[i] = keys.next();
+            }
+        } else {
+            long childCapacity = maxKeys(h - 1) + 1;
+            long c = (n + childCapacity) / childCapacity; // ceil((n + 1) / childCapacity)
+            c = Math.max(c, isRoot ? 2 : Math.max(2, fanout / 2));
+            long perChild = n - (c - 1);
+
+            numKeys = (int) (c - 1);
+            childNodes = new Node[(int) c];
+            for (int i = 0; i < c; i++) {
+                long childKeys = perChild / c + (i < perChild % c ? 1 : 0);
+                childNodes[i] = bulkBuild(h - 1, childKeys, keys, false);
+                children[i] = childNodes[i].address;
+                if (i < numKeys) {
+                    nodeKeys[i] = keys.next();
+                }
+            }
+        }
+
+        Node node = allocateNode();
+        node.keys = nodeKeys;
+        node.childPointers = children;
+        node.numKeys = numKeys;
+        node.isLeaf = h == 0;
+        for (int i = 0; childNodes != null && i < childNodes.length; i++) {
+            setChildStats(node, i, childNodes[i]);
+        }
+        diskWrite(node);
+        return node;
+    }
+
+    /**
+     * Maximum number of keys in a bulk loaded subtree of the given height,
+     * fanout^(h+1) - 1.
+     *
+     * @param h height of the subtree
+     * @return the maximum, or Long.MAX_VALUE if it does not fit in a long
+     */
+    private long maxKeys(int h) {
+        long capacity = 1;
+        for (int i = 0; i <= h; i++) {
+            if (capacity > Long.MAX_VALUE / fanout) {
+                return Long.MAX_VALUE;
+            }
+            capacity *= fanout;
+        }
+        return capacity - 1;
+    }
+
+    /**
+     * Hands out the keys for bulkLoad and checks that they are strictly increasing.
+     */
+    private static class SortedKeySource {
+        private final Iterator<TreeObject> keys;
+        private TreeObject previous;
+
+        SortedKeySource(Iterator<TreeObject> keys) {
+            this.keys = keys;
+        }
+
+        TreeObject next() {
+            TreeObject key = keys.next();
+            if (previous != null && key.compareTo(previous) <= 0) {
+                throw new IllegalArgumentException("bulkLoad keys must be strictly increasing: "
+                        + previous.getKey() + " before " + key.getKey());
+            }
+            previous = key;
+            return key;
+        }
+    }
+
     /**
      * Performs a traversal in order starting at node and appends each keys String value to output
      *
@@ -630,51 +1434,134 @@ public class BTree implements BTreeInterface {
         if (!node.isLeaf) inOrder(diskRead(node.childPointers[node.numKeys]), output);
     }
 
+    /**
+     * @throws IllegalStateException if the tree was opened read-only
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new IllegalStateException("BTree was opened read-only");
+        }
+    }
+
+    /**
+     * Counts a change to the metadata and writes it out once every
+     * checkpointInterval changes. An interval of 0 leaves that to flush().
+     */
+    private void changed() throws IOException {
+        pendingChanges++;
+        if (checkpointInterval > 0 && pendingChanges >= checkpointInterval) {
+            flush();
+        }
+    }
+
+    /**
+     * Picks the page format for a new file.
+     *
+     * @param fixedSlots true for the original fixed slot pages
+     * @param augmentations the PageFormat augmentations of slotted pages
+     */
+    private void chooseFormat(boolean fixedSlots, int augmentations) {
+        if (fixedSlots) {
+            METADATA_SIZE = LEGACY_METADATA_SIZE;
+            format = new FixedSlotFormat(degree);
+        } else {
+            METADATA_SIZE = HEADER_SIZE;
+            format = new SlottedPageFormat(degree, HEADER_SIZE, augmentations);
+        }
+    }
+
     /**
      * Writes the metadata of the BTree to the file.
      */
     private void writeMetaData() {
         try {
-            // Position the file channel to the start of the file
-            file.position(0);
-
             // Write the root address and size to the metadata
-            ByteBuffer tmpbuffer = ByteBuffer.allocateDirect(METADATA_SIZE);
+            ByteBuffer tmpbuffer = metaBuffer;
 
             tmpbuffer.clear();
-            tmpbuffer.putLong(rootAddress);
-            tmpbuffer.putLong(size);
+            if (format instanceof FixedSlotFormat) {
+                tmpbuffer.putLong(rootAddress);
+                tmpbuffer.putLong(size);
+            } else {
+                tmpbuffer.putLong(MAGIC);
+                tmpbuffer.putInt(VERSION_SLOTTED);
+                tmpbuffer.putInt(degree);
+                tmpbuffer.putLong(rootAddress);
+                tmpbuffer.putLong(size);
+                tmpbuffer.putInt(FLAG_STATS | format.augmentations());
+                tmpbuffer.putInt(nodeSize);
+                tmpbuffer.putLong(nodeCount);
+                tmpbuffer.putInt(height);
+                while (tmpbuffer.hasRemaining()) {
+                    tmpbuffer.put((byte) 0);
+                }
+            }
 
             tmpbuffer.flip();
-            file.write(tmpbuffer);
+            store.writeAt(0, tmpbuffer);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     /**
-     * Reads the metadata of the BTree from the file.
+     * Reads the metadata of an existing BTree file and picks the page format
+     * it was written with. Files without the magic number are fixed slot files
+     * of the degree given to the constructor, newer files record their degree.
+     *
+     * @param file the BTree file
+     * @throws IOException if the file cannot be read or has an unknown version
      */
-    private void readMetaData() {
-        try {
-            // Position the file channel to the start of the file
-            file.position(0);
-
-            // Allocate a temporary buffer to read the metadata
-            ByteBuffer tmpbuffer = ByteBuffer.allocateDirect(METADATA_SIZE);
-
-            tmpbuffer.clear();
-            file.read(tmpbuffer);
+    private void readMetaData(FileChannel file) throws IOException {
+        // Allocate a temporary buffer to read the metadata
+        ByteBuffer tmpbuffer = ByteBuffer.allocate((int) Math.min(HEADER_SIZE, file.size()));
+        while (tmpbuffer.hasRemaining()) {
+            if (file.read(tmpbuffer, tmpbuffer.position()) < 0) {
+                throw new IOException("Short read of BTree metadata");
+            }
+        }
 
-            // Flip the buffer to prepare it for reading
-            tmpbuffer.flip();
+        // Flip the buffer to prepare it for reading
+        tmpbuffer.flip();
+        if (tmpbuffer.remaining() < HEADER_SIZE || tmpbuffer.getLong(0) != MAGIC) {
+            chooseFormat(true, 0);
             rootAddress = tmpbuffer.getLong();
             size = tmpbuffer.getLong();
-        } catch (IOException e) {
-            e.printStackTrace();
+            nodeCount = -1; // worked out once the file is open
+            return;
+        }
+
+        tmpbuffer.getLong(); // magic
+        int version = tmpbuffer.getInt();
+        if (version != VERSION_SLOTTED) {
+            throw new IOException("Unsupported BTree file version " + version);
+        }
+        degree = tmpbuffer.getInt();
+        rootAddress = tmpbuffer.getLong();
+        size = tmpbuffer.getLong();
+        int flags = tmpbuffer.getInt();
+        int pageSize = tmpbuffer.getInt();
+        nodeCount = tmpbuffer.getLong();
+        height = tmpbuffer.getInt();
+        if ((flags & FLAG_STATS) == 0) {
+            nodeCount = -1; // worked out once the file is open
+        }
+        chooseFormat(false, flags & (PageFormat.MAX_COUNTS | PageFormat.SUBTREE_SIZES));
+        if (pageSize != format.pageSize()) {
+            throw new IOException("BTree file has " + pageSize + " byte pages, expected " + format.pageSize());
         }
     }
 
+    /**
+     * Creates an empty node at the next free page of the file.
+     */
+    private Node allocateNode() {
+        Node node = format.newNode(nextDiskAddress);
+        nextDiskAddress += nodeSize;
+        nodeCount++;
+        return node;
+    }
+
     /**
      * Reads a node from disk at the specified address.
      * @param diskAddress the address of the node on disk
@@ -687,139 +1574,152 @@ public class BTree implements BTreeInterface {
             return null;
         }
 
+        if (pool != null) {
+            Node hit = pool.get(diskAddress);
+            if (hit != null) {
+                return hit;
+            }
+        }
+
         if (useCache) {
-            Node hit = cache.get(diskAddress);
+            Node hit;
+            if (cache.isThreadSafe()) {
+                hit = cache.get(diskAddress);
+            } else {
+                synchronized (cache) {
+                    hit = cache.get(diskAddress);
+                }
+            }
             if (hit != null) {
                 return hit;
             }
         }
 
-        // Position the file channel to the disk address
+        // Read the page that holds the node
+        ByteBuffer page;
         try {
-            file.position(diskAddress);
-
-            buffer.clear();
-
-            int n;
-            try {
-                n = file.read(buffer);
-            } catch (IOException e) { n = -1; }
-            if (n < nodeSize) {
-                throw new RuntimeException(new IOException("Short read @"+diskAddress+" got "+n+" of "+nodeSize));
-            }
-            buffer.flip();
+            page = store.read(diskAddress);
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new RuntimeException(e);
         }
 
-        // Create a new Node and read its properties from the buffer
-        Node tempNode = new Node();
-
-        // Read the number of keys
-        tempNode.numKeys = buffer.getInt();
+        Node tempNode = format.decode(page, diskAddress);
 
-        // Read the key and counts
-        for (int i = 0; i < (2 * degree) - 1; i++) {
-            byte[] readBytes = new byte[TreeObject.BYTES - Long.BYTES];
-            buffer.get(readBytes);
-
-            int actualLen = readBytes.length;
-            for (int j = 0; j < readBytes.length - 1; j += 2) {
-                if (readBytes[j] == 0 && readBytes[j + 1] == 0) {
-                    actualLen = j;
-                    break;
-                }
-            }
-
-            long count = buffer.getLong();
-            if (actualLen > 0) {
-                String string = new String(readBytes, 0, actualLen, StandardCharsets.UTF_16BE);
-                tempNode.keys[i] = new TreeObject(string, count);
+        if (useCache) {
+            if (cache.isThreadSafe()) {
+                cache.add(tempNode);
             } else {
-                tempNode.keys[i] = null;
+                synchronized (cache) {
+                    cache.add(tempNode);
+                }
             }
         }
 
-        // Read whether the node is a leaf
-        tempNode.isLeaf = buffer.get() == 1;
-
-        // Read the parent address
-        tempNode.parent = buffer.getLong();
-
-        // Read the child pointers
-        for (int i = 0; i < 2 * degree; i++) {
-            tempNode.childPointers[i] = buffer.getLong();
-        }
-
-        // Set the address of the node
-        tempNode.address = diskAddress;
-        buffer.getLong();
-
-        if (useCache) {
-            cache.add(tempNode);
+        if (pool != null) {
+            try {
+                pool.put(tempNode, false);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         return tempNode;
     }
 
     /**
-     * Writes the node to disk at its address.
-     * @param x the node to write to disk
+     * Stores a changed node. With a buffer pool the node is only marked dirty
+     * and written later, otherwise it is written to disk right away.
+     * @param x the node that changed
      */
     private void diskWrite(Node x) {
+        if (pool == null) {
+            writeNode(x);
+            return;
+        }
         try {
-            file.position(x.address);
-
-            buffer.clear();
-
-            // Write the number of keys
-            buffer.putInt(x.numKeys);
-
-            // Write the keys and counts
-            for (int i = 0; i < (2 * degree) - 1; i++) {
-                TreeObject key = x.keys[i];
-                // If the key is null, write empty bytes
-                if (key == null) {
-                    for (int j = 0; j < (TreeObject.BYTES - Long.BYTES); j++) {
-                        buffer.put((byte) 0);
-                    }
-                    buffer.putLong(0);
-                }
-                // If the key is not null, write the key and count
-                else {
-                    byte[] charset = key.getKey().getBytes(StandardCharsets.UTF_16BE);
-                    byte[] paddedKey = Arrays.copyOf(charset, TreeObject.BYTES - Long.BYTES);
-                    buffer.put(paddedKey);
-                    buffer.putLong(key.getCount());
-                }
+            pool.put(x, true);
+            if (useCache) {
+                cache.add(x);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Write whether the node is a leaf
-            if (x.isLeaf) {
-                buffer.put((byte) 1);
-            } else {
-                buffer.put((byte) 0);
+    /**
+     * Stores a changed count. Only the 8 bytes of the count are written
+     * instead of the whole node, the rest of the page is unchanged.
+     * With a buffer pool the node is only marked dirty, like any other change.
+     * @param x the node that holds the key
+     * @param i index of the key whose count changed
+     */
+    private void writeCount(Node x, int i) {
+        writeLong(x, format.countOffset(i), x.keys[i].getCount());
+    }
+
+    /**
+     * Stores a changed 8 byte field of a node, such as a count, without
+     * writing the rest of the page.
+     * @param x the node that changed
+     * @param offset offset of the field from the start of the page
+     * @param value the new value of the field
+     */
+    private void writeLong(Node x, int offset, long value) {
+        if (pool != null) {
+            diskWrite(x);
+            return;
+        }
+        try {
+            store.writeLong(x.address + offset, value);
+            if (useCache) {
+                cache.add(x);
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-            // Write the parent address
-            buffer.putLong(x.parent);
+    /**
+     * Pins a node in the buffer pool so it is not evicted while it is changed.
+     * Does nothing without a buffer pool.
+     */
+    private void pin(Node x) throws IOException {
+        if (pool != null) {
+            pool.pin(x);
+        }
+    }
 
-            // Write the child pointers
-            for (int i = 0; i < 2 * degree; i++) {
-                if (x.childPointers[i] == 0) {
-                    buffer.putLong(0);
-                }
-                else {
-                    buffer.putLong(x.childPointers[i]);
-                }
-            }
+    /**
+     * Releases a pin taken with pin().
+     */
+    private void unpin(Node x) {
+        if (pool != null) {
+            pool.unpin(x);
+        }
+    }
 
-            buffer.putLong(x.address); // Write the address of the node
+    /**
+     * Makes the given node the root. The root stays pinned in the buffer pool.
+     */
+    private void setRoot(Node newRoot) throws IOException {
+        if (root != null) {
+            unpin(root);
+        }
+        root = newRoot;
+        rootAddress = newRoot.address;
+        pin(newRoot);
+    }
 
-            buffer.flip();
+    /**
+     * Writes the node to disk at its address.
+     * @param x the node to write to disk
+     */
+    private void writeNode(Node x) {
+        try {
+            format.encode(x, buffer);
 
             // Write the buffer to the file
-            file.write(buffer);
+            store.write(x.address, buffer);
 
             if (useCache) {
                 cache.add(x);
@@ -0,0 +1,65 @@
+package cs321.btree;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Opens a BTree file as the kind of tree it holds, or creates a new one of
+ * the kind selected by the options.
+ */
+public final class BTreeFactory {
+
+    private BTreeFactory() {
+    }
+
+    /**
+     * @param degree degree of the tree, 0 selects the default degree
+     * @param name name of the file that stores the tree
+     * @param options storage settings, BTreeOptions.shards, BTreeOptions.shardSplits and
+     *                BTreeOptions.bPlusTree pick the kind of a new tree
+     * @return a ShardedBTree or a BPlusTree if the file holds one, or is new and the options ask
+     *         for one, otherwise a BTree
+     * @throws IOException if the header of an existing file cannot be read
+     */
+    public static BTreeInterface open(int degree, String name, BTreeOptions options) throws IOException {
+        File file = new File(name);
+        boolean sharded;
+        if (!file.isFile() || file.length() == 0) {
+            sharded = options.getShards() > 1 || options.getShardSplits() != null;
+        } else {
+            sharded = version(file) == ShardedBTree.VERSION_SHARDED;
+        }
+        return sharded ? new ShardedBTree(degree, name, options) : openTree(degree, name, options);
+    }
+
+    /**
+     * Opens a single tree, never a sharded one.
+     *
+     * @param degree degree of the tree, 0 selects the default degree
+     * @param name name of the file that stores the tree
+     * @param options storage settings, BTreeOptions.bPlusTree picks the kind of a new tree
+     * @return a BPlusTree if the file holds one, or is new and the options ask for one, otherwise a BTree
+     * @throws IOException if the header of an existing file cannot be read
+     */
+    static BTreeInterface openTree(int degree, String name, BTreeOptions options) throws IOException {
+        File file = new File(name);
+        if (!file.isFile() || file.length() == 0) {
+            return options.isBPlusTree() ? new BPlusTree(degree, name, options) : new BTree(degree, name, options);
+        }
+        boolean bPlusTree = version(file) == BPlusTree.VERSION_BPLUS;
+        return bPlusTree ? new BPlusTree(degree, name, options) : new BTree(degree, name, options);
+    }
+
+    /**
+     * @return the version in the header of the file, 0 if it has no header
+     */
+    private static int version(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            if (raf.length() >= Long.BYTES + Integer.BYTES && raf.readLong() == BTree.MAGIC) {
+                return raf.readInt();
+            }
+        }
+        return 0;
+    }
+}
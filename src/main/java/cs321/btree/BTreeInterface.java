@@ -3,6 +3,9 @@ package cs321.btree;
 import cs321.btree.TreeObject;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 
 public interface BTreeInterface {
 
@@ -33,7 +36,8 @@ public interface BTreeInterface {
     /**
      *
      * Insert a given SSH key into the B-Tree. If the key already exists in the B-Tree,
-     * the frequency count is incremented. Otherwise, a new node is inserted
+     * the frequency count is increased by the count of the TreeObject, which is 1
+     * unless the key was counted before. Otherwise, a new node is inserted
      * following the B-Tree insertion algorithm.
      *
      * @param obj
@@ -43,6 +47,15 @@ public interface BTreeInterface {
     void insert(TreeObject obj) throws IOException;
 
 
+    /**
+     * Builds an empty BTree from keys that are already sorted and counted,
+     * which is much faster than inserting them one at a time.
+     *
+     * @param sortedKeys the keys in strictly increasing order with their final counts
+     */
+    void bulkLoad(Collection<TreeObject> sortedKeys) throws IOException;
+
+
     /**
      * Print out all objects in the given BTree in an inorder traversal to a file.
      *
@@ -74,6 +87,88 @@ public interface BTreeInterface {
     TreeObject search(String key) throws IOException;
 
 
+    /**
+     * Looks up how often a key was inserted. Unlike search this does not
+     * create a TreeObject for the result.
+     *
+     * @param key
+     *            The key value to search for.
+     * @return the count of the key, 0 if the key is not in the BTree
+     */
+    long count(String key) throws IOException;
+
+
+    /**
+     * Iterates over the keys between two bounds in increasing order.
+     *
+     * @param from smallest key to return (inclusive), or null for no lower bound
+     * @param to largest key to return (inclusive), or null for no upper bound
+     * @return an iterator over the keys and their counts
+     */
+    Iterator<TreeObject> scan(String from, String to);
+
+
+    /**
+     * Iterates over the keys that start with a prefix in increasing order.
+     *
+     * @param prefix the prefix of the keys to return
+     * @return an iterator over the keys and their counts
+     */
+    Iterator<TreeObject> scanPrefix(String prefix);
+
+
+    /**
+     * Finds the keys with the highest counts.
+     *
+     * @param k number of keys to return
+     * @return at most k keys, highest count first and equal counts in key order
+     */
+    List<TreeObject> topFrequent(int k);
+
+
+    /**
+     * @param key a key, which does not have to be in the BTree
+     * @return the number of keys that are less than the key
+     */
+    long rank(String key);
+
+
+    /**
+     * @param i index of a key in the sorted keys, starting at 0
+     * @return the key at that index and its count, or null if the index is out of range
+     */
+    TreeObject select(long i);
+
+
+    /**
+     * @param from smallest key to count (inclusive), or null for no lower bound
+     * @param to largest key to count (inclusive), or null for no upper bound
+     * @return the number of keys in the range
+     */
+    long rangeCount(String from, String to);
+
+
+    /**
+     * @param from smallest key to include (inclusive), or null for no lower bound
+     * @param to largest key to include (inclusive), or null for no upper bound
+     * @return the sum of the counts of the keys in the range
+     */
+    long rangeSum(String from, String to);
+
+
+    /**
+     * Writes all changes that are still held in memory, and the metadata, to
+     * the file.
+     */
+    void flush() throws IOException;
+
+
+    /**
+     * Flushes the BTree and closes its file. The BTree cannot be used afterwards.
+     */
+    void close() throws IOException;
+
+
 	/**
      * Deletes a key from the BTree. Not Implemented.
      *
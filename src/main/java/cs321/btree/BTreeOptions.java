@@ -0,0 +1,383 @@
+package cs321.btree;
+
+import cs321.cache.CachePolicy;
+
+/**
+ * Optional settings used when a BTree file is created or opened. The defaults
+ * match the plain BTree(degree, name) constructor.
+ */
+public class BTreeOptions {
+
+    /**
+     * Default number of bytes mapped at a time in memory mapped mode.
+     */
+    public static final long DEFAULT_MAPPED_CHUNK_SIZE = 16L * 1024 * 1024;
+
+    private boolean useCache = false;
+    private int cacheSize = 0;
+    private CachePolicy cachePolicy = CachePolicy.LRU;
+    private boolean memoryMapped = false;
+    private long mappedChunkSize = DEFAULT_MAPPED_CHUNK_SIZE;
+    private int bufferPoolFrames = 0;
+    private boolean fixedSlotFormat = false;
+    private boolean maxCounts = false;
+    private boolean subtreeSizes = false;
+    private boolean bPlusTree = false;
+    private int shards = 1;
+    private String[] shardSplits = null;
+    private int checkpointInterval = 1;
+    private boolean syncOnCheckpoint = false;
+    private boolean readOnly = false;
+    private boolean concurrentCache = false;
+    private int pinnedLevels = 0;
+    private long pinnedBytes = 0;
+    private long pageCacheBytes = 0;
+
+    /**
+     * Enables the node cache with the given number of entries, 0 disables it.
+     *
+     * @param cacheSize number of nodes kept in the cache
+     * @return these options
+     */
+    public BTreeOptions cache(int cacheSize) {
+        this.useCache = cacheSize > 0;
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    /**
+     * Sets the eviction policy of the node cache. The default is LRU.
+     *
+     * @param cachePolicy the policy
+     * @return these options
+     */
+    public BTreeOptions cachePolicy(CachePolicy cachePolicy) {
+        if (cachePolicy == null) {
+            throw new IllegalArgumentException("cachePolicy must not be null");
+        }
+        this.cachePolicy = cachePolicy;
+        return this;
+    }
+
+    /**
+     * Accesses the BTree file through memory mapped chunks instead of a read
+     * or write call per node.
+     *
+     * @param memoryMapped true to map the file
+     * @return these options
+     */
+    public BTreeOptions memoryMapped(boolean memoryMapped) {
+        this.memoryMapped = memoryMapped;
+        return this;
+    }
+
+    /**
+     * Sets how many bytes are mapped at a time when the file grows. The value
+     * is rounded down to a whole number of nodes.
+     *
+     * @param mappedChunkSize chunk size in bytes
+     * @return these options
+     */
+    public BTreeOptions mappedChunkSize(long mappedChunkSize) {
+        if (mappedChunkSize < 1) {
+            throw new IllegalArgumentException("mappedChunkSize must be greater than 0");
+        }
+        this.mappedChunkSize = mappedChunkSize;
+        return this;
+    }
+
+    /**
+     * Keeps changed nodes in a write-back buffer pool with the given number of
+     * frames instead of writing every change straight to disk, 0 disables the
+     * pool. Changes are only guaranteed to be on disk after flush() or
+     * close().
+     *
+     * @param frames number of nodes the pool can hold, 0 or at least 4
+     * @return these options
+     */
+    public BTreeOptions bufferPool(int frames) {
+        if (frames != 0 && frames < 4) {
+            throw new IllegalArgumentException("bufferPool must be 0 or at least 4 frames");
+        }
+        this.bufferPoolFrames = frames;
+        return this;
+    }
+
+    /**
+     * Creates new BTree files with the original fixed slot page layout instead
+     * of slotted pages with UTF-8 keys. Existing files are always opened in the
+     * layout they were written with.
+     *
+     * @param fixedSlotFormat true to write fixed slot pages
+     * @return these options
+     */
+    public BTreeOptions fixedSlotFormat(boolean fixedSlotFormat) {
+        this.fixedSlotFormat = fixedSlotFormat;
+        return this;
+    }
+
+    /**
+     * Stores with every child pointer of a new BTree file the largest count
+     * in that child's subtree, so topFrequent() only reads the nodes that can
+     * hold one of the top keys. Pages get 8 bytes per child larger. Only
+     * slotted pages support this; existing files keep the layout they were
+     * written with.
+     *
+     * @param maxCounts true to store subtree max counts
+     * @return these options
+     */
+    public BTreeOptions maxCounts(boolean maxCounts) {
+        this.maxCounts = maxCounts;
+        return this;
+    }
+
+    /**
+     * Stores with every child pointer of a new BTree file the number of keys
+     * and the sum of their counts in that child's subtree, so rank(), select(),
+     * rangeCount() and rangeSum() only read one path of nodes per bound.
+     * Pages get 16 bytes per child larger. Only slotted pages support this;
+     * existing files keep the layout they were written with.
+     *
+     * @param subtreeSizes true to store subtree sizes
+     * @return these options
+     */
+    public BTreeOptions subtreeSizes(boolean subtreeSizes) {
+        this.subtreeSizes = subtreeSizes;
+        return this;
+    }
+
+    /**
+     * Makes BTreeFactory create new files as a BPlusTree, which keeps all keys
+     * in a chain of leaves, instead of a BTree. Existing files are always
+     * opened as the kind of tree they hold.
+     *
+     * @param bPlusTree true to create a BPlusTree
+     * @return these options
+     */
+    public BTreeOptions bPlusTree(boolean bPlusTree) {
+        this.bPlusTree = bPlusTree;
+        return this;
+    }
+
+    /**
+     * Makes BTreeFactory create new files as a ShardedBTree with the given
+     * number of shards, which the keys are spread over by their hash. 1 creates
+     * a single tree. Existing files are always opened as the kind of tree they
+     * hold.
+     *
+     * @param shards number of shards, at least 1
+     * @return these options
+     */
+    public BTreeOptions shards(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1");
+        }
+        this.shards = shards;
+        return this;
+    }
+
+    /**
+     * Makes BTreeFactory create new files as a ShardedBTree that is split by
+     * key ranges instead of hashes, one shard more than there are split keys.
+     * Shard i holds the keys from split key i - 1 (inclusive) up to split key
+     * i (exclusive).
+     *
+     * @param splitKeys the split keys in strictly increasing order, or null to split by hash
+     * @return these options
+     */
+    public BTreeOptions shardSplits(String... splitKeys) {
+        for (int i = 1; splitKeys != null && i < splitKeys.length; i++) {
+            if (splitKeys[i - 1].compareTo(splitKeys[i]) >= 0) {
+                throw new IllegalArgumentException("shardSplits must be strictly increasing");
+            }
+        }
+        this.shardSplits = splitKeys == null ? null : splitKeys.clone();
+        return this;
+    }
+
+    /**
+     * Sets how many changing inserts may happen before the metadata (and the
+     * buffer pool) is written out automatically. The default of 1 writes the
+     * metadata after every insert that changes it. Larger values trade how
+     * much work can be lost in a crash for fewer writes, and 0 only writes on
+     * flush() or close().
+     *
+     * @param checkpointInterval number of changes between checkpoints, 0 for none
+     * @return these options
+     */
+    public BTreeOptions checkpointInterval(int checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("checkpointInterval must not be negative");
+        }
+        this.checkpointInterval = checkpointInterval;
+        return this;
+    }
+
+    /**
+     * Forces the file to the storage device at every checkpoint, so a
+     * checkpoint also survives a power failure and not just a crash of the
+     * program.
+     *
+     * @param syncOnCheckpoint true to force the file at checkpoints
+     * @return these options
+     */
+    public BTreeOptions syncOnCheckpoint(boolean syncOnCheckpoint) {
+        this.syncOnCheckpoint = syncOnCheckpoint;
+        return this;
+    }
+
+    /**
+     * Opens an existing BTree file for searching only. A read-only BTree can
+     * be searched by several threads at once; insert and bulkLoad throw
+     * IllegalStateException. The buffer pool setting is ignored.
+     *
+     * @param readOnly true to open the file read-only
+     * @return these options
+     */
+    public BTreeOptions readOnly(boolean readOnly) {
+        this.readOnly = readOnly;
+        return this;
+    }
+
+    /**
+     * Makes the node cache safe for several threads without a lock around it,
+     * for a read-only BTree that several threads search. With the LRU policy
+     * the cache is a ConcurrentCache; the other policies keep their cache and
+     * the BTree locks around it as it does without this setting.
+     *
+     * @param concurrentCache true to use a concurrent cache
+     * @return these options
+     */
+    public BTreeOptions concurrentCache(boolean concurrentCache) {
+        this.concurrentCache = concurrentCache;
+        return this;
+    }
+
+    /**
+     * Keeps the upper levels of the tree decoded in memory for point
+     * lookups, so search and count only read the nodes below them. The
+     * levels are loaded when the file is opened, and again after the tree
+     * changed. With a byte limit too, nodes are pinned until either limit is
+     * reached. 0 pins no levels unless pinnedBytes is set.
+     *
+     * @param pinnedLevels the number of levels to pin, counting the root
+     * @return these options
+     */
+    public BTreeOptions pinnedLevels(int pinnedLevels) {
+        if (pinnedLevels < 0) {
+            throw new IllegalArgumentException("pinnedLevels must not be negative");
+        }
+        this.pinnedLevels = pinnedLevels;
+        return this;
+    }
+
+    /**
+     * Keeps as many upper nodes of the tree decoded in memory as fit in
+     * about the given number of bytes, a level at a time from the root. See
+     * pinnedLevels. 0 sets no byte limit.
+     *
+     * @param pinnedBytes the estimated memory the pinned nodes may use
+     * @return these options
+     */
+    public BTreeOptions pinnedBytes(long pinnedBytes) {
+        if (pinnedBytes < 0) {
+            throw new IllegalArgumentException("pinnedBytes must not be negative");
+        }
+        this.pinnedBytes = pinnedBytes;
+        return this;
+    }
+
+    /**
+     * Keeps copies of the raw pages that are read in memory outside the Java
+     * heap, below the node cache. A page takes its page size there, while a
+     * decoded node takes several times that of heap, so this can hold a
+     * large tree with a small node cache. The JVM limits direct memory with
+     * -XX:MaxDirectMemorySize, which defaults to the maximum heap size.
+     *
+     * @param pageCacheBytes memory for the cached pages, 0 to disable the page cache
+     * @return these options
+     */
+    public BTreeOptions pageCache(long pageCacheBytes) {
+        if (pageCacheBytes < 0) {
+            throw new IllegalArgumentException("pageCacheBytes must not be negative");
+        }
+        this.pageCacheBytes = pageCacheBytes;
+        return this;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public boolean isConcurrentCache() {
+        return concurrentCache;
+    }
+
+    public int getPinnedLevels() {
+        return pinnedLevels;
+    }
+
+    public long getPinnedBytes() {
+        return pinnedBytes;
+    }
+
+    public long getPageCacheBytes() {
+        return pageCacheBytes;
+    }
+
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public long getMappedChunkSize() {
+        return mappedChunkSize;
+    }
+
+    public int getBufferPoolFrames() {
+        return bufferPoolFrames;
+    }
+
+    public boolean isFixedSlotFormat() {
+        return fixedSlotFormat;
+    }
+
+    public boolean isMaxCounts() {
+        return maxCounts;
+    }
+
+    public boolean isSubtreeSizes() {
+        return subtreeSizes;
+    }
+
+    public boolean isBPlusTree() {
+        return bPlusTree;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public String[] getShardSplits() {
+        return shardSplits == null ? null : shardSplits.clone();
+    }
+
+    public int getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    public boolean isSyncOnCheckpoint() {
+        return syncOnCheckpoint;
+    }
+
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+}
@@ -0,0 +1,192 @@
+package cs321.btree;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import cs321.cache.KeyInterface;
+
+/**
+ * A write-back buffer pool with a fixed number of frames.
+ *
+ * Each frame holds one node together with a dirty bit and a pin count.
+ * Changing a node only marks its frame dirty; the node is written to disk
+ * when its frame is chosen for eviction or when the pool is flushed. Frames
+ * are chosen for eviction with the CLOCK algorithm and pinned frames are
+ * never evicted.
+ *
+ * @param <V> the type of node stored, keyed by its disk address
+ */
+class BufferPool<V extends KeyInterface<Long>> {
+
+    /**
+     * Writes a node back to disk when its dirty frame is evicted or flushed.
+     */
+    interface Writer<V> {
+        void write(V value) throws IOException;
+    }
+
+    private final Writer<V> writer;
+    private final Map<Long, Integer> frameOf;
+    private final Object[] values;
+    private final boolean[] dirty;
+    private final boolean[] referenced;
+    private final int[] pins;
+    private int used = 0;
+    private int hand = 0;
+
+    private long numHits = 0;
+    private long numReferences = 0;
+    private long numWrites = 0;
+    private long numEvictions = 0;
+
+    /**
+     * @param frames number of frames in the pool
+     * @param writer writes dirty nodes back to disk
+     */
+    BufferPool(int frames, Writer<V> writer) {
+        if (frames < 1) {
+            throw new IllegalArgumentException("frames must be greater than 0");
+        }
+        this.writer = writer;
+        this.frameOf = new HashMap<>(frames * 2);
+        this.values = new Object[frames];
+        this.dirty = new boolean[frames];
+        this.referenced = new boolean[frames];
+        this.pins = new int[frames];
+    }
+
+    /**
+     * Looks up the node stored at the given address.
+     *
+     * @param address disk address of the node
+     * @return the node or null if it is not in the pool
+     */
+    V get(long address) {
+        numReferences++;
+        Integer frame = frameOf.get(address);
+        if (frame == null) {
+            return null;
+        }
+        numHits++;
+        referenced[frame] = true;
+        return value(frame);
+    }
+
+    /**
+     * Stores a node in the pool, evicting another node if every frame is used.
+     * A dirty node stays dirty until it has been written.
+     *
+     * @param node the node to store
+     * @param isDirty true if the node has changes that are not on disk yet
+     * @throws IOException if an evicted node could not be written
+     */
+    void put(V node, boolean isDirty) throws IOException {
+        int frame = frameFor(node);
+        dirty[frame] |= isDirty;
+    }
+
+    /**
+     * Pins a node so its frame is not evicted, storing it first if needed.
+     * Every pin must be matched by a call to unpin.
+     *
+     * @param node the node to pin
+     * @throws IOException if an evicted node could not be written
+     */
+    void pin(V node) throws IOException {
+        pins[frameFor(node)]++;
+    }
+
+    /**
+     * Releases one pin of a node.
+     *
+     * @param node the node to unpin
+     */
+    void unpin(V node) {
+        Integer frame = frameOf.get(node.getKey());
+        if (frame != null && pins[frame] > 0) {
+            pins[frame]--;
+        }
+    }
+
+    /**
+     * Writes every dirty node to disk. The nodes stay in the pool.
+     *
+     * @throws IOException if a node could not be written
+     */
+    void flush() throws IOException {
+        for (int frame = 0; frame < used; frame++) {
+            if (values[frame] != null && dirty[frame]) {
+                writer.write(value(frame));
+                dirty[frame] = false;
+                numWrites++;
+            }
+        }
+    }
+
+    /**
+     * Returns the frame that holds the node, claiming a frame if the node is not
+     * in the pool yet. The frame always ends up holding the given node object.
+     */
+    private int frameFor(V node) throws IOException {
+        Integer frame = frameOf.get(node.getKey());
+        if (frame == null) {
+            frame = claimFrame();
+            frameOf.put(node.getKey(), frame);
+            dirty[frame] = false;
+            pins[frame] = 0;
+        }
+        values[frame] = node;
+        referenced[frame] = true;
+        return frame;
+    }
+
+    /**
+     * Returns an unused frame, or evicts the first unpinned frame whose
+     * reference bit is clear while sweeping the clock hand.
+     */
+    private int claimFrame() throws IOException {
+        if (used < values.length) {
+            return used++;
+        }
+        for (int swept = 0; swept < 2 * values.length; swept++) {
+            int frame = hand;
+            hand = (hand + 1) % values.length;
+            if (pins[frame] > 0) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            V victim = value(frame);
+            if (dirty[frame]) {
+                writer.write(victim);
+                numWrites++;
+            }
+            frameOf.remove(victim.getKey());
+            values[frame] = null;
+            numEvictions++;
+            return frame;
+        }
+        throw new IllegalStateException("All " + values.length + " buffer pool frames are pinned");
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int frame) {
+        return (V) values[frame];
+    }
+
+    @Override
+    public String toString() {
+        double hitPercent = numReferences == 0 ? 0.0 : (numHits * 100.0) / numReferences;
+        return  "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                "Buffer pool with " + values.length + " frames\n" +
+                "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                String.format("%-30s %10d%n", "Total number of references:", numReferences) +
+                String.format("%-30s %10d%n", "Total number of pool hits:", numHits) +
+                String.format("%-30s %10.2f%%%n", "Pool hit percent:", hitPercent) +
+                String.format("%-30s %10d%n", "Nodes written back:", numWrites) +
+                String.format("%-30s %10d%n", "Frames evicted:", numEvictions);
+    }
+}
@@ -0,0 +1,83 @@
+package cs321.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * PageStore that copies every page through a direct buffer with positional
+ * FileChannel reads and writes. Each thread reads into its own buffer, so
+ * pages can be read by several threads at once.
+ */
+class ChannelPageStore implements PageStore {
+
+    private final FileChannel file;
+    private final ThreadLocal<ByteBuffer> buffer;
+    private final ByteBuffer longBuffer = ByteBuffer.allocateDirect(Long.BYTES);
+
+    /**
+     * @param file open channel of the BTree file
+     * @param pageSize number of bytes in one page
+     */
+    ChannelPageStore(FileChannel file, int pageSize) {
+        this.file = file;
+        this.buffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(pageSize));
+    }
+
+    @Override
+    public ByteBuffer read(long address) throws IOException {
+        ByteBuffer page = buffer.get();
+        page.clear();
+        readAt(address, page);
+        page.flip();
+        return page;
+    }
+
+    @Override
+    public void write(long address, ByteBuffer page) throws IOException {
+        writeAt(address, page);
+    }
+
+    @Override
+    public void readAt(long position, ByteBuffer dst) throws IOException {
+        long start = position;
+        int wanted = dst.remaining();
+        while (dst.hasRemaining()) {
+            int n = file.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Short read @" + start + " got " + (position - start) + " of " + wanted);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void writeAt(long position, ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            position += file.write(src, position);
+        }
+    }
+
+    @Override
+    public void writeLong(long position, long value) throws IOException {
+        longBuffer.clear();
+        longBuffer.putLong(value);
+        longBuffer.flip();
+        writeAt(position, longBuffer);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return file.size();
+    }
+
+    @Override
+    public void force() throws IOException {
+        file.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,205 @@
+package cs321.btree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The original page layout. Every page reserves 2t - 1 key slots of
+ * TreeObject.BYTES each (a key padded to 64 bytes of UTF-16BE followed by its
+ * count), then the leaf flag, the parent address, 2t child addresses and the
+ * address of the page itself.
+ *
+ * Kept so BTree files written before the slotted format can still be read
+ * and updated.
+ */
+class FixedSlotFormat extends PageFormat {
+
+    private static final int KEY_BYTES = TreeObject.BYTES - Long.BYTES;
+
+    private final int pageSize;
+    private final int leafOffset; // the leaf flag follows the key slots
+
+    /**
+     * @param degree degree of the BTree
+     */
+    FixedSlotFormat(int degree) {
+        super(degree);
+        pageSize = Integer.BYTES + ((2 * degree) - 1) * TreeObject.BYTES + 1 + Long.BYTES + (2 * degree) * Long.BYTES + Long.BYTES;
+        leafOffset = Integer.BYTES + ((2 * degree) - 1) * TreeObject.BYTES;
+    }
+
+    @Override
+    int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    void encode(Node x, ByteBuffer buffer) {
+        buffer.clear();
+
+        // Write the number of keys
+        buffer.putInt(x.numKeys);
+
+        // Write the keys and counts
+        for (int i = 0; i < (2 * degree) - 1; i++) {
+            TreeObject key = x.keys[i];
+            // If the key is null, write empty bytes
+            if (key == null) {
+                for (int j = 0; j < KEY_BYTES; j++) {
+                    buffer.put((byte) 0);
+                }
+                buffer.putLong(0);
+            }
+            // If the key is not null, write the key and count
+            else {
+                byte[] charset = key.getKey().getBytes(StandardCharsets.UTF_16BE);
+                byte[] paddedKey = Arrays.copyOf(charset, KEY_BYTES);
+                buffer.put(paddedKey);
+                buffer.putLong(key.getCount());
+            }
+        }
+
+        // Write whether the node is a leaf
+        if (x.isLeaf) {
+            buffer.put((byte) 1);
+        } else {
+            buffer.put((byte) 0);
+        }
+
+        // Write the parent address
+        buffer.putLong(x.parent);
+
+        // Write the child pointers
+        for (int i = 0; i < 2 * degree; i++) {
+            buffer.putLong(x.childPointers[i]);
+        }
+
+        buffer.putLong(x.address); // Write the address of the node
+
+        buffer.flip();
+    }
+
+    @Override
+    Node decode(ByteBuffer page, long diskAddress) {
+        // Create a new Node and read its properties from the page
+        Node tempNode = new Node(degree, diskAddress);
+
+        // Read the number of keys
+        tempNode.numKeys = page.getInt();
+
+        // Read the key and counts
+        byte[] readBytes = new byte[KEY_BYTES];
+        for (int i = 0; i < (2 * degree) - 1; i++) {
+            page.get(readBytes);
+
+            int actualLen = readBytes.length;
+            for (int j = 0; j < readBytes.length - 1; j += 2) {
+                if (readBytes[j] == 0 && readBytes[j + 1] == 0) {
+                    actualLen = j;
+                    break;
+                }
+            }
+
+            long count = page.getLong();
+            if (actualLen > 0) {
+                String string = new String(readBytes, 0, actualLen, StandardCharsets.UTF_16BE);
+                tempNode.keys[i] = new TreeObject(string, count);
+            } else {
+                tempNode.keys[i] = null;
+            }
+        }
+
+        // Read whether the node is a leaf
+        tempNode.isLeaf = page.get() == 1;
+
+        // Read the parent address
+        tempNode.parent = page.getLong();
+
+        // Read the child pointers
+        for (int i = 0; i < 2 * degree; i++) {
+            tempNode.childPointers[i] = page.getLong();
+        }
+
+        // Skip the address of the node
+        page.getLong();
+
+        return tempNode;
+    }
+
+    @Override
+    boolean isFull(Node x) {
+        return x.numKeys == 2 * degree - 1;
+    }
+
+    @Override
+    int maxKeysPerPage(int maxKeyBytes) {
+        return 2 * degree - 1;
+    }
+
+    @Override
+    int keyBytes(String key) {
+        return Math.min(2 * key.length(), KEY_BYTES);
+    }
+
+    @Override
+    void checkKey(String key) {
+        // Longer keys are cut off at KEY_BYTES, as they always have been
+    }
+
+    @Override
+    byte[] encodeKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_16BE);
+    }
+
+    @Override
+    int numKeys(ByteBuffer page) {
+        return page.getInt(page.position());
+    }
+
+    @Override
+    boolean isLeaf(ByteBuffer page) {
+        return page.get(page.position() + leafOffset) == 1;
+    }
+
+    @Override
+    int countOffset(int i) {
+        return Integer.BYTES + i * TreeObject.BYTES + KEY_BYTES;
+    }
+
+    @Override
+    long count(ByteBuffer page, int i) {
+        return page.getLong(page.position() + countOffset(i));
+    }
+
+    @Override
+    long child(ByteBuffer page, int i) {
+        return page.getLong(page.position() + leafOffset + 1 + Long.BYTES + i * Long.BYTES);
+    }
+
+    /**
+     * UTF-16BE bytes compared as unsigned values sort like the chars of a
+     * String. A stored key ends at the first zero char of its slot.
+     */
+    @Override
+    int compareKey(byte[] key, ByteBuffer page, int i) {
+        int slot = page.position() + Integer.BYTES + i * TreeObject.BYTES;
+        for (int j = 0; j + 1 < KEY_BYTES; j += 2) {
+            int a1 = page.get(slot + j) & 0xFF;
+            int a2 = page.get(slot + j + 1) & 0xFF;
+            if (a1 == 0 && a2 == 0) {
+                // The stored key ended, the search key is greater unless it ended too
+                return j < key.length ? 1 : 0;
+            }
+            if (j >= key.length) {
+                return -1;
+            }
+            int stored = (a1 << 8) | a2;
+            int search = ((key[j] & 0xFF) << 8) | (key[j + 1] & 0xFF);
+            if (search != stored) {
+                return search - stored;
+            }
+        }
+        return key.length > KEY_BYTES ? 1 : 0;
+    }
+}
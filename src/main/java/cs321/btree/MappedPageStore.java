@@ -0,0 +1,151 @@
+package cs321.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PageStore that maps the BTree file into memory. The pages are mapped in
+ * chunks that hold a whole number of pages, so a node never straddles two
+ * mappings and reading it is a plain memory access. New chunks are mapped as
+ * the tree grows past the end of the last one.
+ *
+ * A read-only store maps the whole file up front. Every thread reads through
+ * its own views of the chunks, so pages can be read by several threads at once.
+ */
+class MappedPageStore implements PageStore {
+
+    private final FileChannel file;
+    private final long firstPage;
+    private final long chunkSize;
+    private final boolean readOnly;
+    private final List<MappedByteBuffer> chunks = new ArrayList<>();
+    private final ThreadLocal<List<ByteBuffer>> views = ThreadLocal.withInitial(ArrayList::new);
+
+    /** End of the bytes actually written, the rest of the last chunk is padding. */
+    private long end;
+
+    /**
+     * @param file open channel of the BTree file
+     * @param firstPage file offset of the first page (the metadata lives in front of it)
+     * @param pageSize number of bytes in one page
+     * @param chunkSize preferred number of bytes to map at a time
+     * @param readOnly true to map the existing file read-only
+     * @throws IOException if the file size could not be read or the file could not be mapped
+     */
+    MappedPageStore(FileChannel file, long firstPage, int pageSize, long chunkSize, boolean readOnly) throws IOException {
+        this.file = file;
+        this.firstPage = firstPage;
+        this.chunkSize = Math.max(1, chunkSize / pageSize) * pageSize;
+        this.readOnly = readOnly;
+        this.end = file.size();
+        if (readOnly && end > firstPage) {
+            chunkFor(end - 1);
+        }
+    }
+
+    @Override
+    public ByteBuffer read(long address) throws IOException {
+        int index = (int) ((address - firstPage) / chunkSize);
+        List<ByteBuffer> own = views.get();
+        if (own.size() <= index) {
+            chunkFor(address);
+            while (own.size() <= index) {
+                own.add(chunks.get(own.size()).duplicate());
+            }
+        }
+        ByteBuffer view = own.get(index);
+        view.clear();
+        view.position((int) ((address - firstPage) % chunkSize));
+        return view;
+    }
+
+    @Override
+    public void write(long address, ByteBuffer page) throws IOException {
+        int length = page.remaining();
+        MappedByteBuffer chunk = chunkFor(address);
+        chunk.clear();
+        chunk.position((int) ((address - firstPage) % chunkSize));
+        chunk.put(page);
+        end = Math.max(end, address + length);
+    }
+
+    @Override
+    public void readAt(long position, ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = file.read(dst, position);
+            if (n < 0) {
+                throw new IOException("Short read @" + position);
+            }
+            position += n;
+        }
+    }
+
+    @Override
+    public void writeAt(long position, ByteBuffer src) throws IOException {
+        long last = position + src.remaining();
+        while (src.hasRemaining()) {
+            position += file.write(src, position);
+        }
+        end = Math.max(end, last);
+    }
+
+    @Override
+    public void writeLong(long position, long value) throws IOException {
+        chunkFor(position).putLong((int) ((position - firstPage) % chunkSize), value);
+    }
+
+    @Override
+    public long size() {
+        return end;
+    }
+
+    @Override
+    public void force() throws IOException {
+        for (MappedByteBuffer chunk : chunks) {
+            chunk.force();
+        }
+        file.force(false);
+    }
+
+    /**
+     * Forces the mapped pages and trims the padding of the last chunk off the
+     * file. A read-only store just closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (readOnly) {
+                chunks.clear();
+                return;
+            }
+            force();
+            chunks.clear();
+            if (file.size() > end) {
+                file.truncate(end);
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Returns the mapping that holds the page at the given address, mapping
+     * more of the file when the address lies past the last mapped chunk.
+     */
+    private MappedByteBuffer chunkFor(long address) throws IOException {
+        int index = (int) ((address - firstPage) / chunkSize);
+        while (chunks.size() <= index) {
+            long start = firstPage + chunks.size() * chunkSize;
+            if (readOnly) {
+                chunks.add(file.map(FileChannel.MapMode.READ_ONLY, start, Math.min(chunkSize, end - start)));
+            } else {
+                chunks.add(file.map(FileChannel.MapMode.READ_WRITE, start, chunkSize));
+            }
+        }
+        return chunks.get(index);
+    }
+}
@@ -0,0 +1,50 @@
+package cs321.btree;
+
+import cs321.cache.KeyInterface;
+
+/**
+ * A node of a BTree as it is held in memory. The node is identified by the
+ * disk address of the page that stores it.
+ */
+class Node implements KeyInterface<Long> {
+    long address; //8 bytes
+    long parent; //8 bytes
+    int numKeys; //4 bytes
+    boolean isLeaf; //1 byte
+    TreeObject[] keys;
+    long[] childPointers;
+    long[] maxCounts; // largest count in the subtree of each child, null unless the page format stores them
+    long[] keyCounts; // number of keys in the subtree of each child, null unless the page format stores them
+    long[] countSums; // sum of the counts in the subtree of each child, null unless the page format stores them
+
+    /**
+     * Constructs an empty leaf with room for the keys of a BTree of the given degree.
+     *
+     * @param degree degree of the BTree
+     * @param address disk address of the node
+     */
+    Node(int degree, long address) {
+        this.address = address;
+        parent = 0;
+        keys = new TreeObject[2 * degree - 1];
+        childPointers = new long[2 * degree];
+        numKeys = 0;
+        isLeaf = true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public String toString() {
+        String string = "Node:  keys = ";
+        for (int i = 0; i < numKeys; i++) {
+            string += keys[i].toString() + "  ";
+        }
+        return string;
+    }
+
+    @Override
+    public Long getKey() {
+        return address;
+    }
+}
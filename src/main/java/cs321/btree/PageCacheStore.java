@@ -0,0 +1,309 @@
+package cs321.btree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * PageStore that keeps copies of the raw pages it reads in direct buffers
+ * outside the Java heap, in front of another PageStore.
+ *
+ * The decoded node cache holds the keys of a node as Strings, which takes
+ * several times the page size of heap per node. This store holds a page in
+ * exactly its page size of off-heap memory, so a cache of the whole tree
+ * does not grow the heap or the work of the garbage collector; the node
+ * cache above it can stay small and decodes pages from here on a miss.
+ *
+ * Pages are copied into frames of arenas that are allocated as they are
+ * needed, up to a fixed number of frames, and frames are chosen for
+ * eviction with the CLOCK algorithm. The frame of a page is found through an
+ * open addressing table of primitive arrays. Writes go through to the store
+ * below and update a cached copy of the page, so evicting a page never
+ * writes it. Reads of cached pages share a read lock, so several threads
+ * may read at once as long as no thread writes.
+ */
+class PageCacheStore implements PageStore {
+
+    /** Bytes of the largest arena, a direct buffer holding a whole number of frames. */
+    private static final int ARENA_BYTES = 1 << 30;
+
+    private static final long EMPTY = -1;
+
+    private final PageStore store;
+    private final long firstPage;
+    private final int pageSize;
+    private final int frames;
+    private final int framesPerArena;
+    private final List<ByteBuffer> arenas = new ArrayList<>();
+    private final ThreadLocal<ByteBuffer> buffer;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Page address of each frame, and whether it was read since the hand passed it
+    private final long[] frameAddress;
+    private final boolean[] referenced;
+    private int used = 0;
+    private int hand = 0;
+
+    // Open addressing table from page address to frame, with linear probing
+    private final long[] slotAddress;
+    private final int[] slotFrame;
+    private final int mask;
+
+    private final LongAdder numHits = new LongAdder();
+    private final LongAdder numReferences = new LongAdder();
+    private final LongAdder numEvictions = new LongAdder();
+
+    /**
+     * @param store the store the pages are read from and written to
+     * @param firstPage file offset of the first page (the metadata lives in front of it)
+     * @param pageSize number of bytes in one page
+     * @param bytes off-heap memory for the cached pages, at least one page is cached
+     */
+    PageCacheStore(PageStore store, long firstPage, int pageSize, long bytes) {
+        this.store = store;
+        this.firstPage = firstPage;
+        this.pageSize = pageSize;
+        this.frames = (int) Math.max(1, Math.min(bytes / pageSize, 1 << 28));
+        this.framesPerArena = Math.max(1, ARENA_BYTES / pageSize);
+        this.buffer = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(pageSize));
+        this.frameAddress = new long[frames];
+        this.referenced = new boolean[frames];
+        int slots = Integer.highestOneBit(frames) * 4;
+        this.slotAddress = new long[slots];
+        this.slotFrame = new int[slots];
+        this.mask = slots - 1;
+        Arrays.fill(slotAddress, EMPTY);
+    }
+
+    @Override
+    public ByteBuffer read(long address) throws IOException {
+        numReferences.increment();
+        ReentrantReadWriteLock.ReadLock read = lock.readLock();
+        read.lock();
+        try {
+            int frame = find(address);
+            if (frame >= 0) {
+                numHits.increment();
+                referenced[frame] = true;
+                ByteBuffer page = buffer.get();
+                page.clear();
+                page.put(frame(frame));
+                page.flip();
+                return page;
+            }
+        } finally {
+            read.unlock();
+        }
+
+        ByteBuffer page = store.read(address);
+        lock.writeLock().lock();
+        try {
+            if (find(address) < 0) {
+                int frame = claimFrame();
+                frameAddress[frame] = address;
+                referenced[frame] = true;
+                insert(address, frame);
+                copy(page, frame(frame));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return page;
+    }
+
+    @Override
+    public void write(long address, ByteBuffer page) throws IOException {
+        lock.writeLock().lock();
+        try {
+            int frame = find(address);
+            if (frame >= 0) {
+                copy(page, frame(frame));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        store.write(address, page);
+    }
+
+    @Override
+    public void readAt(long position, ByteBuffer dst) throws IOException {
+        store.readAt(position, dst);
+    }
+
+    /**
+     * Drops the cached copies of the pages the bytes overlap, as they are
+     * not written as whole pages.
+     */
+    @Override
+    public void writeAt(long position, ByteBuffer src) throws IOException {
+        long end = position + src.remaining();
+        if (end > firstPage) {
+            lock.writeLock().lock();
+            try {
+                for (long address = pageOf(Math.max(position, firstPage)); address < end; address += pageSize) {
+                    int frame = find(address);
+                    if (frame >= 0) {
+                        delete(address);
+                        frameAddress[frame] = EMPTY;
+                        referenced[frame] = false;
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        store.writeAt(position, src);
+    }
+
+    @Override
+    public void writeLong(long position, long value) throws IOException {
+        long address = pageOf(position);
+        lock.writeLock().lock();
+        try {
+            int frame = find(address);
+            if (frame >= 0) {
+                frame(frame).putLong((int) (position - address), value);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        store.writeLong(position, value);
+    }
+
+    @Override
+    public long size() throws IOException {
+        return store.size();
+    }
+
+    @Override
+    public void force() throws IOException {
+        store.force();
+    }
+
+    /**
+     * Closes the store below. The arenas are freed with this store.
+     */
+    @Override
+    public void close() throws IOException {
+        store.close();
+    }
+
+    /**
+     * Copies a page into a frame without moving the position of the page,
+     * which may be a view of a larger buffer.
+     */
+    private void copy(ByteBuffer page, ByteBuffer frame) {
+        ByteBuffer src = page.duplicate();
+        src.limit(src.position() + Math.min(src.remaining(), pageSize));
+        frame.put(src);
+    }
+
+    private long pageOf(long position) {
+        return firstPage + (position - firstPage) / pageSize * pageSize;
+    }
+
+    /**
+     * @return a buffer over the frame, from position 0 to the page size
+     */
+    private ByteBuffer frame(int frame) {
+        int arena = frame / framesPerArena;
+        while (arenas.size() <= arena) {
+            int arenaFrames = Math.min(framesPerArena, frames - arenas.size() * framesPerArena);
+            arenas.add(ByteBuffer.allocateDirect(arenaFrames * pageSize));
+        }
+        ByteBuffer view = arenas.get(arena).duplicate();
+        int offset = (frame % framesPerArena) * pageSize;
+        view.limit(offset + pageSize).position(offset);
+        return view.slice();
+    }
+
+    /**
+     * Returns an unused frame, or the first frame whose reference bit is
+     * clear while sweeping the clock hand. Frames of pages dropped by
+     * writeAt count as unused.
+     */
+    private int claimFrame() {
+        if (used < frames) {
+            return used++;
+        }
+        while (true) {
+            int frame = hand;
+            hand = (hand + 1) % frames;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (frameAddress[frame] != EMPTY) {
+                delete(frameAddress[frame]);
+                numEvictions.increment();
+            }
+            return frame;
+        }
+    }
+
+    private int slot(long address) {
+        long h = address * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & mask;
+    }
+
+    /**
+     * @return the frame of the page, or -1 if it is not cached
+     */
+    private int find(long address) {
+        for (int i = slot(address); slotAddress[i] != EMPTY; i = (i + 1) & mask) {
+            if (slotAddress[i] == address) {
+                return slotFrame[i];
+            }
+        }
+        return -1;
+    }
+
+    private void insert(long address, int frame) {
+        int i = slot(address);
+        while (slotAddress[i] != EMPTY) {
+            i = (i + 1) & mask;
+        }
+        slotAddress[i] = address;
+        slotFrame[i] = frame;
+    }
+
+    /**
+     * Removes a page from the table, moving later entries of its probe run
+     * back so every entry stays reachable from its home slot.
+     */
+    private void delete(long address) {
+        int i = slot(address);
+        while (slotAddress[i] != address) {
+            i = (i + 1) & mask;
+        }
+        int gap = i;
+        for (int j = (i + 1) & mask; slotAddress[j] != EMPTY; j = (j + 1) & mask) {
+            int home = slot(slotAddress[j]);
+            // Move entry j into the gap unless its home lies cyclically in (gap, j]
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                slotAddress[gap] = slotAddress[j];
+                slotFrame[gap] = slotFrame[j];
+                gap = j;
+            }
+        }
+        slotAddress[gap] = EMPTY;
+    }
+
+    @Override
+    public String toString() {
+        long references = numReferences.sum();
+        long hits = numHits.sum();
+        double hitPercent = references == 0 ? 0.0 : (hits * 100.0) / references;
+        return  "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                "Off-heap page cache with " + frames + " pages of " + pageSize + " bytes\n" +
+                "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                String.format("%-30s %10d%n", "Total number of references:", references) +
+                String.format("%-30s %10d%n", "Total number of page hits:", hits) +
+                String.format("%-30s %10.2f%%%n", "Page hit percent:", hitPercent) +
+                String.format("%-30s %10d%n", "Pages evicted:", numEvictions.sum());
+    }
+}
@@ -0,0 +1,223 @@
+package cs321.btree;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The on-disk layout of one node page. A BTree file uses a single format
+ * for all of its pages, recorded in the metadata.
+ */
+abstract class PageFormat {
+
+    /**
+     * Augmentation that stores the largest count in each child's subtree
+     * next to the child. Augmentations are bits of the flags in the file header.
+     */
+    static final int MAX_COUNTS = 2;
+
+    /**
+     * Augmentation that stores the number of keys and the sum of their counts
+     * in each child's subtree next to the child.
+     */
+    static final int SUBTREE_SIZES = 4;
+
+    protected final int degree;
+
+    /**
+     * @param degree degree of the BTree
+     */
+    protected PageFormat(int degree) {
+        this.degree = degree;
+    }
+
+    /**
+     * @return number of bytes in one page
+     */
+    abstract int pageSize();
+
+    /**
+     * @return the augmented fields stored with every child, 0 if there are none
+     */
+    int augmentations() {
+        return 0;
+    }
+
+    /**
+     * @return true if every child reference comes with the max count of its subtree
+     */
+    boolean hasMaxCounts() {
+        return (augmentations() & MAX_COUNTS) != 0;
+    }
+
+    /**
+     * @return true if every child reference comes with the key count and count sum of its subtree
+     */
+    boolean hasSubtreeSizes() {
+        return (augmentations() & SUBTREE_SIZES) != 0;
+    }
+
+    /**
+     * Creates an empty node with room for the augmented fields of this format.
+     *
+     * @param address disk address of the node
+     * @return the node
+     */
+    Node newNode(long address) {
+        Node node = new Node(degree, address);
+        if (hasMaxCounts()) {
+            node.maxCounts = new long[2 * degree];
+        }
+        if (hasSubtreeSizes()) {
+            node.keyCounts = new long[2 * degree];
+            node.countSums = new long[2 * degree];
+        }
+        return node;
+    }
+
+    /**
+     * Writes the node into the buffer starting at index 0 and leaves the
+     * buffer ready to be written: position 0, limit pageSize().
+     *
+     * @param x the node to encode
+     * @param page buffer with room for at least one page
+     */
+    abstract void encode(Node x, ByteBuffer page);
+
+    /**
+     * Reads the node stored in the page that starts at the position of the buffer.
+     *
+     * @param page buffer positioned at the start of the page
+     * @param address disk address of the page
+     * @return the decoded node
+     */
+    abstract Node decode(ByteBuffer page, long address);
+
+    /**
+     * A node is full when one more key, and the pointer that comes with it,
+     * might not fit into its page.
+     *
+     * @param x the node to check
+     * @return true if the node has to be split before a key can be added
+     */
+    abstract boolean isFull(Node x);
+
+    /**
+     * Largest number of keys that fits into one page when no key is longer
+     * than the given number of encoded bytes.
+     *
+     * @param maxKeyBytes encoded length of the longest key
+     * @return number of keys, at most 2t - 1
+     */
+    abstract int maxKeysPerPage(int maxKeyBytes);
+
+    /**
+     * @param key a key
+     * @return the number of bytes the key takes in a page
+     */
+    abstract int keyBytes(String key);
+
+    /**
+     * Rejects keys that this format cannot store.
+     *
+     * @param key the key that is about to be inserted
+     * @throws IllegalArgumentException if the key is too long
+     */
+    abstract void checkKey(String key);
+
+    /**
+     * @param i index of a key in the page
+     * @return offset of the 8 byte count of key i from the start of the page
+     */
+    abstract int countOffset(int i);
+
+    /**
+     * Only formats with max counts store them.
+     *
+     * @param i index of a child, 0 to numKeys
+     * @param numKeys number of keys in the page
+     * @return offset of the 8 byte max count of child i from the start of the page
+     */
+    int maxCountOffset(int i, int numKeys) {
+        throw new UnsupportedOperationException("Page format has no max counts");
+    }
+
+    /**
+     * Only formats with subtree sizes store them. The count sum of the
+     * subtree follows the key count.
+     *
+     * @param i index of a child, 0 to numKeys
+     * @param numKeys number of keys in the page
+     * @return offset of the 8 byte key count of the subtree of child i from the start of the page
+     */
+    int keyCountOffset(int i, int numKeys) {
+        throw new UnsupportedOperationException("Page format has no subtree sizes");
+    }
+
+    /**
+     * Encodes a search key the way keys are compared within a page.
+     *
+     * @param key the key to search for
+     * @return the encoded key
+     */
+    abstract byte[] encodeKey(String key);
+
+    /**
+     * @param page buffer positioned at the start of the page
+     * @return the number of keys in the page
+     */
+    abstract int numKeys(ByteBuffer page);
+
+    /**
+     * @param page buffer positioned at the start of the page
+     * @return true if the page holds a leaf
+     */
+    abstract boolean isLeaf(ByteBuffer page);
+
+    /**
+     * @param page buffer positioned at the start of the page
+     * @param i index of a key in the page
+     * @return the count stored with key i
+     */
+    abstract long count(ByteBuffer page, int i);
+
+    /**
+     * @param page buffer positioned at the start of the page
+     * @param i index of a child, 0 to numKeys
+     * @return the disk address of child i, 0 if there is none
+     */
+    abstract long child(ByteBuffer page, int i);
+
+    /**
+     * Compares an encoded search key with key i of the page, in the same
+     * order as String.compareTo.
+     *
+     * @param key the encoded search key
+     * @param page buffer positioned at the start of the page
+     * @param i index of a key in the page
+     * @return negative, zero or positive as the search key is less than, equal to or greater than key i
+     */
+    abstract int compareKey(byte[] key, ByteBuffer page, int i);
+
+    /**
+     * Binary searches the keys of a page without decoding them.
+     *
+     * @param page buffer positioned at the start of the page
+     * @param key the encoded search key
+     * @return the index of the key, or (-(insertion point) - 1) if it is not in the page
+     */
+    int search(ByteBuffer page, byte[] key) {
+        int low = 0;
+        int high = numKeys(page) - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(key, page, mid);
+            if (cmp > 0) {
+                low = mid + 1;
+            } else if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+}
@@ -0,0 +1,76 @@
+package cs321.btree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Fixed size page access to the file that backs a BTree. Every node occupies
+ * exactly one page, and the bytes in front of the first page are reserved for
+ * the BTree metadata.
+ */
+interface PageStore extends Closeable {
+
+    /**
+     * Reads the page that starts at the given file address.
+     *
+     * The returned buffer is owned by the store. Its position marks the first
+     * byte of the page and it stays valid until the next call to read from
+     * the same thread. Several threads may read at once as long as no thread
+     * writes.
+     *
+     * @param address file offset of the page
+     * @return a buffer positioned at the start of the page
+     * @throws IOException if the page could not be read
+     */
+    ByteBuffer read(long address) throws IOException;
+
+    /**
+     * Writes one page, taken from the position to the limit of the given buffer.
+     *
+     * @param address file offset of the page
+     * @param page the page contents
+     * @throws IOException if the page could not be written
+     */
+    void write(long address, ByteBuffer page) throws IOException;
+
+    /**
+     * Reads raw bytes (such as the metadata) that are not part of a page.
+     *
+     * @param position file offset to read from
+     * @param dst buffer that is filled up to its limit
+     * @throws IOException if the bytes could not be read
+     */
+    void readAt(long position, ByteBuffer dst) throws IOException;
+
+    /**
+     * Writes raw bytes (such as the metadata) that are not part of a page.
+     *
+     * @param position file offset to write to
+     * @param src buffer that is written from its position to its limit
+     * @throws IOException if the bytes could not be written
+     */
+    void writeAt(long position, ByteBuffer src) throws IOException;
+
+    /**
+     * Overwrites one long inside a page that has already been written.
+     *
+     * @param position file offset of the long
+     * @param value the new value
+     * @throws IOException if the value could not be written
+     */
+    void writeLong(long position, long value) throws IOException;
+
+    /**
+     * @return the number of bytes currently used by the file
+     * @throws IOException if the size could not be determined
+     */
+    long size() throws IOException;
+
+    /**
+     * Forces all written pages down to the storage device.
+     *
+     * @throws IOException if the pages could not be forced
+     */
+    void force() throws IOException;
+}
@@ -0,0 +1,216 @@
+package cs321.btree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The upper levels of a BTree, decoded once and kept in memory so a point
+ * lookup only reads the nodes below them.
+ *
+ * Nodes are taken level by level from the root until the level or byte limit
+ * is reached, so every pinned node but the root has a pinned parent. The
+ * keys of all pinned nodes are stored one after another in a single char
+ * array, with the start of each key in an int array, and are binary searched
+ * there as String.compareTo would order them. A lookup that leaves the pinned
+ * nodes continues at the disk address of the child it reached.
+ */
+final class PinnedLevels {
+
+    /**
+     * Reads the node at a disk address while the levels are loaded.
+     */
+    interface NodeReader {
+        Node read(long address);
+    }
+
+    // Estimated bytes of a pinned node and of each of its keys and children
+    private static final int NODE_BYTES = 2 * Integer.BYTES;
+    private static final int KEY_BYTES = Long.BYTES + Integer.BYTES;
+    private static final int CHILD_BYTES = Long.BYTES + Integer.BYTES;
+
+    private final int[] firstKey;      // index of the first key of each node, then the number of keys
+    private final int[] firstChild;    // index of the first child of each node
+    private final char[] chars;        // the keys one after another
+    private final int[] keyStart;      // start of each key in chars, then chars.length
+    private final long[] counts;       // count of each key
+    private final long[] childAddress; // disk address of each child, 0 below a leaf
+    private final int[] childNode;     // the pinned node of each child, or -1
+    private final int levels;
+    private final long bytes;
+
+    private PinnedLevels(List<Node> nodes, Map<Long, Integer> index, int levels, long bytes) {
+        int keys = 0;
+        int children = 0;
+        int length = 0;
+        for (Node node : nodes) {
+            keys += node.numKeys;
+            children += node.numKeys + 1;
+            for (int i = 0; i < node.numKeys; i++) {
+                length += node.keys[i].getKey().length();
+            }
+        }
+        firstKey = new int[nodes.size() + 1];
+        firstChild = new int[nodes.size()];
+        chars = new char[length];
+        keyStart = new int[keys + 1];
+        counts = new long[keys];
+        childAddress = new long[children];
+        childNode = new int[children];
+
+        int k = 0;
+        int c = 0;
+        int pos = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            firstKey[n] = k;
+            firstChild[n] = c;
+            for (int i = 0; i < node.numKeys; i++) {
+                String key = node.keys[i].getKey();
+                keyStart[k] = pos;
+                key.getChars(0, key.length(), chars, pos);
+                pos += key.length();
+                counts[k++] = node.keys[i].getCount();
+            }
+            for (int i = 0; i <= node.numKeys; i++) {
+                long address = node.isLeaf ? 0 : node.childPointers[i];
+                Integer pinned = address == 0 ? null : index.get(address);
+                childAddress[c] = address;
+                childNode[c++] = pinned == null ? -1 : pinned;
+            }
+        }
+        firstKey[nodes.size()] = k;
+        keyStart[k] = pos;
+        this.levels = levels;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Pins the upper levels of a tree. The root is always pinned; the other
+     * nodes are pinned a level at a time while both limits allow.
+     *
+     * @param root the root of the tree
+     * @param maxLevels the number of levels to pin, counting the root, 0 for no limit
+     * @param maxBytes the estimated memory the pinned nodes may use, 0 for no limit
+     * @param reader reads the nodes below the root
+     * @return the pinned levels
+     */
+    static PinnedLevels load(Node root, int maxLevels, long maxBytes, NodeReader reader) {
+        List<Node> nodes = new ArrayList<>();
+        Map<Long, Integer> index = new HashMap<>();
+        nodes.add(root);
+        index.put(root.address, 0);
+        long bytes = bytes(root);
+        int levels = 1;
+        int levelStart = 0;
+        boolean full = false;
+        while (!full && (maxLevels == 0 || levels < maxLevels)) {
+            int levelEnd = nodes.size();
+            for (int n = levelStart; n < levelEnd && !full; n++) {
+                Node parent = nodes.get(n);
+                if (parent.isLeaf) {
+                    continue;
+                }
+                for (int i = 0; i <= parent.numKeys; i++) {
+                    Node child = reader.read(parent.childPointers[i]);
+                    if (child == null) {
+                        continue;
+                    }
+                    long childBytes = bytes(child);
+                    if (maxBytes > 0 && bytes + childBytes > maxBytes) {
+                        full = true;
+                        break;
+                    }
+                    index.put(child.address, nodes.size());
+                    nodes.add(child);
+                    bytes += childBytes;
+                }
+            }
+            if (nodes.size() == levelEnd) {
+                break;
+            }
+            levels++;
+            levelStart = levelEnd;
+        }
+        return new PinnedLevels(nodes, index, levels, bytes);
+    }
+
+    private static long bytes(Node node) {
+        long bytes = NODE_BYTES + (long) KEY_BYTES * node.numKeys + (long) CHILD_BYTES * (node.numKeys + 1);
+        for (int i = 0; i < node.numKeys; i++) {
+            bytes += Character.BYTES * node.keys[i].getKey().length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Searches the pinned nodes from the root.
+     *
+     * @param key the key to search for
+     * @return the index of the key, to pass to count, or (-(child) - 1) for
+     *         the child, to pass to child, where the search leaves the pinned nodes
+     */
+    int find(String key) {
+        int node = 0;
+        while (true) {
+            int first = firstKey[node];
+            int low = first;
+            int high = firstKey[node + 1] - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int cmp = compare(key, mid);
+                if (cmp > 0) {
+                    low = mid + 1;
+                } else if (cmp < 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            int child = firstChild[node] + low - first;
+            if (childNode[child] < 0) {
+                return -child - 1;
+            }
+            node = childNode[child];
+        }
+    }
+
+    /**
+     * Compares a key to pinned key k like key.compareTo would.
+     */
+    private int compare(String key, int k) {
+        int start = keyStart[k];
+        int length = keyStart[k + 1] - start;
+        int n = Math.min(key.length(), length);
+        for (int j = 0; j < n; j++) {
+            char a = key.charAt(j);
+            char b = chars[start + j];
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return key.length() - length;
+    }
+
+    /**
+     * @param key an index returned by find
+     * @return the count of the key
+     */
+    long count(int key) {
+        return counts[key];
+    }
+
+    /**
+     * @param child a child returned by find
+     * @return the disk address of the child, 0 if the search ended in a pinned leaf
+     */
+    long child(int child) {
+        return childAddress[child];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Pinned %d nodes in %d levels, about %d bytes", firstChild.length, levels, bytes);
+    }
+}
@@ -0,0 +1,590 @@
+package cs321.btree;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * A tree split into several shards, each a BTree or BPlusTree in a file of
+ * its own, behind BTreeInterface.
+ *
+ * A key lives in exactly one shard. By default the shard is picked by the
+ * hash of the key; with split keys shard i holds the keys from split key
+ * i - 1 (inclusive) up to split key i (exclusive). Lookups of a single key
+ * read one shard. Scans, dumps and top frequency searches merge the sorted
+ * results of the shards, and counts and ranks add them up.
+ *
+ * insert may be called by several threads at once, inserts into different
+ * shards then run in parallel. insertAll and bulkLoad build every shard on a
+ * thread of its own. Apart from that a ShardedBTree is no more thread-safe
+ * than its shards.
+ *
+ * The named file only holds the shard layout, the shards are stored next to
+ * it in name.shard0, name.shard1 and so on:
+ *
+ * <pre>
+ * [0] long MAGIC   [8] int version   [12] int shard count   [16] byte 1 if split by key ranges
+ * then the shard count - 1 split keys in modified UTF-8
+ * </pre>
+ */
+public class ShardedBTree implements BTreeInterface {
+
+    /**
+     * File version that marks the layout file of a sharded tree.
+     */
+    static final int VERSION_SHARDED = 4;
+
+    private static final int BATCH_SIZE = 1024;
+    private static final int QUEUE_CAPACITY = 16;
+    private static final List<TreeObject> END = Collections.emptyList();
+
+    private final BTreeInterface[] shards;
+    private final String[] splitKeys; // null when routed by hash
+
+    /**
+     * Creates a sharded tree, or opens the existing one whose layout is stored
+     * in the named file. A new tree takes its layout from
+     * BTreeOptions.shards or BTreeOptions.shardSplits, an existing one keeps
+     * the layout it was created with. All other options apply to every shard.
+     *
+     * @param degree degree of the shards, 0 selects the default degree
+     * @param name name of the file that stores the layout
+     * @param options storage settings
+     * @throws IllegalArgumentException if the file is not the layout of a sharded tree,
+     *         or the file of a read-only tree does not exist
+     * @throws IOException if the layout or a shard cannot be read or written
+     */
+    public ShardedBTree(int degree, String name, BTreeOptions options) throws IOException {
+        File file = new File(name);
+        if (file.isFile() && file.length() > 0) {
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                if (in.readLong() != BTree.MAGIC || in.readInt() != VERSION_SHARDED) {
+                    throw new IllegalArgumentException(name + " is not a sharded BTree file");
+                }
+                int count = in.readInt();
+                boolean byRange = in.readBoolean();
+                shards = new BTreeInterface[count];
+                splitKeys = byRange ? new String[count - 1] : null;
+                for (int i = 0; byRange && i < count - 1; i++) {
+                    splitKeys[i] = in.readUTF();
+                }
+            }
+        } else {
+            if (options.isReadOnly()) {
+                throw new IllegalArgumentException("BTree file " + name + " does not exist");
+            }
+            splitKeys = options.getShardSplits();
+            shards = new BTreeInterface[splitKeys != null ? splitKeys.length + 1 : options.getShards()];
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file))) {
+                out.writeLong(BTree.MAGIC);
+                out.writeInt(VERSION_SHARDED);
+                out.writeInt(shards.length);
+                out.writeBoolean(splitKeys != null);
+                for (int i = 0; splitKeys != null && i < splitKeys.length; i++) {
+                    out.writeUTF(splitKeys[i]);
+                }
+            }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = BTreeFactory.openTree(degree, shardName(name, i), options);
+        }
+    }
+
+    /**
+     * Routes by hash between shards that are already open, for tests.
+     *
+     * @param shards the shards
+     */
+    ShardedBTree(BTreeInterface[] shards) {
+        this.shards = shards;
+        this.splitKeys = null;
+    }
+
+    /**
+     * @param name name of the layout file
+     * @param i index of a shard
+     * @return name of the file that stores the shard
+     */
+    public static String shardName(String name, int i) {
+        return name + ".shard" + i;
+    }
+
+    /**
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * @param key a key
+     * @return index of the shard that holds the key
+     */
+    int shardOf(String key) {
+        if (splitKeys == null) {
+            return Math.floorMod(key.hashCode(), shards.length);
+        }
+        int low = 0;
+        int high = splitKeys.length;
+        while (low < high) { // first split key greater than the key
+            int mid = (low + high) >>> 1;
+            if (splitKeys[mid].compareTo(key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    @Override
+    public long getSize() {
+        long size = 0;
+        for (BTreeInterface shard : shards) {
+            size += shard.getSize();
+        }
+        return size;
+    }
+
+    @Override
+    public int getDegree() {
+        return shards[0].getDegree();
+    }
+
+    @Override
+    public long getNumberOfNodes() {
+        long nodes = 0;
+        for (BTreeInterface shard : shards) {
+            nodes += shard.getNumberOfNodes();
+        }
+        return nodes;
+    }
+
+    /**
+     * @return the height of the highest shard
+     */
+    @Override
+    public int getHeight() {
+        int height = 0;
+        for (BTreeInterface shard : shards) {
+            height = Math.max(height, shard.getHeight());
+        }
+        return height;
+    }
+
+    /**
+     * Inserts the key into its shard. Threads inserting into different shards
+     * do not wait for each other.
+     */
+    @Override
+    public void insert(TreeObject obj) throws IOException {
+        BTreeInterface shard = shards[shardOf(obj.getKey())];
+        synchronized (shard) {
+            shard.insert(obj);
+        }
+    }
+
+    /**
+     * Inserts many keys, with a thread per shard. The calling thread routes
+     * the keys to the shards in batches and waits while a shard is behind.
+     *
+     * @param objects the keys to insert
+     * @throws IOException the first error of a shard, which is rethrown as it is
+     *         if it is a RuntimeException or an Error
+     */
+    public void insertAll(Iterator<TreeObject> objects) throws IOException {
+        List<BlockingQueue<List<TreeObject>>> queues = new ArrayList<>();
+        List<List<TreeObject>> batches = new ArrayList<>();
+        Throwable[] failures = new Throwable[shards.length];
+        Thread[] workers = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            BlockingQueue<List<TreeObject>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            queues.add(queue);
+            batches.add(new ArrayList<>(BATCH_SIZE));
+            final int s = i;
+            workers[i] = new Thread(() -> {
+                boolean ended = false;
+                try {
+                    for (List<TreeObject> batch = queue.take(); batch != END; batch = queue.take()) {
+                        for (TreeObject obj : batch) {
+                            shards[s].insert(obj);
+                        }
+                    }
+                    ended = true;
+                } catch (Throwable e) {
+                    failures[s] = e;
+                } finally {
+                    // Keep taking batches after a failure, or the caller would block on a full queue
+                    if (!ended) {
+                        drain(queue);
+                    }
+                }
+            }, "shard-" + i);
+            workers[i].start();
+        }
+
+        try {
+            try {
+                while (objects.hasNext()) {
+                    TreeObject obj = objects.next();
+                    int s = shardOf(obj.getKey());
+                    List<TreeObject> batch = batches.get(s);
+                    batch.add(obj);
+                    if (batch.size() == BATCH_SIZE) {
+                        queues.get(s).put(batch);
+                        batches.set(s, new ArrayList<>(BATCH_SIZE));
+                    }
+                }
+            } finally {
+                // Every shard thread has to get END, or it would wait for batches forever
+                boolean interrupted = false;
+                for (int i = 0; i < shards.length; i++) {
+                    try {
+                        if (!batches.get(i).isEmpty()) {
+                            queues.get(i).put(batches.get(i));
+                        }
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                    interrupted |= putEnd(queues.get(i));
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while inserting", e);
+        }
+        rethrow(failures);
+    }
+
+    /**
+     * Splits the keys by shard and bulk loads every shard on a thread of its
+     * own. The shards keep the keys in sorted order.
+     */
+    @Override
+    public void bulkLoad(Collection<TreeObject> sortedKeys) throws IOException {
+        List<List<TreeObject>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (TreeObject obj : sortedKeys) {
+            parts.get(shardOf(obj.getKey())).add(obj);
+        }
+
+        Throwable[] failures = new Throwable[shards.length];
+        Thread[] workers = new Thread[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            final int s = i;
+            workers[i] = new Thread(() -> {
+                try {
+                    shards[s].bulkLoad(parts.get(s));
+                } catch (Throwable e) {
+                    failures[s] = e;
+                }
+            }, "shard-" + i);
+            workers[i].start();
+        }
+        try {
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading", e);
+        }
+        rethrow(failures);
+    }
+
+    @Override
+    public void dumpToFile(PrintWriter out) throws IOException {
+        Iterator<TreeObject> keys = scan(null, null);
+        while (keys.hasNext()) {
+            TreeObject obj = keys.next();
+            out.println(obj.getKey() + " " + obj.getCount());
+        }
+    }
+
+    /**
+     * Dumps the keys of all shards, in order, to one table of the database,
+     * see BTree.dumpToDatabase.
+     *
+     * @param dbName name of the database file
+     * @param tableName name of the table, which is replaced if it exists
+     * @throws IOException if the database could not be written
+     */
+    @Override
+    public void dumpToDatabase(String dbName, String tableName) throws IOException {
+        BTree.dumpToDatabase(scan(null, null), dbName, tableName);
+    }
+
+    @Override
+    public TreeObject search(String key) throws IOException {
+        return shards[shardOf(key)].search(key);
+    }
+
+    @Override
+    public long count(String key) throws IOException {
+        return shards[shardOf(key)].count(key);
+    }
+
+    /**
+     * Merges the scans of the shards. Shards split by key ranges that lie
+     * outside the bounds are not read.
+     */
+    @Override
+    public Iterator<TreeObject> scan(String from, String to) {
+        List<Iterator<TreeObject>> scans = new ArrayList<>();
+        for (int i = firstShard(from); i <= lastShard(to); i++) {
+            scans.add(shards[i].scan(from, to));
+        }
+        return new MergeIterator(scans);
+    }
+
+    @Override
+    public Iterator<TreeObject> scanPrefix(String prefix) {
+        List<Iterator<TreeObject>> scans = new ArrayList<>();
+        for (int i = firstShard(prefix); i <= lastShard(prefix + Character.MAX_VALUE); i++) {
+            scans.add(shards[i].scanPrefix(prefix));
+        }
+        return new MergeIterator(scans);
+    }
+
+    /**
+     * Finds the top k keys of every shard and keeps the top k of those.
+     */
+    @Override
+    public List<TreeObject> topFrequent(int k) {
+        List<TreeObject> candidates = new ArrayList<>();
+        for (BTreeInterface shard : shards) {
+            candidates.addAll(shard.topFrequent(k));
+        }
+        return BTree.topFrequent(candidates.iterator(), k);
+    }
+
+    @Override
+    public long rank(String key) {
+        long rank = 0;
+        for (BTreeInterface shard : shards) {
+            rank += shard.rank(key);
+        }
+        return rank;
+    }
+
+    /**
+     * With key ranges the index is counted off shard by shard. With hashed
+     * shards the key is the one whose rank among all shards is i, so every
+     * shard is searched for it by bisecting its own indexes.
+     */
+    @Override
+    public TreeObject select(long i) {
+        if (i < 0) {
+            return null;
+        }
+        if (splitKeys != null) {
+            for (BTreeInterface shard : shards) {
+                if (i < shard.getSize()) {
+                    return shard.select(i);
+                }
+                i -= shard.getSize();
+            }
+            return null;
+        }
+        for (BTreeInterface shard : shards) {
+            long low = 0;
+            long high = shard.getSize() - 1;
+            while (low <= high) {
+                long mid = (low + high) >>> 1;
+                TreeObject candidate = shard.select(mid);
+                long rank = rank(candidate.getKey());
+                if (rank == i) {
+                    return candidate;
+                } else if (rank < i) {
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public long rangeCount(String from, String to) {
+        long count = 0;
+        for (int i = firstShard(from); i <= lastShard(to); i++) {
+            count += shards[i].rangeCount(from, to);
+        }
+        return count;
+    }
+
+    @Override
+    public long rangeSum(String from, String to) {
+        long sum = 0;
+        for (int i = firstShard(from); i <= lastShard(to); i++) {
+            sum += shards[i].rangeSum(from, to);
+        }
+        return sum;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (BTreeInterface shard : shards) {
+            shard.flush();
+        }
+    }
+
+    /**
+     * Closes every shard, also when closing one of them fails.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (BTreeInterface shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void delete(String key) {
+        shards[shardOf(key)].delete(key);
+    }
+
+    /**
+     * Takes batches until END, also when the thread is interrupted, as the
+     * caller waits for room in the queue.
+     */
+    private static void drain(BlockingQueue<List<TreeObject>> queue) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (queue.take() == END) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Puts END into a queue, also when the thread is interrupted. The shard
+     * thread takes batches until END, so there is room eventually.
+     *
+     * @return true if the thread was interrupted while it waited
+     */
+    private static boolean putEnd(BlockingQueue<List<TreeObject>> queue) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(END);
+                return interrupted;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+    }
+
+    /**
+     * Throws the first error of the shard threads, if there was one.
+     */
+    private static void rethrow(Throwable[] failures) throws IOException {
+        for (Throwable failure : failures) {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            } else if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            } else if (failure != null) {
+                throw new IOException("Shard failed", failure);
+            }
+        }
+    }
+
+    private int firstShard(String from) {
+        return splitKeys == null || from == null ? 0 : shardOf(from);
+    }
+
+    private int lastShard(String to) {
+        return splitKeys == null || to == null ? shards.length - 1 : shardOf(to);
+    }
+
+    /**
+     * Merges sorted iterators over keys that are in no more than one of them.
+     */
+    private static class MergeIterator implements Iterator<TreeObject> {
+
+        private final PriorityQueue<Head> heads = new PriorityQueue<>();
+
+        MergeIterator(List<Iterator<TreeObject>> scans) {
+            for (Iterator<TreeObject> scan : scans) {
+                if (scan.hasNext()) {
+                    heads.add(new Head(scan.next(), scan));
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !heads.isEmpty();
+        }
+
+        @Override
+        public TreeObject next() {
+            Head head = heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            TreeObject obj = head.obj;
+            if (head.rest.hasNext()) {
+                heads.add(new Head(head.rest.next(), head.rest));
+            }
+            return obj;
+        }
+    }
+
+    private static class Head implements Comparable<Head> {
+        final TreeObject obj;
+        final Iterator<TreeObject> rest;
+
+        Head(TreeObject obj, Iterator<TreeObject> rest) {
+            this.obj = obj;
+            this.rest = rest;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            return obj.compareTo(other.obj);
+        }
+    }
+}
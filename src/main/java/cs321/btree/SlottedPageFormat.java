@@ -0,0 +1,346 @@
+package cs321.btree;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A slotted page layout with variable length UTF-8 keys.
+ *
+ * The page starts with a small header, followed by one fixed size slot per
+ * key. The key bytes themselves live in a heap that grows down from the end
+ * of the page, so the free space of a node is the gap between the last slot
+ * and the start of the heap.
+ *
+ * <pre>
+ * header  [0] byte leaf flag   [2] short numKeys   [4] short heap start
+ *         [8] int reference of the rightmost child
+ *         [12] augmented fields of the rightmost child
+ * slot i  [0] long count   [8] int reference of child i
+ *         [12] short key offset   [14] short key length
+ *         [16] augmented fields of child i
+ * </pre>
+ *
+ * Augmented pages store statistics about each child's subtree next to the
+ * child reference, in this order and only if the augmentation is enabled:
+ * the largest count of any key (MAX_COUNTS), then the number of keys and
+ * the sum of their counts (SUBTREE_SIZES), 8 bytes each. Leaves leave these
+ * fields zero.
+ *
+ * Children are stored as page numbers counted from 1 so 0 still means "no
+ * child", which lets a child reference fit into an int.
+ */
+class SlottedPageFormat extends PageFormat {
+
+    /**
+     * Longest key, in UTF-8 bytes, that can be stored.
+     */
+    static final int MAX_KEY_BYTES = 96;
+
+    /**
+     * Expected key length used to size the pages. Typical SSH log keys such
+     * as "Accepted-11:38" or "root-183.62.140.253" are 12 to 25 bytes long.
+     */
+    static final int AVG_KEY_BYTES = 20;
+
+    static final int HEADER_BYTES = 12;
+    static final int SLOT_BYTES = 16;
+
+    private final int pageSize;
+    private final long firstPage;
+    private final int augmentations;
+    private final int headerBytes; // HEADER_BYTES plus the augmented fields of the rightmost child
+    private final int slotBytes;   // SLOT_BYTES plus the augmented fields of child i
+
+    /**
+     * @param degree degree of the BTree
+     * @param firstPage file offset of the first page, right after the metadata
+     */
+    SlottedPageFormat(int degree, long firstPage) {
+        this(degree, firstPage, 0);
+    }
+
+    /**
+     * @param degree degree of the BTree
+     * @param firstPage file offset of the first page, right after the metadata
+     * @param augmentations the augmented fields stored with every child, MAX_COUNTS and SUBTREE_SIZES combined
+     */
+    SlottedPageFormat(int degree, long firstPage, int augmentations) {
+        super(degree);
+        this.firstPage = firstPage;
+        this.augmentations = augmentations;
+        int augmentBytes = augmentBytes(augmentations);
+        this.headerBytes = HEADER_BYTES + augmentBytes;
+        this.slotBytes = SLOT_BYTES + augmentBytes;
+        this.pageSize = pageSize(degree, augmentations);
+    }
+
+    /**
+     * Size of a page that fits 2t - 1 keys of average length, and at least 4
+     * keys of the maximum length.
+     *
+     * @param degree degree of the BTree
+     * @return page size in bytes
+     * @throws IllegalArgumentException if the page would be too large to address with 16 bit offsets
+     */
+    static int pageSize(int degree) {
+        return pageSize(degree, 0);
+    }
+
+    /**
+     * Size of a page with the given augmented fields, see pageSize(int).
+     *
+     * @param degree degree of the BTree
+     * @param augmentations the augmented fields stored with every child
+     * @return page size in bytes
+     * @throws IllegalArgumentException if the page would be too large to address with 16 bit offsets
+     */
+    static int pageSize(int degree, int augmentations) {
+        int augmentBytes = augmentBytes(augmentations);
+        int slotBytes = SLOT_BYTES + augmentBytes;
+        long keyArea = Math.max((2L * degree - 1) * (slotBytes + AVG_KEY_BYTES), 4 * (slotBytes + MAX_KEY_BYTES));
+        long size = HEADER_BYTES + augmentBytes + keyArea;
+        if (size > 0xFFFF) {
+            throw new IllegalArgumentException("Degree " + degree + " is too large for slotted pages");
+        }
+        return (int) size;
+    }
+
+    private static int augmentBytes(int augmentations) {
+        int bytes = 0;
+        if ((augmentations & MAX_COUNTS) != 0) {
+            bytes += Long.BYTES;
+        }
+        if ((augmentations & SUBTREE_SIZES) != 0) {
+            bytes += 2 * Long.BYTES;
+        }
+        return bytes;
+    }
+
+    @Override
+    int pageSize() {
+        return pageSize;
+    }
+
+    @Override
+    int augmentations() {
+        return augmentations;
+    }
+
+    @Override
+    void encode(Node x, ByteBuffer page) {
+        page.clear();
+        int heap = pageSize;
+        for (int i = 0; i < x.numKeys; i++) {
+            byte[] key = x.keys[i].getKey().getBytes(StandardCharsets.UTF_8);
+            heap -= key.length;
+            int slot = headerBytes + i * slotBytes;
+            page.putLong(slot, x.keys[i].getCount());
+            page.putInt(slot + 8, x.isLeaf ? 0 : childReference(x.childPointers[i]));
+            page.putShort(slot + 12, (short) heap);
+            page.putShort(slot + 14, (short) key.length);
+            putAugmented(page, slot + SLOT_BYTES, x, i);
+            page.position(heap);
+            page.put(key);
+        }
+
+        page.put(0, (byte) (x.isLeaf ? 1 : 0));
+        page.put(1, (byte) 0);
+        page.putShort(2, (short) x.numKeys);
+        page.putShort(4, (short) heap);
+        page.putShort(6, (short) 0);
+        page.putInt(8, x.isLeaf ? 0 : childReference(x.childPointers[x.numKeys]));
+        putAugmented(page, HEADER_BYTES, x, x.numKeys);
+
+        // Zero the free space so stale bytes never reach the file
+        for (int i = headerBytes + x.numKeys * slotBytes; i < heap; i++) {
+            page.put(i, (byte) 0);
+        }
+
+        page.position(0);
+        page.limit(pageSize);
+    }
+
+    @Override
+    Node decode(ByteBuffer page, long address) {
+        int base = page.position();
+        Node node = newNode(address);
+        node.isLeaf = page.get(base) == 1;
+        node.numKeys = page.getShort(base + 2);
+
+        for (int i = 0; i < node.numKeys; i++) {
+            int slot = base + headerBytes + i * slotBytes;
+            long count = page.getLong(slot);
+            int keyOffset = page.getShort(slot + 12) & 0xFFFF;
+            int keyLength = page.getShort(slot + 14);
+            byte[] key = new byte[keyLength];
+            for (int j = 0; j < keyLength; j++) {
+                key[j] = page.get(base + keyOffset + j);
+            }
+            node.keys[i] = new TreeObject(new String(key, StandardCharsets.UTF_8), count);
+            if (!node.isLeaf) {
+                node.childPointers[i] = childAddress(page.getInt(slot + 8));
+                getAugmented(page, slot + SLOT_BYTES, node, i);
+            }
+        }
+        if (!node.isLeaf) {
+            node.childPointers[node.numKeys] = childAddress(page.getInt(base + 8));
+            getAugmented(page, base + HEADER_BYTES, node, node.numKeys);
+        }
+        return node;
+    }
+
+    /**
+     * Writes the augmented fields of child i at the given index of the page.
+     */
+    private void putAugmented(ByteBuffer page, int index, Node x, int i) {
+        if (hasMaxCounts()) {
+            page.putLong(index, x.isLeaf ? 0 : x.maxCounts[i]);
+            index += Long.BYTES;
+        }
+        if (hasSubtreeSizes()) {
+            page.putLong(index, x.isLeaf ? 0 : x.keyCounts[i]);
+            page.putLong(index + Long.BYTES, x.isLeaf ? 0 : x.countSums[i]);
+        }
+    }
+
+    /**
+     * Reads the augmented fields of child i from the given index of the page.
+     */
+    private void getAugmented(ByteBuffer page, int index, Node x, int i) {
+        if (hasMaxCounts()) {
+            x.maxCounts[i] = page.getLong(index);
+            index += Long.BYTES;
+        }
+        if (hasSubtreeSizes()) {
+            x.keyCounts[i] = page.getLong(index);
+            x.countSums[i] = page.getLong(index + Long.BYTES);
+        }
+    }
+
+    @Override
+    boolean isFull(Node x) {
+        if (x.numKeys == 2 * degree - 1) {
+            return true;
+        }
+        int used = headerBytes + x.numKeys * slotBytes;
+        for (int i = 0; i < x.numKeys; i++) {
+            used += keyBytes(x.keys[i].getKey());
+        }
+        return pageSize - used < slotBytes + MAX_KEY_BYTES;
+    }
+
+    @Override
+    int maxKeysPerPage(int maxKeyBytes) {
+        int fit = (pageSize - headerBytes) / (slotBytes + maxKeyBytes);
+        return Math.min(fit, 2 * degree - 1);
+    }
+
+    @Override
+    int keyBytes(String key) {
+        int length = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < key.length() && Character.isLowSurrogate(key.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    @Override
+    void checkKey(String key) {
+        if (keyBytes(key) > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("Key is longer than " + MAX_KEY_BYTES + " bytes: " + key);
+        }
+    }
+
+    @Override
+    byte[] encodeKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    int numKeys(ByteBuffer page) {
+        return page.getShort(page.position() + 2);
+    }
+
+    @Override
+    boolean isLeaf(ByteBuffer page) {
+        return page.get(page.position()) == 1;
+    }
+
+    @Override
+    int countOffset(int i) {
+        return headerBytes + i * slotBytes;
+    }
+
+    @Override
+    int maxCountOffset(int i, int numKeys) {
+        return augmentedOffset(i, numKeys);
+    }
+
+    @Override
+    int keyCountOffset(int i, int numKeys) {
+        return augmentedOffset(i, numKeys) + (hasMaxCounts() ? Long.BYTES : 0);
+    }
+
+    private int augmentedOffset(int i, int numKeys) {
+        return i == numKeys ? HEADER_BYTES : headerBytes + i * slotBytes + SLOT_BYTES;
+    }
+
+    @Override
+    long count(ByteBuffer page, int i) {
+        return page.getLong(page.position() + countOffset(i));
+    }
+
+    @Override
+    long child(ByteBuffer page, int i) {
+        int base = page.position();
+        if (i == page.getShort(base + 2)) {
+            return childAddress(page.getInt(base + 8));
+        }
+        return childAddress(page.getInt(base + headerBytes + i * slotBytes + 8));
+    }
+
+    /**
+     * Compares UTF-8 bytes as unsigned values, except that the lead bytes of
+     * U+E000 to U+FFFF are ranked above the lead bytes of 4 byte sequences,
+     * because String.compareTo sees characters above U+FFFF as surrogate
+     * pairs, which sort before U+E000.
+     */
+    @Override
+    int compareKey(byte[] key, ByteBuffer page, int i) {
+        int base = page.position();
+        int slot = base + headerBytes + i * slotBytes;
+        int offset = base + (page.getShort(slot + 12) & 0xFFFF);
+        int length = page.getShort(slot + 14);
+        int n = Math.min(key.length, length);
+        for (int j = 0; j < n; j++) {
+            int a = key[j] & 0xFF;
+            int b = page.get(offset + j) & 0xFF;
+            if (a != b) {
+                return rank(a) - rank(b);
+            }
+        }
+        return key.length - length;
+    }
+
+    private static int rank(int b) {
+        return b == 0xEE || b == 0xEF ? b + 0x10 : b;
+    }
+
+    private int childReference(long address) {
+        return address == 0 ? 0 : (int) ((address - firstPage) / pageSize + 1);
+    }
+
+    private long childAddress(int reference) {
+        return reference == 0 ? 0 : firstPage + (long) (reference - 1) * pageSize;
+    }
+}
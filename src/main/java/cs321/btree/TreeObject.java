@@ -73,6 +73,15 @@ public class TreeObject implements Comparable<TreeObject> {
     public void incCount() {
     	count++;
     }
+
+
+    /**
+     * Increase the count for the key.
+     * @param amount the amount to add to the count
+     */
+    public void incCount(long amount) {
+        count += amount;
+    }
     
 
 	/**
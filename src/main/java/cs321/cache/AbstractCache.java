@@ -0,0 +1,75 @@
+package cs321.cache;
+
+/**
+ * The size and the hit counters the caches of every policy keep, and the
+ * summary they print.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+abstract class AbstractCache<K, V extends KeyInterface<K>> implements CacheInterface<K, V> {
+
+    protected final int maxSize;
+
+    private int numHits = 0;
+    private int numReferences = 0;
+
+    protected AbstractCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be greater than 0");
+        }
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Counts a get, and a hit if the key was found.
+     */
+    protected void countReference(boolean hit) {
+        numReferences++;
+        if (hit) {
+            numHits++;
+        }
+    }
+
+    protected void resetCounters() {
+        numHits = 0;
+        numReferences = 0;
+    }
+
+    protected long numHits() {
+        return numHits;
+    }
+
+    protected long numReferences() {
+        return numReferences;
+    }
+
+    /**
+     * @return the name of the cache in the summary, such as "2Q cache"
+     */
+    String name() {
+        return policy() == CachePolicy.LRU ? "Cache" : policy().getName() + " cache";
+    }
+
+    /**
+     * @return the policy, as it is named in the summary
+     */
+    abstract CachePolicy policy();
+
+    public String toString() {
+        long numHits = numHits();
+        long numReferences = numReferences();
+        double hitPercent;
+        if (numReferences == 0) {
+            hitPercent = 0.0;
+        } else {
+            hitPercent = (numHits * 100.0) / numReferences;
+        }
+        return  "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                name() + " with " + maxSize + " entries has been created\n" +
+                "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
+                String.format("%-30s %10d%n", "Total number of references:", numReferences) +
+                String.format("%-30s %10d%n", "Total number of cache hits:", numHits) +
+                String.format("%-30s %10.2f%%%n", "Cache hit percent:", hitPercent);
+    }
+}
@@ -0,0 +1,147 @@
+package cs321.cache;
+
+import java.util.HashMap;
+
+/**
+ * A fixed size cache with the ARC policy of Megiddo and Modha. Items used
+ * once are kept in the LRU list T1 and items used again in the LRU list T2.
+ * The keys evicted from them are remembered in the ghost lists B1 and B2. A
+ * new item for a key in B1 means T1 was too small, one in B2 that T2 was, and
+ * the target size p of T1 moves accordingly. Evictions take from T1 while it
+ * is larger than p, otherwise from T2.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+public class ArcCache<K, V extends KeyInterface<K>> extends AbstractCache<K, V> {
+
+    private final HashMap<K, EntryList.Entry<K, V>> entries = new HashMap<>();
+    private final EntryList<K, V> t1 = new EntryList<>();
+    private final EntryList<K, V> t2 = new EntryList<>();
+    private final EntryList<K, V> b1 = new EntryList<>();
+    private final EntryList<K, V> b2 = new EntryList<>();
+    private int p = 0; // target size of T1
+
+    public ArcCache(int maxSize) {
+        super(maxSize);
+    }
+
+    @Override
+    public V get(K key) {
+        EntryList.Entry<K, V> entry = entries.get(key);
+        boolean hit = entry != null && (entry.list == t1 || entry.list == t2);
+        countReference(hit);
+        if (!hit) {
+            return null;
+        }
+        entry.list.remove(entry);
+        t2.addFirst(entry);
+        return entry.value;
+    }
+
+    @Override
+    public V add(V value) {
+        K key = value.getKey();
+        EntryList.Entry<K, V> entry = entries.get(key);
+        if (entry != null && (entry.list == t1 || entry.list == t2)) {
+            entry.value = value;
+            entry.list.remove(entry);
+            t2.addFirst(entry);
+            return null;
+        }
+
+        V removed = null;
+        if (entry != null) {
+            // A ghost hit, T1 or T2 should have been larger
+            boolean inB2 = entry.list == b2;
+            if (inB2) {
+                p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+            } else {
+                p = Math.min(maxSize, p + Math.max(b2.size() / b1.size(), 1));
+            }
+            if (isFull()) {
+                removed = replace(inB2);
+            }
+            entry.list.remove(entry);
+            entry.value = value;
+            t2.addFirst(entry);
+            return removed;
+        }
+
+        if (t1.size() + b1.size() >= maxSize) {
+            if (t1.size() < maxSize) {
+                entries.remove(b1.removeLast().key);
+                if (isFull()) {
+                    removed = replace(false);
+                }
+            } else {
+                EntryList.Entry<K, V> victim = t1.removeLast();
+                entries.remove(victim.key);
+                removed = victim.value;
+            }
+        } else if (t1.size() + t2.size() + b1.size() + b2.size() >= maxSize) {
+            if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * maxSize) {
+                entries.remove(b2.removeLast().key);
+            }
+            if (isFull()) {
+                removed = replace(false);
+            }
+        }
+        entry = new EntryList.Entry<>(key, value);
+        entries.put(key, entry);
+        t1.addFirst(entry);
+        return removed;
+    }
+
+    private boolean isFull() {
+        return t1.size() + t2.size() >= maxSize;
+    }
+
+    /**
+     * Evicts the least recently used item of T1 or T2 and remembers its key
+     * in B1 or B2.
+     *
+     * @param inB2 whether the item being added was found in B2
+     * @return the evicted item
+     */
+    private V replace(boolean inB2) {
+        EntryList.Entry<K, V> victim;
+        if (t1.size() > 0 && (t1.size() > p || (inB2 && t1.size() == p) || t2.size() == 0)) {
+            victim = t1.removeLast();
+            b1.addFirst(victim);
+        } else {
+            victim = t2.removeLast();
+            b2.addFirst(victim);
+        }
+        V removed = victim.value;
+        victim.value = null;
+        return removed;
+    }
+
+    @Override
+    public V remove(K key) {
+        EntryList.Entry<K, V> entry = entries.get(key);
+        if (entry == null || entry.list == b1 || entry.list == b2) {
+            return null;
+        }
+        entries.remove(key);
+        entry.list.remove(entry);
+        return entry.value;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        t1.clear();
+        t2.clear();
+        b1.clear();
+        b2.clear();
+        p = 0;
+        resetCounters();
+    }
+
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.ARC;
+    }
+}
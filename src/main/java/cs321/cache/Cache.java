@@ -1,93 +1,75 @@
 package cs321.cache;
 
-import java.util.LinkedList;
+import java.util.HashMap;
 
 /**
  * A simple and fixed size cache that always keeps the most recently used item at the front
  *
+ * The items are linked into a list through entries that a HashMap finds by
+ * key, so get, add and remove take constant time however many items the
+ * cache holds. This is the LRU policy; see CachePolicy for the others.
+ *
  * @param <K> the type of key used to find items
  * @param <V> the type of item stored which it must
  *
  * @author Ahmad Rao
  */
 public class Cache<K, V extends KeyInterface<K>>
-				    implements CacheInterface<K, V>{
-
-    private int maxSize;
-    private LinkedList<V> cache;
+				    extends AbstractCache<K, V> {
 
-    private int numHits = 0;
-    private int numReferences = 0;
+    private final HashMap<K, EntryList.Entry<K, V>> entries = new HashMap<>();
+    private final EntryList<K, V> list = new EntryList<>(); // most recently used first
 
 
     public Cache(int maxSize) {
-        if (maxSize < 1) {
-            throw new IllegalArgumentException("maxSize must be greater than 0");
-        }
-        this.maxSize = maxSize;
-        this.cache = new LinkedList<>();
+        super(maxSize);
     }
 
     @Override
     public V get(K key) {
-        numReferences++;
-        for(int i = 0; i < cache.size(); i++) {
-            V current = cache.get(i);
-            if(current.getKey().equals(key)) {
-                numHits++;
-                cache.remove(i);
-                cache.addFirst(current);
-                return current;
-
-            }
+        EntryList.Entry<K, V> entry = entries.get(key);
+        countReference(entry != null);
+        if (entry == null) {
+            return null;
         }
-        return null;
-
+        list.moveToFront(entry);
+        return entry.value;
     }
 
     @Override
     public V add(V value) {
         remove(value.getKey());
         V removed = null;
-        if(cache.size() == maxSize) {
-            removed = cache.removeLast();
+        if (entries.size() == maxSize) {
+            EntryList.Entry<K, V> last = list.removeLast();
+            entries.remove(last.key);
+            removed = last.value;
         }
-        cache.addFirst(value);
+        EntryList.Entry<K, V> entry = new EntryList.Entry<>(value.getKey(), value);
+        entries.put(entry.key, entry);
+        list.addFirst(entry);
         return removed;
     }
 
     @Override
     public V remove(K key) {
-        for(int i = 0; i < cache.size(); i++) {
-            V current = cache.get(i);
-            if(current.getKey().equals(key)) {
-                cache.remove(i);
-                return current;
-            }
+        EntryList.Entry<K, V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
         }
-        return null;
+        list.remove(entry);
+        return entry.value;
     }
 
     @Override
     public void clear() {
-        cache.clear();
-        numHits = 0;
-        numReferences = 0;
-
+        entries.clear();
+        list.clear();
+        resetCounters();
     }
 
-    public String toString() {
-        double hitPercent;
-        if (numReferences == 0) {
-            hitPercent = 0.0;
-        } else {
-            hitPercent = (numHits * 100.0) / numReferences;
-        }
-        return  "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
-                "Cache with " + maxSize + " entries has been created\n" +
-                "~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~\n" +
-                String.format("%-30s %10d%n", "Total number of references:", numReferences) +
-                String.format("%-30s %10d%n", "Total number of cache hits:", numHits) +
-                String.format("%-30s %10.2f%%%n", "Cache hit percent:", hitPercent);
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.LRU;
     }
-}
\ No newline at end of file
+}
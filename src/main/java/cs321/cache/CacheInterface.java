@@ -3,8 +3,9 @@ package cs321.cache;
 /**
  * The blueprint for cache class
  *
- * The cache can hold only a fixed number of items and always keeps
- * the most recently used item in the front.
+ * The cache can hold only a fixed number of items. Which item is evicted
+ * to make room depends on its CachePolicy; Cache keeps the most recently
+ * used item in the front and evicts the least recently used one.
  * Each item that gets stored must be able to tell the
  * cache its own key by calling
  * getKey() and the cache uses that key to find, move, or
@@ -17,8 +18,8 @@ public interface CacheInterface<K, V extends KeyInterface<K>> {
 
     /**
      * Looks up a value by key
-     * If the key is found the corresponding value is returned and promoted to the front of the cache
-     * If the key is absent {@code null} is returned and the cache remains unchanged
+     * If the key is found the corresponding value is returned and promoted as the policy does for a use
+     * If the key is absent {@code null} is returned and no value is added or removed
 
      * @param key which it is looking for
      * @return the cached value if its present or else it returns null otherwise
@@ -26,10 +27,10 @@ public interface CacheInterface<K, V extends KeyInterface<K>> {
     public V get(K key);
 
     /**
-     * Insert a new value in the front of the cache
+     * Insert a new value in the cache
      * If the cache is not full then the value is added
-     * If the cache is full the least recently used entry at the back is removed to make room
-     * and the removed value is returned
+     * If the cache is full the entry the policy picks is removed to make room
+     * and the removed value is returned; a policy that does not admit the new value removes the value itself
      *
      * @param value where value is the value you are trying to add
      * @return the removed value when something is removed or return null if nothing is removed
@@ -48,6 +49,16 @@ public interface CacheInterface<K, V extends KeyInterface<K>> {
      */
     public void clear();
 
+    /**
+     * Tells whether several threads may use the cache at once. Callers must
+     * lock around a cache that is not thread safe, as its gets change it too.
+     *
+     * @return true if the cache needs no lock around it, false by default
+     */
+    public default boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Returns a readable summary which matches the format which is required for the project
      */
@@ -0,0 +1,87 @@
+package cs321.cache;
+
+/**
+ * The eviction policies a node cache can use. LRU keeps the most recently
+ * used items; the others also keep items that are used often, so a scan of
+ * the whole tree, as dumpToFile does, does not flush the hot upper levels.
+ *
+ * <ul>
+ * <li>LRU: evicts the least recently used item.</li>
+ * <li>CLOCK: evicts the first item the clock hand finds that was not used
+ * since the hand last passed it.</li>
+ * <li>2Q: admits new items to a small FIFO queue and only moves an item to the
+ * main LRU queue if it is used again after falling out of the FIFO.</li>
+ * <li>ARC: splits the cache between recently and frequently used items, and
+ * moves the split by the hits on the keys it evicted lately.</li>
+ * <li>W-TinyLFU: keeps new items in a small LRU window and admits them to the
+ * main cache only if they are used more often than the item they replace,
+ * as estimated by a frequency sketch.</li>
+ * </ul>
+ */
+public enum CachePolicy {
+    LRU("LRU"),
+    CLOCK("CLOCK"),
+    TWO_QUEUE("2Q"),
+    ARC("ARC"),
+    W_TINY_LFU("W-TinyLFU");
+
+    private final String name;
+
+    CachePolicy(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the name of the policy, such as "2Q"
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Creates an empty cache with this policy.
+     *
+     * @param maxSize the number of items the cache holds
+     * @return the cache
+     */
+    public <K, V extends KeyInterface<K>> CacheInterface<K, V> create(int maxSize) {
+        switch (this) {
+            case CLOCK:
+                return new ClockCache<>(maxSize);
+            case TWO_QUEUE:
+                return new TwoQueueCache<>(maxSize);
+            case ARC:
+                return new ArcCache<>(maxSize);
+            case W_TINY_LFU:
+                return new TinyLfuCache<>(maxSize);
+            default:
+                return new Cache<>(maxSize);
+        }
+    }
+
+    /**
+     * Creates an empty cache with this policy for several threads. LRU gives
+     * a ConcurrentCache; the caches of the other policies are not thread safe,
+     * and the threads have to lock around them.
+     *
+     * @param maxSize the number of items the cache holds
+     * @return the cache
+     */
+    public <K, V extends KeyInterface<K>> CacheInterface<K, V> createConcurrent(int maxSize) {
+        return this == LRU ? new ConcurrentCache<>(maxSize) : create(maxSize);
+    }
+
+    /**
+     * @param name the name of a policy, ignoring case, such as "2q"
+     * @return the policy
+     * @throws IllegalArgumentException if no policy has the name
+     */
+    public static CachePolicy forName(String name) {
+        for (CachePolicy policy : values()) {
+            if (policy.name.equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw new IllegalArgumentException("unknown cache policy " + name);
+    }
+}
@@ -0,0 +1,109 @@
+package cs321.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A fixed size cache with the CLOCK policy. The items sit in a ring of
+ * slots with a reference bit each, which a get sets. To make room, the hand
+ * moves around the ring clearing the bits it passes, and evicts the first
+ * item whose bit was already clear.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+public class ClockCache<K, V extends KeyInterface<K>> extends AbstractCache<K, V> {
+
+    private final HashMap<K, Integer> slotOf = new HashMap<>();
+    private final Object[] values;
+    private final boolean[] referenced;
+    private int used = 0; // slots [0, used) hold items
+    private int hand = 0;
+
+    public ClockCache(int maxSize) {
+        super(maxSize);
+        values = new Object[maxSize];
+        referenced = new boolean[maxSize];
+    }
+
+    @Override
+    public V get(K key) {
+        Integer slot = slotOf.get(key);
+        countReference(slot != null);
+        if (slot == null) {
+            return null;
+        }
+        referenced[slot] = true;
+        return value(slot);
+    }
+
+    @Override
+    public V add(V value) {
+        Integer slot = slotOf.get(value.getKey());
+        if (slot != null) {
+            values[slot] = value;
+            referenced[slot] = true;
+            return null;
+        }
+
+        V removed = null;
+        if (used < values.length) {
+            slot = used++;
+        } else {
+            while (referenced[hand]) {
+                referenced[hand] = false;
+                hand = (hand + 1) % values.length;
+            }
+            slot = hand;
+            hand = (hand + 1) % values.length;
+            removed = value(slot);
+            slotOf.remove(removed.getKey());
+        }
+        values[slot] = value;
+        referenced[slot] = false;
+        slotOf.put(value.getKey(), slot);
+        return removed;
+    }
+
+    @Override
+    public V remove(K key) {
+        Integer slot = slotOf.remove(key);
+        if (slot == null) {
+            return null;
+        }
+        V removed = value(slot);
+        // Fill the hole with the item of the last slot
+        int last = --used;
+        if (slot != last) {
+            values[slot] = values[last];
+            referenced[slot] = referenced[last];
+            slotOf.put(value(slot).getKey(), slot);
+        }
+        values[last] = null;
+        referenced[last] = false;
+        if (hand >= used) {
+            hand = 0;
+        }
+        return removed;
+    }
+
+    @Override
+    public void clear() {
+        slotOf.clear();
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+        used = 0;
+        hand = 0;
+        resetCounters();
+    }
+
+    @SuppressWarnings("unchecked")
+    private V value(int slot) {
+        return (V) values[slot];
+    }
+
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.CLOCK;
+    }
+}
@@ -0,0 +1,209 @@
+package cs321.cache;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed size LRU cache that several threads can use at once without a
+ * lock around it.
+ *
+ * Items are found through one ConcurrentHashMap, so get takes no lock. The
+ * cache is split into segments by key, and each segment keeps its share of
+ * the items in its own recency list under its own lock, so add and remove
+ * only wait for threads that work on the same segment. A segment evicts its
+ * own least recently used item, which makes the eviction order approximate:
+ * the item evicted is the oldest of its segment, not of the whole cache.
+ *
+ * A hit moves its item to the front only if the lock of the segment is free.
+ * A thread that finds it taken does not wait, and the use is not recorded,
+ * so under contention the recency order is a sample of the gets. The hit
+ * counters are LongAdders, which threads update without contending.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+public class ConcurrentCache<K, V extends KeyInterface<K>> extends AbstractCache<K, V> {
+
+    /**
+     * Number of segments of a cache with at least as many entries.
+     */
+    public static final int DEFAULT_SEGMENTS = 16;
+
+    /**
+     * The items of the keys that hash to one part of the cache.
+     */
+    private static final class Segment<K, V> {
+        final ReentrantLock lock = new ReentrantLock();
+        final EntryList<K, V> list = new EntryList<>(); // most recently used first
+        final int maxSize;
+
+        Segment(int maxSize) {
+            this.maxSize = maxSize;
+        }
+    }
+
+    private final ConcurrentHashMap<K, EntryList.Entry<K, V>> entries;
+    private final Segment<K, V>[] segments;
+    private final int shift; // 32 - log2(segments.length)
+
+    private final LongAdder numHits = new LongAdder();
+    private final LongAdder numReferences = new LongAdder();
+
+    public ConcurrentCache(int maxSize) {
+        this(maxSize, DEFAULT_SEGMENTS);
+    }
+
+    /**
+     * @param maxSize the number of items the cache holds
+     * @param segments the number of segments, which is rounded down to a power
+     *        of two no larger than maxSize
+     * @throws IllegalArgumentException if maxSize or segments is less than 1
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ConcurrentCache(int maxSize, int segments) {
+        super(maxSize);
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be greater than 0");
+        }
+        int n = Integer.highestOneBit(Math.min(segments, maxSize));
+        this.segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            this.segments[i] = new Segment<>(maxSize / n + (i < maxSize % n ? 1 : 0));
+        }
+        this.shift = 32 - Integer.numberOfTrailingZeros(n);
+        this.entries = new ConcurrentHashMap<>(2 * maxSize, 0.75f, n);
+    }
+
+    /**
+     * Page addresses are multiples of the page size, so the segment is taken
+     * from the high bits of a multiplicative hash, which all bits of the key
+     * reach, instead of from the low bits of hashCode.
+     */
+    private Segment<K, V> segmentFor(K key) {
+        if (segments.length == 1) {
+            return segments[0];
+        }
+        return segments[(key.hashCode() * 0x9E3779B9) >>> shift];
+    }
+
+    @Override
+    public V get(K key) {
+        EntryList.Entry<K, V> entry = entries.get(key);
+        countReference(entry != null);
+        if (entry == null) {
+            return null;
+        }
+        Segment<K, V> segment = segmentFor(key);
+        if (segment.lock.tryLock()) {
+            try {
+                // The entry may have been removed since it was found
+                if (entry.list == segment.list) {
+                    segment.list.moveToFront(entry);
+                }
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return entry.value;
+    }
+
+    @Override
+    public V add(V value) {
+        K key = value.getKey();
+        Segment<K, V> segment = segmentFor(key);
+        EntryList.Entry<K, V> entry = new EntryList.Entry<>(key, value);
+        segment.lock.lock();
+        try {
+            EntryList.Entry<K, V> old = entries.put(key, entry);
+            if (old != null) {
+                segment.list.remove(old);
+            }
+            V removed = null;
+            if (segment.list.size() == segment.maxSize) {
+                EntryList.Entry<K, V> last = segment.list.removeLast();
+                entries.remove(last.key, last);
+                removed = last.value;
+            }
+            segment.list.addFirst(entry);
+            return removed;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public V remove(K key) {
+        Segment<K, V> segment = segmentFor(key);
+        segment.lock.lock();
+        try {
+            EntryList.Entry<K, V> entry = entries.remove(key);
+            if (entry == null) {
+                return null;
+            }
+            segment.list.remove(entry);
+            return entry.value;
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> segment : segments) {
+            segment.lock.lock();
+        }
+        try {
+            entries.clear();
+            for (Segment<K, V> segment : segments) {
+                // One by one, so a get that found an entry before sees it is gone
+                while (segment.list.removeLast() != null) {
+                }
+            }
+            resetCounters();
+        } finally {
+            for (Segment<K, V> segment : segments) {
+                segment.lock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return true;
+    }
+
+    @Override
+    protected void countReference(boolean hit) {
+        numReferences.increment();
+        if (hit) {
+            numHits.increment();
+        }
+    }
+
+    @Override
+    protected void resetCounters() {
+        numHits.reset();
+        numReferences.reset();
+    }
+
+    @Override
+    protected long numHits() {
+        return numHits.sum();
+    }
+
+    @Override
+    protected long numReferences() {
+        return numReferences.sum();
+    }
+
+    @Override
+    String name() {
+        return "Concurrent cache";
+    }
+
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.LRU;
+    }
+}
@@ -0,0 +1,100 @@
+package cs321.cache;
+
+/**
+ * A doubly linked list of cache entries, from the front (most recent) to the
+ * back. The links are kept in the entries themselves, so an entry found
+ * through a map is moved or removed in constant time.
+ *
+ * @param <K> the type of key of the entries
+ * @param <V> the type of item stored in the entries
+ */
+final class EntryList<K, V> {
+
+    /**
+     * An item, or only its key for a ghost entry of an evicted item, and its
+     * place in a list.
+     */
+    static final class Entry<K, V> {
+        final K key;
+        V value;
+        EntryList<K, V> list; // the list the entry is in, or null
+        Entry<K, V> prev;
+        Entry<K, V> next;
+
+        Entry(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private Entry<K, V> head;
+    private Entry<K, V> tail;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the entry at the back, or null if the list is empty
+     */
+    Entry<K, V> last() {
+        return tail;
+    }
+
+    void addFirst(Entry<K, V> entry) {
+        entry.list = this;
+        entry.prev = null;
+        entry.next = head;
+        if (head != null) {
+            head.prev = entry;
+        } else {
+            tail = entry;
+        }
+        head = entry;
+        size++;
+    }
+
+    void remove(Entry<K, V> entry) {
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            head = entry.next;
+        }
+        if (entry.next != null) {
+            entry.next.prev = entry.prev;
+        } else {
+            tail = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+        entry.list = null;
+        size--;
+    }
+
+    /**
+     * Removes the entry at the back.
+     *
+     * @return the removed entry, or null if the list is empty
+     */
+    Entry<K, V> removeLast() {
+        Entry<K, V> last = tail;
+        if (last != null) {
+            remove(last);
+        }
+        return last;
+    }
+
+    void moveToFront(Entry<K, V> entry) {
+        if (entry != head) {
+            remove(entry);
+            addFirst(entry);
+        }
+    }
+
+    void clear() {
+        head = null;
+        tail = null;
+        size = 0;
+    }
+}
@@ -0,0 +1,71 @@
+package cs321.cache;
+
+/**
+ * Estimates how often keys were used with a count-min sketch of 4-bit
+ * counters. A key is counted in four counters, one per row, and its estimate
+ * is the smallest of them. After ten times as many uses as there are counters
+ * in a row, all counters are halved, so the estimates follow recent use.
+ */
+final class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[][] counters;
+    private final int mask;
+    private final int resetAfter;
+    private int uses = 0;
+
+    /**
+     * @param expectedKeys the number of keys whose use is compared, such as the size of a cache
+     */
+    FrequencySketch(int expectedKeys) {
+        int width = Integer.highestOneBit(Math.max(16, expectedKeys - 1)) << 1;
+        counters = new byte[ROWS][width];
+        mask = width - 1;
+        resetAfter = 10 * width;
+    }
+
+    /**
+     * Counts a use of the key.
+     */
+    void increment(Object key) {
+        int hash = key.hashCode();
+        for (int row = 0; row < ROWS; row++) {
+            int i = index(hash, row);
+            if (counters[row][i] < MAX_COUNT) {
+                counters[row][i]++;
+            }
+        }
+        if (++uses == resetAfter) {
+            halve();
+        }
+    }
+
+    /**
+     * @return the estimated number of recent uses of the key, at most 15
+     */
+    int frequency(Object key) {
+        int hash = key.hashCode();
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters[row][index(hash, row)]);
+        }
+        return frequency;
+    }
+
+    private int index(int hash, int row) {
+        int h = (hash ^ (hash >>> 16)) * SEEDS[row];
+        return (h ^ (h >>> 15)) & mask;
+    }
+
+    private void halve() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>= 1;
+            }
+        }
+        uses /= 2;
+    }
+}
@@ -0,0 +1,122 @@
+package cs321.cache;
+
+import java.util.HashMap;
+
+/**
+ * A fixed size cache with the W-TinyLFU policy. New items enter a small LRU
+ * window of 1% of the cache. An item that falls out of the window competes
+ * with the next victim of the main cache, and whichever a FrequencySketch
+ * counts fewer uses for is evicted. The main cache is a segmented LRU: items
+ * hit again move from the probation segment to the protected segment, which
+ * holds 80% of it. Every get counts a use of its key, hit or miss.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+public class TinyLfuCache<K, V extends KeyInterface<K>> extends AbstractCache<K, V> {
+
+    private final HashMap<K, EntryList.Entry<K, V>> entries = new HashMap<>();
+    private final EntryList<K, V> window = new EntryList<>();
+    private final EntryList<K, V> probation = new EntryList<>();
+    private final EntryList<K, V> protectedItems = new EntryList<>();
+    private final int windowSize;
+    private final int protectedSize;
+    private final FrequencySketch sketch;
+
+    public TinyLfuCache(int maxSize) {
+        super(maxSize);
+        windowSize = Math.max(1, maxSize / 100);
+        protectedSize = (maxSize - windowSize) * 4 / 5;
+        sketch = new FrequencySketch(maxSize);
+    }
+
+    @Override
+    public V get(K key) {
+        sketch.increment(key);
+        EntryList.Entry<K, V> entry = entries.get(key);
+        countReference(entry != null);
+        if (entry == null) {
+            return null;
+        }
+        touch(entry);
+        return entry.value;
+    }
+
+    /**
+     * Moves a hit item to the front of its segment, or from probation to protected.
+     */
+    private void touch(EntryList.Entry<K, V> entry) {
+        if (entry.list == probation) {
+            probation.remove(entry);
+            protectedItems.addFirst(entry);
+            if (protectedItems.size() > protectedSize) {
+                probation.addFirst(protectedItems.removeLast());
+            }
+        } else {
+            entry.list.moveToFront(entry);
+        }
+    }
+
+    @Override
+    public V add(V value) {
+        K key = value.getKey();
+        EntryList.Entry<K, V> entry = entries.get(key);
+        if (entry != null) {
+            entry.value = value;
+            touch(entry);
+            return null;
+        }
+
+        entry = new EntryList.Entry<>(key, value);
+        entries.put(key, entry);
+        window.addFirst(entry);
+        if (entries.size() <= maxSize) {
+            if (window.size() > windowSize) {
+                probation.addFirst(window.removeLast());
+            }
+            return null;
+        }
+
+        // Full: the oldest item of the window competes with the main cache's victim
+        EntryList.Entry<K, V> candidate = window.size() > windowSize ? window.removeLast() : null;
+        EntryList.Entry<K, V> victim = probation.size() > 0 ? probation.last() : protectedItems.last();
+        EntryList.Entry<K, V> evicted;
+        if (candidate == null) {
+            evicted = victim != null ? victim : window.last();
+        } else if (victim != null && sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+            evicted = victim;
+            probation.addFirst(candidate);
+        } else {
+            evicted = candidate;
+        }
+        if (evicted.list != null) {
+            evicted.list.remove(evicted);
+        }
+        entries.remove(evicted.key);
+        return evicted.value;
+    }
+
+    @Override
+    public V remove(K key) {
+        EntryList.Entry<K, V> entry = entries.remove(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.list.remove(entry);
+        return entry.value;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        window.clear();
+        probation.clear();
+        protectedItems.clear();
+        resetCounters();
+    }
+
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.W_TINY_LFU;
+    }
+}
@@ -0,0 +1,118 @@
+package cs321.cache;
+
+import java.util.HashMap;
+
+/**
+ * A fixed size cache with the 2Q policy of Johnson and Shasha. A new item
+ * goes to the FIFO queue A1in, which holds a quarter of the cache; a hit
+ * there does not move it. The key of an item that falls out of A1in is
+ * remembered in the ghost queue A1out, and only an item added again while
+ * its key is in A1out enters the main LRU queue Am. Items used once, like
+ * those of a scan, therefore never push the items of Am out.
+ *
+ * @param <K> the type of key used to find items
+ * @param <V> the type of item stored
+ */
+public class TwoQueueCache<K, V extends KeyInterface<K>> extends AbstractCache<K, V> {
+
+    private final HashMap<K, EntryList.Entry<K, V>> entries = new HashMap<>();
+    private final EntryList<K, V> in = new EntryList<>();    // A1in, items seen once, newest first
+    private final EntryList<K, V> out = new EntryList<>();   // A1out, keys evicted from A1in, newest first
+    private final EntryList<K, V> main = new EntryList<>();  // Am, items seen again, most recently used first
+    private final int inSize;
+    private final int outSize;
+
+    public TwoQueueCache(int maxSize) {
+        super(maxSize);
+        inSize = Math.max(1, maxSize / 4);
+        outSize = Math.max(1, maxSize / 2);
+    }
+
+    @Override
+    public V get(K key) {
+        EntryList.Entry<K, V> entry = entries.get(key);
+        boolean hit = entry != null && entry.list != out;
+        countReference(hit);
+        if (!hit) {
+            return null;
+        }
+        if (entry.list == main) {
+            main.moveToFront(entry);
+        }
+        return entry.value;
+    }
+
+    @Override
+    public V add(V value) {
+        K key = value.getKey();
+        EntryList.Entry<K, V> entry = entries.get(key);
+        if (entry != null && entry.list != out) {
+            entry.value = value;
+            if (entry.list == main) {
+                main.moveToFront(entry);
+            }
+            return null;
+        }
+
+        if (entry != null) {
+            out.remove(entry);
+        }
+        V removed = in.size() + main.size() == maxSize ? evict() : null;
+        if (entry != null) {
+            // Seen again soon after it fell out of A1in
+            entry.value = value;
+            main.addFirst(entry);
+        } else {
+            entry = new EntryList.Entry<>(key, value);
+            entries.put(key, entry);
+            in.addFirst(entry);
+        }
+        return removed;
+    }
+
+    /**
+     * Evicts the oldest item of A1in if A1in is over its share, remembering
+     * its key, otherwise the least recently used item of Am.
+     */
+    private V evict() {
+        EntryList.Entry<K, V> victim;
+        if (in.size() > inSize || main.size() == 0) {
+            victim = in.removeLast();
+            V removed = victim.value;
+            victim.value = null;
+            out.addFirst(victim);
+            if (out.size() > outSize) {
+                entries.remove(out.removeLast().key);
+            }
+            return removed;
+        }
+        victim = main.removeLast();
+        entries.remove(victim.key);
+        return victim.value;
+    }
+
+    @Override
+    public V remove(K key) {
+        EntryList.Entry<K, V> entry = entries.get(key);
+        if (entry == null || entry.list == out) {
+            return null;
+        }
+        entries.remove(key);
+        entry.list.remove(entry);
+        return entry.value;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        in.clear();
+        out.clear();
+        main.clear();
+        resetCounters();
+    }
+
+    @Override
+    CachePolicy policy() {
+        return CachePolicy.TWO_QUEUE;
+    }
+}
@@ -2,12 +2,20 @@ package cs321.create;
 
 import java.io.File;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import cs321.btree.BTree;
+import cs321.btree.BTreeFactory;
+import cs321.btree.BTreeInterface;
+import cs321.btree.BTreeOptions;
+import cs321.btree.ShardedBTree;
 import cs321.btree.TreeObject;
+import cs321.cache.CachePolicy;
 import cs321.common.ParseArgumentException;
 
 
@@ -18,6 +26,14 @@ import cs321.common.ParseArgumentException;
  * @author 
  */
 public class SSHCreateBTree {
+
+    /**
+     * Frames in the write-back buffer pool when --buffer-pool is not given.
+     */
+    private static final int DEFAULT_BUFFER_POOL_FRAMES = 1024;
+
+    private static final Object DATABASE_LOCK = new Object();
+
     /**
      * Main driver of program.
      * @param args
@@ -30,31 +46,154 @@ public class SSHCreateBTree {
             printUsageAndExit("Error: Invalid arguments provided.");
         }
 
-        // Create the BTree
-        
-        String btreeFileName = "SSH_log.txt.ssh.btree." + myArgs.getTreeType() + "." + myArgs.getDegree();
-        BTree bTree = new BTree(myArgs.getDegree(), btreeFileName);
+        List<String> treeTypes = myArgs.getTreeTypes();
+        if (treeTypes.size() > 1 && myArgs.isParallel()) {
+            // One parser thread feeds a writer thread per tree
+            TreeBuildPipeline pipeline = new TreeBuildPipeline(myArgs, treeTypes);
+            pipeline.run(newReader(myArgs, myArgs.getTreeType()));
+            pipeline.printReport(System.out);
+            return;
+        }
 
-        // Read the SSH log file
-        SSHFileReader fileReader = new SSHFileReader(myArgs.getSSHFileName(), myArgs.getTreeType());
-        List<String> logEntries = fileReader.readEntries();
+        if (myArgs.getParseThreads() > 1) {
+            // Count the keys of every tree type in parallel chunks of the log, then build the trees from the counts
+            SSHFileReader reader = newReader(myArgs, myArgs.getTreeType());
+            Map<String, Map<String, Long>> counts = reader.countEntries(treeTypes, myArgs.getParseThreads());
+            for (Map.Entry<String, Map<String, Long>> e : counts.entrySet()) {
+                createBTree(myArgs, e.getKey(), treeObjects(e.getValue()));
+            }
+            return;
+        }
 
-        // Insert log entries into the BTree
-        for (String entry : logEntries) {
-            TreeObject treeObject = new TreeObject(normalizeKey(entry));
-            bTree.insert(treeObject);
+        // Stream the keys of each tree type while its tree is built, one read of the log per tree
+        for (String treeType : treeTypes) {
+            try (SSHFileReader reader = newReader(myArgs, treeType)) {
+                createBTree(myArgs, treeType, treeObjects(reader.entries()));
+            }
         }
+	}
+
+    /**
+     * @return a reader of the log given as --sshFile, or of the raw log given as --rawSshFile
+     */
+    private static SSHFileReader newReader(SSHCreateBTreeArguments myArgs, String treeType) {
+        return new SSHFileReader(myArgs.getSSHFileName(), treeType, myArgs.isRawSSHFile());
+    }
+
+    /**
+     * @param logEntries keys of one tree type, one per log line
+     * @return the keys, cut to the longest key the tree stores, with a count of 1 each
+     */
+    static Iterator<TreeObject> treeObjects(Iterator<String> logEntries) {
+        return new Iterator<TreeObject>() {
+            @Override
+            public boolean hasNext() {
+                return logEntries.hasNext();
+            }
+
+            @Override
+            public TreeObject next() {
+                return new TreeObject(normalizeKey(logEntries.next()));
+            }
+        };
+    }
+
+    /**
+     * @param counts keys of one tree type and how often each was found
+     * @return the keys, cut to the longest key the tree stores, with their counts
+     */
+    static Iterator<TreeObject> treeObjects(Map<String, Long> counts) {
+        Iterator<Map.Entry<String, Long>> entries = counts.entrySet().iterator();
+        return new Iterator<TreeObject>() {
+            @Override
+            public boolean hasNext() {
+                return entries.hasNext();
+            }
 
-        // Dump file if debug is enabled
-        if (myArgs.getDebugLevel() == 1) {
-            try (PrintWriter printWriter = new PrintWriter(new File("dump-" + myArgs.getTreeType() + "." + myArgs.getDegree() + ".txt"))) {
-                bTree.dumpToFile(printWriter);
+            @Override
+            public TreeObject next() {
+                Map.Entry<String, Long> e = entries.next();
+                return new TreeObject(normalizeKey(e.getKey()), e.getValue());
+            }
+        };
+    }
+
+
+    /**
+     * Builds the BTree of one tree type from its log entries, then writes
+     * the dump and, with --database=yes, the database table of the tree.
+     *
+     * @param myArgs the command line arguments
+     * @param treeType the tree type, such as "accepted-ip"
+     * @param keys the keys of the tree type; a key may come more than once, its counts are added up
+     */
+    static void createBTree(SSHCreateBTreeArguments myArgs, String treeType, Iterator<TreeObject> keys) throws Exception
+    {
+        String btreeFileName = "SSH_log.txt.ssh.btree." + treeType + "." + myArgs.getDegree();
+        if (myArgs.isBulkLoad()) {
+            // A bulk load is always a full rebuild
+            new File(btreeFileName).delete();
+            for (int i = 0; i < myArgs.getShards(); i++) {
+                new File(ShardedBTree.shardName(btreeFileName, i)).delete();
             }
         }
+        BTreeOptions options = new BTreeOptions()
+                .cache(myArgs.isUseCache() ? myArgs.getCacheSize() : 0)
+                .cachePolicy(myArgs.getCachePolicy())
+                .memoryMapped(myArgs.isMemoryMapped())
+                .bufferPool(myArgs.getBufferPoolFrames())
+                .pageCache((long) myArgs.getPageCacheMB() << 20)
+                .maxCounts(myArgs.isMaxCounts())
+                .subtreeSizes(myArgs.isSubtreeSizes())
+                .bPlusTree(myArgs.isBPlusTree())
+                .shards(myArgs.getShards())
+                .checkpointInterval(0); // the tree is built in one go and closed at the end
+        BTreeInterface bTree = BTreeFactory.open(myArgs.getDegree(), btreeFileName, options);
 
-        String tableName = myArgs.getTreeType().replace("-", "");
-        bTree.dumpToDatabase("SSHLogDB.db", tableName);
-	}
+        try {
+            if (myArgs.isBulkLoad()) {
+                // Sort and count the keys first, then build the tree bottom-up
+                TreeMap<String, Long> counts = new TreeMap<>();
+                while (keys.hasNext()) {
+                    TreeObject key = keys.next();
+                    counts.merge(key.getKey(), key.getCount(), Long::sum);
+                }
+                List<TreeObject> sortedKeys = new ArrayList<>(counts.size());
+                for (Map.Entry<String, Long> e : counts.entrySet()) {
+                    sortedKeys.add(new TreeObject(e.getKey(), e.getValue()));
+                }
+                bTree.bulkLoad(sortedKeys);
+            } else if (bTree instanceof ShardedBTree) {
+                // Insert into all shards at once
+                ((ShardedBTree) bTree).insertAll(keys);
+            } else {
+                // Insert log entries into the BTree
+                while (keys.hasNext()) {
+                    bTree.insert(keys.next());
+                }
+            }
+
+            // Dump file if debug is enabled
+            if (myArgs.getDebugLevel() == 1) {
+                if ((myArgs.isUseCache() || myArgs.getPageCacheMB() > 0) && bTree instanceof BTree) {
+                    System.err.println("Cache statistics of " + treeType + ":");
+                    ((BTree) bTree).printCacheStats(System.err);
+                }
+                try (PrintWriter printWriter = new PrintWriter(new File("dump-" + treeType + "." + myArgs.getDegree() + ".txt"))) {
+                    bTree.dumpToFile(printWriter);
+                }
+            }
+
+            if (myArgs.isDatabase()) {
+                String tableName = treeType.replace("-", "");
+                synchronized (DATABASE_LOCK) { // trees built in parallel share the database file
+                    bTree.dumpToDatabase("SSHLogDB.db", tableName);
+                }
+            }
+        } finally {
+            bTree.close();
+        }
+    }
 
 
     /**
@@ -94,8 +233,18 @@ public class SSHCreateBTree {
             printUsageAndExit("Error: --degree must be 0 (default) or greater than 1.");
         }
 
-        // Validate --sshFile argument
-        if (!argMap.containsKey("--sshFile")
+        // Validate --sshFile argument, or take the raw log of --rawSshFile instead
+        boolean rawSSHFile = argMap.containsKey("--rawSshFile");
+        if (rawSSHFile) {
+            if (argMap.containsKey("--sshFile")) {
+                printUsageAndExit("Error: give either --sshFile or --rawSshFile.");
+            }
+            if (argMap.get("--rawSshFile").isEmpty()) {
+                printUsageAndExit("Error: --rawSshFile must name a file.");
+            }
+            argMap.put("--sshFile", argMap.get("--rawSshFile"));
+        }
+        else if (!argMap.containsKey("--sshFile")
                 || argMap.get("--sshFile").isEmpty()) {
             printUsageAndExit("Error: --sshFile argument is required.");
         }
@@ -105,6 +254,13 @@ public class SSHCreateBTree {
                 || argMap.get("--type").isEmpty()) {
             printUsageAndExit("Error: --type argument is required.");
         }
+        if (!argMap.get("--type").equals("all")) {
+            for (String type : argMap.get("--type").split(",")) {
+                if (!SSHFileReader.TREE_TYPES.contains(type)) {
+                    printUsageAndExit("Error: unknown --type " + type + ".");
+                }
+            }
+        }
 
         // Validate --cache-size argument
         if (argMap.get("--cache").equals("1")) {
@@ -123,6 +279,18 @@ public class SSHCreateBTree {
             argMap.put("--cache-size", "0");
         }
 
+        // Validate --cache-policy argument
+        if (argMap.containsKey("--cache-policy")) {
+            try {
+                CachePolicy.forName(argMap.get("--cache-policy"));
+            } catch (IllegalArgumentException e) {
+                printUsageAndExit("Error: --cache-policy must be lru, clock, 2q, arc or w-tinylfu.");
+            }
+        }
+        else {
+            argMap.put("--cache-policy", "lru");
+        }
+
         // Validate --database argument
         if (!argMap.containsKey("--database")
         || argMap.get("--database").isEmpty()
@@ -140,18 +308,159 @@ public class SSHCreateBTree {
             argMap.put("--debug", "0");
         }
 
+        // Validate --mmap argument
+        if (argMap.containsKey("--mmap")) {
+            if (!argMap.get("--mmap").equals("0") && !argMap.get("--mmap").equals("1")) {
+                printUsageAndExit("Error: --mmap must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--mmap", "0");
+        }
+
+        // Validate --bulk-load argument
+        if (argMap.containsKey("--bulk-load")) {
+            if (!argMap.get("--bulk-load").equals("0") && !argMap.get("--bulk-load").equals("1")) {
+                printUsageAndExit("Error: --bulk-load must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--bulk-load", "0");
+        }
+
+        // Validate --buffer-pool argument
+        if (argMap.containsKey("--buffer-pool")) {
+            try {
+                int frames = Integer.parseInt(argMap.get("--buffer-pool"));
+                if (frames != 0 && frames < 4) {
+                    printUsageAndExit("Error: --buffer-pool must be 0 or at least 4.");
+                }
+            } catch (NumberFormatException e) {
+                printUsageAndExit("Error: --buffer-pool must be an integer.");
+            }
+        }
+        else {
+            argMap.put("--buffer-pool", String.valueOf(DEFAULT_BUFFER_POOL_FRAMES));
+        }
+
+        // Validate --max-counts argument
+        if (argMap.containsKey("--max-counts")) {
+            if (!argMap.get("--max-counts").equals("0") && !argMap.get("--max-counts").equals("1")) {
+                printUsageAndExit("Error: --max-counts must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--max-counts", "1");
+        }
+
+        // Validate --subtree-sizes argument
+        if (argMap.containsKey("--subtree-sizes")) {
+            if (!argMap.get("--subtree-sizes").equals("0") && !argMap.get("--subtree-sizes").equals("1")) {
+                printUsageAndExit("Error: --subtree-sizes must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--subtree-sizes", "1");
+        }
+
+        // Validate --bplus-tree argument
+        if (argMap.containsKey("--bplus-tree")) {
+            if (!argMap.get("--bplus-tree").equals("0") && !argMap.get("--bplus-tree").equals("1")) {
+                printUsageAndExit("Error: --bplus-tree must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--bplus-tree", "0");
+        }
+
+        // Validate --parallel argument
+        boolean parallelGiven = argMap.containsKey("--parallel");
+        if (parallelGiven) {
+            if (!argMap.get("--parallel").equals("0") && !argMap.get("--parallel").equals("1")) {
+                printUsageAndExit("Error: --parallel must be 0 or 1.");
+            }
+        }
+        else {
+            argMap.put("--parallel", "1");
+        }
+
+        // Validate --shards argument
+        if (argMap.containsKey("--shards")) {
+            try {
+                if (Integer.parseInt(argMap.get("--shards")) < 1) {
+                    printUsageAndExit("Error: --shards must be at least 1.");
+                }
+            } catch (NumberFormatException e) {
+                printUsageAndExit("Error: --shards must be an integer.");
+            }
+        }
+        else {
+            argMap.put("--shards", "1");
+        }
+
+        // Validate --parse-threads argument
+        if (argMap.containsKey("--parse-threads")) {
+            try {
+                if (Integer.parseInt(argMap.get("--parse-threads")) < 1) {
+                    printUsageAndExit("Error: --parse-threads must be at least 1.");
+                }
+            } catch (NumberFormatException e) {
+                printUsageAndExit("Error: --parse-threads must be an integer.");
+            }
+        }
+        else {
+            argMap.put("--parse-threads", "1");
+        }
+
+        // The pipeline parses the log on one thread and would ignore
+        // --parse-threads, so chunked counting builds the trees one by one
+        boolean severalTypes = argMap.get("--type").equals("all") || argMap.get("--type").contains(",");
+        if (Integer.parseInt(argMap.get("--parse-threads")) > 1 && severalTypes) {
+            if (parallelGiven && argMap.get("--parallel").equals("1")) {
+                printUsageAndExit("Error: --parse-threads above 1 needs --parallel=0 for several tree types.");
+            }
+            argMap.put("--parallel", "0");
+        }
+
+        // Validate --page-cache-mb argument
+        if (argMap.containsKey("--page-cache-mb")) {
+            try {
+                if (Integer.parseInt(argMap.get("--page-cache-mb")) < 0) {
+                    printUsageAndExit("Error: --page-cache-mb must not be negative.");
+                }
+            } catch (NumberFormatException e) {
+                printUsageAndExit("Error: --page-cache-mb must be an integer.");
+            }
+        }
+        else {
+            argMap.put("--page-cache-mb", "0");
+        }
+
         // Get the degree
         int degree = Integer.parseInt(argMap.get("--degree"));
 
         // Create the SSHCreateBTreeArguments object
-        SSHCreateBTreeArguments arguments = new SSHCreateBTreeArguments(
+        SSHCreateBTreeArguments arguments = new SSHCreateBTreeArguments.Builder(
                 argMap.get("--cache").equals("1"),
                 degree,
                 argMap.get("--sshFile"),
                 argMap.get("--type"),
                 Integer.parseInt(argMap.get("--cache-size")),
-                Integer.parseInt(argMap.get("--debug"))
-        );
+                Integer.parseInt(argMap.get("--debug")))
+                .memoryMapped(argMap.get("--mmap").equals("1"))
+                .bulkLoad(argMap.get("--bulk-load").equals("1"))
+                .bufferPoolFrames(Integer.parseInt(argMap.get("--buffer-pool")))
+                .maxCounts(argMap.get("--max-counts").equals("1"))
+                .subtreeSizes(argMap.get("--subtree-sizes").equals("1"))
+                .bPlusTree(argMap.get("--bplus-tree").equals("1"))
+                .database(argMap.get("--database").equals("yes"))
+                .parallel(argMap.get("--parallel").equals("1"))
+                .shards(Integer.parseInt(argMap.get("--shards")))
+                .parseThreads(Integer.parseInt(argMap.get("--parse-threads")))
+                .rawSSHFile(rawSSHFile)
+                .cachePolicy(CachePolicy.forName(argMap.get("--cache-policy")))
+                .pageCacheMB(Integer.parseInt(argMap.get("--page-cache-mb")))
+                .build();
 
         return arguments;
     }
@@ -164,8 +473,13 @@ public class SSHCreateBTree {
     {
         System.out.println(errorMessage);
         System.out.println("Usage: java -jar build/libs/SSHCreateBTree.jar --cache=<0/1> --degree=<btree-degree> \\\n"
-                + "--sshFile=<ssh-File> --type=<tree-type> [--cache-size=<n>] \\\n"
-                +  "--database=<yes/no> [--debug=<0|1>]);");
+                + "<--sshFile=<ssh-File>|--rawSshFile=<raw-ssh-file>> --type=<all|tree-type[,tree-type...]> [--cache-size=<n>] \\\n"
+                +  "[--cache-policy=<lru|clock|2q|arc|w-tinylfu>] [--page-cache-mb=<n>] \\\n"
+                +  "--database=<yes/no> [--debug=<0|1>] [--mmap=<0|1>] \\\n"
+                +  "[--bulk-load=<0|1>] [--buffer-pool=<frames>] \\\n"
+                +  "[--max-counts=<0|1>] [--subtree-sizes=<0|1>] [--bplus-tree=<0|1>] \\\n"
+                +  "[--parallel=<0|1>] [--shards=<n>] [--parse-threads=<n>]);\n"
+                +  "For several tree types, --parse-threads above 1 needs --parallel=0, which it selects when --parallel is not given.");
         System.exit(1);
     }
 
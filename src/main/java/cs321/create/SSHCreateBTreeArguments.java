@@ -1,5 +1,10 @@
 package cs321.create;
 
+import java.util.Arrays;
+import java.util.List;
+
+import cs321.cache.CachePolicy;
+
 /**
  * SSHCreateBTreeArguments parses command line arguments for SSHCreateBTree.
  *
@@ -16,6 +21,19 @@ public class SSHCreateBTreeArguments
     private final String treeType;
     private final int cacheSize;
     private final int debugLevel;
+    private final boolean memoryMapped;
+    private final boolean bulkLoad;
+    private final int bufferPoolFrames;
+    private final boolean maxCounts;
+    private final boolean subtreeSizes;
+    private final boolean bPlusTree;
+    private final boolean database;
+    private final boolean parallel;
+    private final int shards;
+    private final int parseThreads;
+    private final boolean rawSSHFile;
+    private final CachePolicy cachePolicy;
+    private final int pageCacheMB;
 
     /**
      * Builds a new SSHCreateBTreeArguments with the specified
@@ -30,12 +48,198 @@ public class SSHCreateBTreeArguments
      */
     public SSHCreateBTreeArguments(boolean useCache, int degree, String SSHFileName, String treeType, int cacheSize, int debugLevel)
     {
-        this.useCache = useCache;
-        this.degree = degree;
-        this.SSHFileName = SSHFileName;
-        this.treeType = treeType;
-        this.cacheSize = cacheSize;
-        this.debugLevel = debugLevel;
+        this(new Builder(useCache, degree, SSHFileName, treeType, cacheSize, debugLevel));
+    }
+
+    private SSHCreateBTreeArguments(Builder builder)
+    {
+        this.useCache = builder.useCache;
+        this.degree = builder.degree;
+        this.SSHFileName = builder.SSHFileName;
+        this.treeType = builder.treeType;
+        this.cacheSize = builder.cacheSize;
+        this.debugLevel = builder.debugLevel;
+        this.memoryMapped = builder.memoryMapped;
+        this.bulkLoad = builder.bulkLoad;
+        this.bufferPoolFrames = builder.bufferPoolFrames;
+        this.maxCounts = builder.maxCounts;
+        this.subtreeSizes = builder.subtreeSizes;
+        this.bPlusTree = builder.bPlusTree;
+        this.database = builder.database;
+        this.parallel = builder.parallel;
+        this.shards = builder.shards;
+        this.parseThreads = builder.parseThreads;
+        this.rawSSHFile = builder.rawSSHFile;
+        this.cachePolicy = builder.cachePolicy;
+        this.pageCacheMB = builder.pageCacheMB;
+    }
+
+    /**
+     * Collects the arguments beyond the required ones by name, like
+     * BTreeOptions. The defaults are those of a plain
+     * SSHCreateBTreeArguments: one tree per file built by inserts, written
+     * to the database.
+     */
+    public static class Builder
+    {
+        private final boolean useCache;
+        private final int degree;
+        private final String SSHFileName;
+        private final String treeType;
+        private final int cacheSize;
+        private final int debugLevel;
+        private boolean memoryMapped = false;
+        private boolean bulkLoad = false;
+        private int bufferPoolFrames = 0;
+        private boolean maxCounts = false;
+        private boolean subtreeSizes = false;
+        private boolean bPlusTree = false;
+        private boolean database = true;
+        private boolean parallel = false;
+        private int shards = 1;
+        private int parseThreads = 1;
+        private boolean rawSSHFile = false;
+        private CachePolicy cachePolicy = CachePolicy.LRU;
+        private int pageCacheMB = 0;
+
+        /**
+         * @param useCache boolean for using cache or not
+         * @param degree degree for BTree
+         * @param SSHFileName String of filename
+         * @param treeType type of tree
+         * @param cacheSize size of cache if using
+         * @param debugLevel level of debugging
+         */
+        public Builder(boolean useCache, int degree, String SSHFileName, String treeType, int cacheSize, int debugLevel)
+        {
+            this.useCache = useCache;
+            this.degree = degree;
+            this.SSHFileName = SSHFileName;
+            this.treeType = treeType;
+            this.cacheSize = cacheSize;
+            this.debugLevel = debugLevel;
+        }
+
+        /**
+         * @param memoryMapped access the BTree file through memory mapping
+         * @return this builder
+         */
+        public Builder memoryMapped(boolean memoryMapped) {
+            this.memoryMapped = memoryMapped;
+            return this;
+        }
+
+        /**
+         * @param bulkLoad rebuild the BTree bottom-up from sorted and counted keys
+         * @return this builder
+         */
+        public Builder bulkLoad(boolean bulkLoad) {
+            this.bulkLoad = bulkLoad;
+            return this;
+        }
+
+        /**
+         * @param bufferPoolFrames frames in the write-back buffer pool, 0 to write through
+         * @return this builder
+         */
+        public Builder bufferPoolFrames(int bufferPoolFrames) {
+            this.bufferPoolFrames = bufferPoolFrames;
+            return this;
+        }
+
+        /**
+         * @param maxCounts store the max count of each subtree for top frequency searches
+         * @return this builder
+         */
+        public Builder maxCounts(boolean maxCounts) {
+            this.maxCounts = maxCounts;
+            return this;
+        }
+
+        /**
+         * @param subtreeSizes store the key count and count sum of each subtree for rank and range count searches
+         * @return this builder
+         */
+        public Builder subtreeSizes(boolean subtreeSizes) {
+            this.subtreeSizes = subtreeSizes;
+            return this;
+        }
+
+        /**
+         * @param bPlusTree build a B+Tree with linked leaves instead of a BTree
+         * @return this builder
+         */
+        public Builder bPlusTree(boolean bPlusTree) {
+            this.bPlusTree = bPlusTree;
+            return this;
+        }
+
+        /**
+         * @param database write every tree to the SSHLogDB.db database
+         * @return this builder
+         */
+        public Builder database(boolean database) {
+            this.database = database;
+            return this;
+        }
+
+        /**
+         * @param parallel build several tree types at once, each on its own thread
+         * @return this builder
+         */
+        public Builder parallel(boolean parallel) {
+            this.parallel = parallel;
+            return this;
+        }
+
+        /**
+         * @param shards number of shards each tree is split into, 1 for a single tree
+         * @return this builder
+         */
+        public Builder shards(int shards) {
+            this.shards = shards;
+            return this;
+        }
+
+        /**
+         * @param parseThreads threads that count the keys of chunks of the log, 1 to stream the log instead
+         * @return this builder
+         */
+        public Builder parseThreads(int parseThreads) {
+            this.parseThreads = parseThreads;
+            return this;
+        }
+
+        /**
+         * @param rawSSHFile whether SSHFileName is a raw log that is wrangled as it is read
+         * @return this builder
+         */
+        public Builder rawSSHFile(boolean rawSSHFile) {
+            this.rawSSHFile = rawSSHFile;
+            return this;
+        }
+
+        /**
+         * @param cachePolicy eviction policy of the node cache
+         * @return this builder
+         */
+        public Builder cachePolicy(CachePolicy cachePolicy) {
+            this.cachePolicy = cachePolicy;
+            return this;
+        }
+
+        /**
+         * @param pageCacheMB megabytes of raw pages each tree caches off the heap, 0 for none
+         * @return this builder
+         */
+        public Builder pageCacheMB(int pageCacheMB) {
+            this.pageCacheMB = pageCacheMB;
+            return this;
+        }
+
+        public SSHCreateBTreeArguments build() {
+            return new SSHCreateBTreeArguments(this);
+        }
     }
 
     //getter methods
@@ -55,6 +259,17 @@ public class SSHCreateBTreeArguments
         return treeType;
     }
 
+    /**
+     * @return the tree types to build, every type for "all", otherwise the
+     *         comma separated list given as --type
+     */
+    public List<String> getTreeTypes() {
+        if (treeType.equals("all")) {
+            return SSHFileReader.TREE_TYPES;
+        }
+        return Arrays.asList(treeType.split(","));
+    }
+
     public int getCacheSize() {
         return cacheSize;
     }
@@ -63,6 +278,58 @@ public class SSHCreateBTreeArguments
         return debugLevel;
     }
 
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    public boolean isBulkLoad() {
+        return bulkLoad;
+    }
+
+    public int getBufferPoolFrames() {
+        return bufferPoolFrames;
+    }
+
+    public boolean isMaxCounts() {
+        return maxCounts;
+    }
+
+    public boolean isSubtreeSizes() {
+        return subtreeSizes;
+    }
+
+    public boolean isBPlusTree() {
+        return bPlusTree;
+    }
+
+    public boolean isDatabase() {
+        return database;
+    }
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    public boolean isRawSSHFile() {
+        return rawSSHFile;
+    }
+
+    public CachePolicy getCachePolicy() {
+        return cachePolicy;
+    }
+
+    public int getPageCacheMB() {
+        return pageCacheMB;
+    }
+
     @Override
     public String toString()
     {
@@ -73,6 +340,19 @@ public class SSHCreateBTreeArguments
                 ", TreeType=" + treeType +
                 ", cacheSize=" + cacheSize +
                 ", debugLevel=" + debugLevel +
+                ", memoryMapped=" + memoryMapped +
+                ", bulkLoad=" + bulkLoad +
+                ", bufferPoolFrames=" + bufferPoolFrames +
+                ", maxCounts=" + maxCounts +
+                ", subtreeSizes=" + subtreeSizes +
+                ", bPlusTree=" + bPlusTree +
+                ", database=" + database +
+                ", parallel=" + parallel +
+                ", shards=" + shards +
+                ", parseThreads=" + parseThreads +
+                ", rawSSHFile=" + rawSSHFile +
+                ", cachePolicy=" + cachePolicy.getName() +
+                ", pageCacheMB=" + pageCacheMB +
                 '}';
     }
 }
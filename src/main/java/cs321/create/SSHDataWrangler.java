@@ -1,8 +1,19 @@
 package cs321.create;
 
 import java.io.File;
-import java.io.FileWriter;
-import java.util.Scanner;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import cs321.common.ParseArgumentException;
 
@@ -10,22 +21,69 @@ import cs321.common.ParseArgumentException;
 /**
  * The driver class for wrangling a raw SSH log file into a useful form.
  *
+ * Every line is rewritten like these three replacements, one after the other:
+ * <pre>
+ * line.replaceAll("(?i)---|\\bpm\\b|\\bSSHD\\b|\\bpassword\\b|\\bfrom and for\\b|\\binvalid user\\b|\\buser\\b|"
+ *         + "\\bfailed - POSSIBLE BREAK-IN ATTEMPT!\\b|\\bmapping\\b|\\bmaps to\\b|\\bchecking getaddrinfo\\b|-", "")
+ *     .replaceAll("(?i)Lab-id:[\\[a-j]*]", "")
+ *     .replaceAll("(?i)Failed id.*", "").trim()
+ * </pre>
+ * The keywords are found by a matcher written for them in one pass over the
+ * line, without a regex. The Lab-id pattern cannot match anymore once every
+ * '-' is gone, and "Failed id" is looked for in the output as it is written,
+ * which ends the line. As for \b in the regexes, letters, digits and '_' are
+ * word characters, and as for (?i) case is ignored for ASCII only.
+ *
+ * The file is read and written in blocks of whole lines. With threads=n the
+ * blocks are rewritten by n threads while the next blocks are read, and are
+ * written in file order. wrangle(InputStream) rewrites a raw log while it is
+ * read, for programs that take the keys of the wrangled log without writing it.
+ *
  * @author 
  */
 public class SSHDataWrangler {
 
 	private static String rawSSHFile = null;
 	private static String SSHFile = null;
+	private static int threads = 1;
+
+    /**
+     * Characters read and rewritten at a time.
+     */
+    static final int BLOCK_SIZE = 1 << 20;
+
+    /**
+     * Keywords removed from a line, lower case, in the order the regex tries them.
+     */
+    private static final char[][] KEYWORDS = {"---".toCharArray(), "pm".toCharArray(), "sshd".toCharArray(),
+            "password".toCharArray(), "from and for".toCharArray(), "invalid user".toCharArray(), "user".toCharArray(),
+            "failed - possible break-in attempt!".toCharArray(), "mapping".toCharArray(), "maps to".toCharArray(),
+            "checking getaddrinfo".toCharArray(), "-".toCharArray()};
+
+    /**
+     * Whether a keyword is only removed between word boundaries.
+     */
+    private static final boolean[] BOUNDED = {false, true, true, true, true, true, true, true, true, true, true, false};
+
+    /**
+     * Whether an ASCII character, in either case, starts a keyword.
+     */
+    private static final boolean[] STARTS_KEYWORD = new boolean[128];
+
+    static {
+        for (char[] keyword : KEYWORDS) {
+            STARTS_KEYWORD[keyword[0]] = true;
+            STARTS_KEYWORD[Character.toUpperCase(keyword[0])] = true;
+        }
+    }
 
-    private static final String KEYWORD_REGEX = "(?i)---|\\bpm\\b|\\bSSHD\\b|\\bpassword\\b|\\bfrom and for\\b|\\binvalid user\\b|\\buser\\b|\\bfailed - POSSIBLE BREAK-IN ATTEMPT!\\b|\\bmapping\\b|\\bmaps to\\b|\\bchecking getaddrinfo\\b|-";
-    private static final String LAB_ID_REGEX = "(?i)Lab-id:[\\[a-j]*]";
-    private static final String FAILED_ID_REGEX = "(?i)Failed id.*";
+    private static final char[] FAILED_ID = "failed id".toCharArray();
 
     /**
      * Main driver of program.
      * @param args
      */
-    public static void main(String[] args) throws Exception 
+    public static void main(String[] args) throws Exception
 	{
         parseArguments(args);
 
@@ -39,23 +97,307 @@ public class SSHDataWrangler {
             ssh.delete();
             ssh.createNewFile();
         }
-        
-        ssh.deleteOnExit();
 
-        Scanner scanner = new Scanner(rawSSH);
-        FileWriter writer = new FileWriter(ssh);
+        wrangle(rawSSH, ssh, threads);
+	}
 
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            line = line.replaceAll(KEYWORD_REGEX, "");
-            line = line.replaceAll(LAB_ID_REGEX, "");
-            line = line.replaceAll(FAILED_ID_REGEX, "").trim();
+    /**
+     * Wrangles a raw SSH log file into a new file.
+     *
+     * @param rawSSH the raw log
+     * @param ssh the wrangled log, overwritten if it exists
+     * @param threads number of threads that rewrite blocks of lines, 1 to rewrite them while reading
+     * @throws IOException if a file cannot be read or written
+     */
+    static void wrangle(File rawSSH, File ssh, int threads) throws IOException {
+        try (Reader in = new InputStreamReader(new FileInputStream(rawSSH));
+             Writer out = new OutputStreamWriter(new FileOutputStream(ssh))) {
+            if (threads <= 1) {
+                char[] wrangled = new char[BLOCK_SIZE + 1];
+                LineBlocks blocks = new LineBlocks(in);
+                while (blocks.next()) {
+                    if (wrangled.length < blocks.end + 1) {
+                        wrangled = new char[blocks.end + 1];
+                    }
+                    out.write(wrangled, 0, wrangleLines(blocks.buf, 0, blocks.end, wrangled));
+                }
+            } else {
+                wrangleInParallel(in, out, threads);
+            }
+        }
+    }
 
-            writer.write(line + "\n");
+    /**
+     * Wrangles a raw SSH log while it is read.
+     *
+     * @param raw the raw log, which is closed with the returned stream
+     * @return the wrangled log, one line per line of the raw log, each followed by '\n'
+     */
+    static InputStream wrangle(InputStream raw) {
+        return new WrangledInputStream(new InputStreamReader(raw));
+    }
+
+    /**
+     * Wrangles a block of lines at a time and hands out its bytes.
+     */
+    private static final class WrangledInputStream extends InputStream {
+
+        private final Reader in;
+        private final LineBlocks blocks;
+        private char[] wrangled = new char[BLOCK_SIZE + 1];
+        private byte[] bytes = new byte[0];
+        private int pos;
+
+        WrangledInputStream(Reader in) {
+            this.in = in;
+            blocks = new LineBlocks(in);
         }
-        scanner.close();
-        writer.close();
-	}
+
+        /**
+         * @return false if the log has no more bytes
+         */
+        private boolean fill() throws IOException {
+            while (pos == bytes.length) {
+                if (!blocks.next()) {
+                    return false;
+                }
+                if (wrangled.length < blocks.end + 1) {
+                    wrangled = new char[blocks.end + 1];
+                }
+                bytes = new String(wrangled, 0, wrangleLines(blocks.buf, 0, blocks.end, wrangled)).getBytes();
+                pos = 0;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return fill() ? bytes[pos++] & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            len = Math.min(len, bytes.length - pos);
+            System.arraycopy(bytes, pos, b, off, len);
+            pos += len;
+            return len;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads blocks of lines and rewrites them on a pool of threads, keeping
+     * at most two blocks per thread in memory.
+     */
+    private static void wrangleInParallel(Reader in, Writer out, int threads) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        ArrayDeque<Future<char[]>> pending = new ArrayDeque<>();
+        try {
+            LineBlocks blocks = new LineBlocks(in);
+            while (blocks.next()) {
+                char[] block = Arrays.copyOf(blocks.buf, blocks.end);
+                pending.add(pool.submit(() -> {
+                    char[] wrangled = new char[block.length + 1];
+                    return Arrays.copyOf(wrangled, wrangleLines(block, 0, block.length, wrangled));
+                }));
+                if (pending.size() >= 2 * threads) {
+                    out.write(pending.remove().get());
+                }
+            }
+            while (!pending.isEmpty()) {
+                out.write(pending.remove().get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while wrangling", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Cannot wrangle a block of lines", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Reads a file in blocks that end at a line end, or at the end of the file.
+     */
+    private static final class LineBlocks {
+
+        private final Reader in;
+        char[] buf = new char[BLOCK_SIZE];
+        int end;           // end of the current block
+        private int limit; // end of the characters read so far
+        private boolean eof;
+
+        LineBlocks(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Moves to the next block; its lines are buf[0, end).
+         *
+         * @return false at the end of the file
+         */
+        boolean next() throws IOException {
+            // Keep the part of a line left behind the previous block
+            System.arraycopy(buf, end, buf, 0, limit - end);
+            limit -= end;
+            end = 0;
+            while (true) {
+                if (eof) {
+                    end = limit;
+                    return end > 0;
+                }
+                if (limit == buf.length) {
+                    buf = Arrays.copyOf(buf, buf.length * 2);
+                }
+                int n = in.read(buf, limit, buf.length - limit);
+                if (n < 0) {
+                    eof = true;
+                    continue;
+                }
+                limit += n;
+                if (limit == buf.length) {
+                    // A '\r' at the very end may be followed by a '\n', so it does not end a block
+                    for (int i = limit - 2; i >= 0; i--) {
+                        if (isLineEnd(buf[i])) {
+                            end = buf[i] == '\r' && buf[i + 1] == '\n' ? i + 2 : i + 1;
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if c ends a line, like it does for Scanner.nextLine
+     */
+    private static boolean isLineEnd(char c) {
+        return c == '\n' || c == '\r' || c == '\u2028' || c == '\u2029' || c == '\u0085';
+    }
+
+    /**
+     * Wrangles the lines of in[from, to) and writes each one followed by '\n'
+     * to out, which must hold to - from + 1 characters.
+     *
+     * @return the number of characters written
+     */
+    static int wrangleLines(char[] in, int from, int to, char[] out) {
+        int n = 0;
+        int start = from;
+        while (start < to) {
+            int end = start;
+            while (end < to && !isLineEnd(in[end])) {
+                end++;
+            }
+            n = wrangleLine(in, start, end, out, n);
+            out[n++] = '\n';
+            start = end < to && in[end] == '\r' && end + 1 < to && in[end + 1] == '\n' ? end + 2 : end + 1;
+        }
+        return n;
+    }
+
+    /**
+     * Wrangles one line.
+     *
+     * @param line a line of the raw log
+     * @return the line as it is written to the wrangled log
+     */
+    static String wrangle(String line) {
+        char[] out = new char[line.length()];
+        return new String(out, 0, wrangleLine(line.toCharArray(), 0, line.length(), out, 0));
+    }
+
+    /**
+     * Wrangles the line in[start, end) into out from position n on.
+     *
+     * @return the end of the wrangled line in out
+     */
+    private static int wrangleLine(char[] in, int start, int end, char[] out, int n) {
+        int lineStart = n;
+        int i = start;
+        scan:
+        while (i < end) {
+            char c = in[i];
+            if (c < 128 && STARTS_KEYWORD[c]) {
+                for (int k = 0; k < KEYWORDS.length; k++) {
+                    int len = matchKeyword(in, start, end, i, k);
+                    if (len > 0) {
+                        i += len;
+                        continue scan;
+                    }
+                }
+            }
+            out[n++] = c;
+            i++;
+            if (n - lineStart >= FAILED_ID.length && (c == 'd' || c == 'D')
+                    && regionMatches(out, n - FAILED_ID.length, FAILED_ID)) {
+                // "Failed id" removes the rest of the line
+                n -= FAILED_ID.length;
+                break;
+            }
+        }
+
+        // trim()
+        int from = lineStart;
+        while (from < n && out[from] <= ' ') {
+            from++;
+        }
+        while (n > from && out[n - 1] <= ' ') {
+            n--;
+        }
+        if (from > lineStart) {
+            System.arraycopy(out, from, out, lineStart, n - from);
+            n -= from - lineStart;
+        }
+        return n;
+    }
+
+    /**
+     * @return the length of keyword k if it matches line[i, ...) within the line [start, end), else 0
+     */
+    private static int matchKeyword(char[] line, int start, int end, int i, int k) {
+        char[] keyword = KEYWORDS[k];
+        int len = keyword.length;
+        if (i + len > end || !regionMatches(line, i, keyword)) {
+            return 0;
+        }
+        if (BOUNDED[k]) {
+            boolean before = i > start && isWord(line[i - 1]);
+            boolean after = i + len < end && isWord(line[i + len]);
+            if (before == isWord(keyword[0]) || after == isWord(keyword[len - 1])) {
+                return 0;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Compares chars[from, ...) to a lower case keyword, ignoring ASCII case.
+     */
+    private static boolean regionMatches(char[] chars, int from, char[] keyword) {
+        for (int j = 0; j < keyword.length; j++) {
+            char c = chars[from + j];
+            if (c != keyword[j] && (c < 'A' || c > 'Z' || c + ('a' - 'A') != keyword[j])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isWord(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
 
 
     /**
@@ -64,7 +406,7 @@ public class SSHDataWrangler {
      */
     public static void parseArguments(String[] args) throws ParseArgumentException
     {
-        if(args.length != 2) {
+        if(args.length != 2 && args.length != 3) {
             printUsageAndExit("Error: Invalid number of arguments.");
         }
 
@@ -73,6 +415,15 @@ public class SSHDataWrangler {
                 rawSSHFile = arg.substring("rawSSHFile=".length());
             } else if (arg.startsWith("sshFile=")) {
                 SSHFile = arg.substring("sshFile=".length());
+            } else if (arg.startsWith("threads=")) {
+                try {
+                    threads = Integer.parseInt(arg.substring("threads=".length()));
+                } catch (NumberFormatException e) {
+                    printUsageAndExit("Error: threads must be an integer.");
+                }
+                if (threads < 1) {
+                    printUsageAndExit("Error: threads must be at least 1.");
+                }
             } else {
                 printUsageAndExit("Error: Unknown argument: " + arg);
             }
@@ -84,14 +435,14 @@ public class SSHDataWrangler {
     }
 
 
-	/** 
+	/**
 	 * Print usage message and exit.
 	 * @param errorMessage the error message for proper usage
 	 */
 	private static void printUsageAndExit(String errorMessage)
     {
         System.err.println(errorMessage);
-        System.err.println("Usage: java SSHDataWrangler rawSSHFile=<rawSSHFile> sshFile=<wrangledSSHFile>");
+        System.err.println("Usage: java SSHDataWrangler rawSSHFile=<rawSSHFile> sshFile=<wrangledSSHFile> [threads=<n>]");
         System.exit(1);
 	}
 
@@ -1,85 +1,378 @@
 package cs321.create;
 
-import java.io.File;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Scanner;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Extracts the SSH log file entries.
  *
+ * entries() streams the keys of one tree type while the file is read, so
+ * only one line is held in memory at a time. The readEntries methods collect
+ * all keys in lists, or push them to a KeySink as they are parsed.
+ * countEntries memory maps the file and counts the keys of chunks of it on
+ * several threads. A raw log is wrangled by SSHDataWrangler as it is read,
+ * so its keys are found without writing the wrangled log first.
+ *
  * @author 
  */
-public class SSHFileReader {
+public class SSHFileReader implements Closeable {
+
+    /**
+     * Every tree type that can be built from an SSH log file.
+     */
+    public static final List<String> TREE_TYPES = Collections.unmodifiableList(Arrays.asList(
+            "accepted-ip", "accepted-time", "invalid-ip", "invalid-time", "failed-ip", "failed-time",
+            "reverseaddress-ip", "reverseaddress-time", "user-ip"));
 
     private final String fileName;
-    private final String[] treeType;
+    private final String treeType;
+    private final boolean raw;
+    private final List<EntryIterator> open = new ArrayList<>();
 
-    private static boolean isIPv4(String s) {
-        return s != null && s.matches("\\d{1,3}(?:\\.\\d{1,3}){3}");
+    public SSHFileReader(String sshFileName, String treeType) {
+        this(sshFileName, treeType, false);
     }
 
-    public SSHFileReader(String sshFileName, String treeType) {
+    /**
+     * @param sshFileName the SSH log file
+     * @param treeType the tree type whose keys entries() reads
+     * @param raw whether the file is a raw log that is wrangled as it is read
+     */
+    public SSHFileReader(String sshFileName, String treeType, boolean raw) {
         this.fileName = sshFileName;
-        this.treeType = treeType.split("-");
+        this.treeType = treeType;
+        this.raw = raw;
     }
 
+    /**
+     * Reads the keys of the tree type given to the constructor.
+     *
+     * @return one key per matching log line, in file order
+     */
     public List<String> readEntries() throws Exception {
         List<String> entries = new ArrayList<>();
-        File wrangledFile = new File(fileName);
-
-        try (Scanner scanner = new Scanner(wrangledFile)) {
-            while (scanner.hasNextLine()) {
-                String line = scanner.nextLine().trim();
-                if (line.isEmpty()) continue;
-
-                String[] t = line.split("\\s+");
-                if (t.length < 3) continue;
-
-                String action = t[2];
-                String kind   = treeType[0];
-                String mode   = treeType[1];
-
-                String hhmm = (t[1].length() >= 5) ? t[1].substring(0, 5) : t[1];
-
-                if ("ip".equals(mode)) {
-                    if ("user".equals(kind)) {
-                        if (!action.equalsIgnoreCase("reverse")
-                                && !action.equalsIgnoreCase("Address")
-                                && t.length >= 5
-                                && isIPv4(t[4])) {
-                            entries.add(t[3] + "-" + t[4]);
-                        }
-                    } else if ("reverseaddress".equals(kind)) {
-                        if (action.equalsIgnoreCase("reverse") || action.equalsIgnoreCase("Address")) {
-                            String ip = null;
-                            for (int i = 3; i < t.length; i++) {
-                                if (isIPv4(t[i])) { ip = t[i]; break; }
-                            }
-                            if (ip != null) {
-                                String prefix = action.equalsIgnoreCase("Address") ? "Address-" : "reverse-";
-                                entries.add(prefix + ip);
-                            }
-                        }
-                    } else {
-                        if (action.equalsIgnoreCase(kind) && t.length >= 5) {
-                            entries.add(action + "-" + t[4]);
-                        }
+        Iterator<String> keys = entries();
+        while (keys.hasNext()) {
+            entries.add(keys.next());
+        }
+        return entries;
+    }
+
+    /**
+     * Streams the keys of the tree type given to the constructor. Lines are
+     * read and parsed as the keys are taken, and the file is closed when the
+     * last key has been taken or when this reader is closed.
+     *
+     * @return an iterator over one key per matching log line, in file order;
+     *         it throws UncheckedIOException if the file cannot be read
+     * @throws IOException if the file cannot be opened
+     */
+    public Iterator<String> entries() throws IOException {
+        EntryIterator keys = new EntryIterator(treeType);
+        open.add(keys);
+        return keys;
+    }
+
+    /**
+     * Closes the files of the iterators returned by entries() that have not
+     * reached the end yet.
+     */
+    @Override
+    public void close() throws IOException {
+        for (EntryIterator keys : new ArrayList<>(open)) {
+            keys.close();
+        }
+    }
+
+    /**
+     * Reads the keys of several tree types in one pass over the file. Each
+     * line is split once and its keys are routed to every type it belongs to.
+     *
+     * @param treeTypes tree types such as "accepted-ip" or "user-ip"
+     * @return the keys of each type, one per matching log line in file order, in the order of treeTypes
+     */
+    public Map<String, List<String>> readEntries(List<String> treeTypes) throws Exception {
+        Map<String, List<String>> entries = new LinkedHashMap<>();
+        List<List<String>> lists = new ArrayList<>();
+        for (String type : treeTypes) {
+            List<String> list = new ArrayList<>();
+            lists.add(list);
+            entries.put(type, list);
+        }
+        readEntries(treeTypes, (type, key) -> lists.get(type).add(key));
+        return entries;
+    }
+
+    /**
+     * Receives the keys read by {@link #readEntries(List, KeySink)}.
+     */
+    interface KeySink {
+        /**
+         * @param type index of the tree type in the list given to readEntries
+         * @param key the key of one log line
+         */
+        void accept(int type, String key) throws InterruptedException;
+    }
+
+    /**
+     * Reads the keys of several tree types in one pass over the file and
+     * hands each key to the sink as soon as its line is parsed.
+     *
+     * @param treeTypes tree types such as "accepted-ip" or "user-ip"
+     * @param sink receives the keys in file order
+     */
+    void readEntries(List<String> treeTypes, KeySink sink) throws Exception {
+        SSHLineTokenizer.TreeType[] types = new SSHLineTokenizer.TreeType[treeTypes.size()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new SSHLineTokenizer.TreeType(treeTypes.get(i));
+        }
+
+        try (SSHLineTokenizer lines = new SSHLineTokenizer(open(new FileInputStream(fileName)))) {
+            while (lines.nextLine()) {
+                for (int i = 0; i < types.length; i++) {
+                    String key = lines.key(types[i]);
+                    if (key != null) {
+                        sink.accept(i, key);
                     }
-                } else if ("time".equals(mode)) {
-                    if ("reverseaddress".equals(kind)) {
-                        if (action.equalsIgnoreCase("reverse") || action.equalsIgnoreCase("Address")) {
-                            String prefix = action.equalsIgnoreCase("Address") ? "Address-" : "reverse-";
-                            entries.add(prefix + hhmm);
-                        }
-                    } else {
-                        if (action.equalsIgnoreCase(kind)) {
-                            entries.add(action + "-" + hhmm);
-                        }
+                }
+            }
+        }
+    }
+
+    /**
+     * Largest chunk countEntries maps at once; a mapping cannot exceed 2 GB.
+     */
+    static final long MAX_CHUNK = Integer.MAX_VALUE;
+
+    /**
+     * Counts the keys of several tree types with several threads. The file is
+     * memory mapped and cut into chunks at line ends, each chunk is counted on
+     * its own, and the counts of the chunks are added up at the end. Only the
+     * distinct keys are held in memory, not one key per line.
+     *
+     * @param treeTypes tree types such as "accepted-ip" or "user-ip"
+     * @param threads number of chunks counted at the same time
+     * @return how often each key was found, per type in the order of treeTypes
+     * @throws IOException if the file cannot be read
+     */
+    public Map<String, Map<String, Long>> countEntries(List<String> treeTypes, int threads) throws IOException {
+        return countEntries(treeTypes, threads, threads);
+    }
+
+    /**
+     * @param chunks the least number of chunks to cut the file into
+     * @see #countEntries(List, int)
+     */
+    Map<String, Map<String, Long>> countEntries(List<String> treeTypes, int threads, int chunks) throws IOException {
+        Map<String, Map<String, Long>> counts = new LinkedHashMap<>();
+        for (String type : treeTypes) {
+            counts.put(type, new HashMap<>());
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+            List<Future<List<Map<String, long[]>>>> parts = new ArrayList<>();
+            long[] bounds = chunkBounds(channel, chunks);
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                ByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, bounds[i], bounds[i + 1] - bounds[i]);
+                parts.add(pool.submit(() -> countChunk(treeTypes, open(new ByteBufferInputStream(chunk)))));
+            }
+
+            // Add up the counts of the chunks in file order
+            for (Future<List<Map<String, long[]>>> part : parts) {
+                List<Map<String, long[]>> partCounts = part.get();
+                for (int t = 0; t < treeTypes.size(); t++) {
+                    Map<String, Long> typeCounts = counts.get(treeTypes.get(t));
+                    for (Map.Entry<String, long[]> e : partCounts.get(t).entrySet()) {
+                        typeCounts.merge(e.getKey(), e.getValue()[0], Long::sum);
                     }
                 }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while counting " + fileName, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Cannot count the keys of " + fileName, cause);
+        } finally {
+            pool.shutdownNow();
+        }
+        return counts;
+    }
+
+    /**
+     * Cuts the file into at least the given number of chunks, none larger
+     * than MAX_CHUNK, that each start at the beginning of a line.
+     *
+     * @return the offset of each chunk followed by the file size
+     */
+    private static long[] chunkBounds(FileChannel channel, int chunks) throws IOException {
+        long size = channel.size();
+        chunks = (int) Math.max(chunks, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+        long[] bounds = new long[chunks + 1];
+        int n = 1;
+        ByteBuffer scan = ByteBuffer.allocate(4096);
+        for (int i = 1; i < chunks; i++) {
+            // Move the cut behind the line end at or after it
+            long cut = Math.max(size * i / chunks, bounds[n - 1]);
+            while (cut < size) {
+                scan.clear();
+                int read = channel.read(scan, cut);
+                if (read < 0) {
+                    cut = size;
+                    break;
+                }
+                int j = 0;
+                while (j < read && scan.get(j) != '\n' && scan.get(j) != '\r') {
+                    j++;
+                }
+                cut += j;
+                if (j < read) {
+                    cut++;
+                    break;
+                }
+            }
+            if (cut > bounds[n - 1] && cut < size) {
+                bounds[n++] = cut;
+            }
+        }
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+    /**
+     * Counts the keys of one chunk of the file.
+     *
+     * @return the counts of each tree type, in the order of treeTypes
+     */
+    private static List<Map<String, long[]>> countChunk(List<String> treeTypes, InputStream chunk) throws IOException {
+        SSHLineTokenizer.TreeType[] types = new SSHLineTokenizer.TreeType[treeTypes.size()];
+        List<Map<String, long[]>> counts = new ArrayList<>();
+        for (int i = 0; i < types.length; i++) {
+            types[i] = new SSHLineTokenizer.TreeType(treeTypes.get(i));
+            counts.add(new HashMap<>());
+        }
+
+        try (SSHLineTokenizer lines = new SSHLineTokenizer(chunk)) {
+            while (lines.nextLine()) {
+                for (int i = 0; i < types.length; i++) {
+                    String key = lines.key(types[i]);
+                    if (key != null) {
+                        counts.get(i).computeIfAbsent(key, k -> new long[1])[0]++;
+                    }
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param in the file, or a chunk of it that starts at a line
+     * @return the wrangled log read from in
+     */
+    private InputStream open(InputStream in) {
+        return raw ? SSHDataWrangler.wrangle(in) : in;
+    }
+
+    /**
+     * Reads a memory mapped chunk of the file as a stream.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            len = Math.min(len, buffer.remaining());
+            buffer.get(b, off, len);
+            return len;
+        }
+    }
+
+    /**
+     * Reads the file a line at a time and keeps the next key of one tree type.
+     */
+    private class EntryIterator implements Iterator<String>, Closeable {
+
+        private final SSHLineTokenizer.TreeType type;
+        private final SSHLineTokenizer lines;
+        private String next;
+        private boolean closed;
+
+        EntryIterator(String treeType) throws IOException {
+            type = new SSHLineTokenizer.TreeType(treeType);
+            lines = new SSHLineTokenizer(open(new FileInputStream(fileName)));
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !closed && lines.nextLine()) {
+                    next = lines.key(type);
+                }
+                if (next == null) {
+                    close();
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String key = next;
+            next = null;
+            return key;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                lines.close();
+                open.remove(this);
+            }
         }
-        return entries;
     }
 }
@@ -0,0 +1,324 @@
+package cs321.create;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a wrangled SSH log and derives the keys of the tree
+ * types from them.
+ *
+ * The input is read into one reusable byte buffer, and the fields of a line
+ * are only kept as offsets into it. A String is created for a key once a line
+ * is accepted for a tree type, and never for a line or a field. Fields are
+ * split at the same whitespace as split("\\s+") on the trimmed line, and
+ * IPv4 addresses are matched by a small state machine instead of a regex.
+ *
+ * Lines end at '\n' or '\r'. Keys are decoded as UTF-8; an action with
+ * bytes outside ASCII is compared through String.equalsIgnoreCase, so the
+ * keys are the same as those of the String based parser this replaces.
+ */
+final class SSHLineTokenizer implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private static final int USER = 0;
+    private static final int REVERSE_ADDRESS = 1;
+    private static final int ACTION = 2;
+
+    private static final int IP = 0;
+    private static final int TIME = 1;
+    private static final int NONE = 2;
+
+    /**
+     * A tree type, such as "accepted-ip", taken apart once so lines can be
+     * matched against it without comparing its name.
+     */
+    static final class TreeType {
+        final int kind;
+        final String action; // first part of the name, compared to the action of a line
+        final int mode;
+
+        TreeType(String treeType) {
+            String[] parts = treeType.split("-");
+            action = parts[0];
+            kind = "user".equals(action) ? USER : "reverseaddress".equals(action) ? REVERSE_ADDRESS : ACTION;
+            String mode = parts.length > 1 ? parts[1] : "";
+            this.mode = "ip".equals(mode) ? IP : "time".equals(mode) ? TIME : NONE;
+        }
+    }
+
+    private final InputStream in;
+    private byte[] buf = new byte[BUFFER_SIZE];
+    private int pos;   // start of the unread bytes
+    private int limit; // end of the bytes read so far
+    private boolean eof;
+
+    // Fields of the current line
+    private int fields;
+    private int[] starts = new int[8];
+    private int[] ends = new int[8];
+    private boolean reverse; // the action is "reverse", ignoring case
+    private boolean address; // the action is "Address", ignoring case
+
+    private byte[] key = new byte[128];
+
+    /**
+     * @param in the wrangled log, which is closed with the tokenizer
+     */
+    SSHLineTokenizer(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Moves to the next line that has at least three fields. The fields of
+     * the previous line are gone afterwards.
+     *
+     * @return false at the end of the input
+     * @throws IOException if the input cannot be read
+     */
+    boolean nextLine() throws IOException {
+        int scan = pos;
+        while (true) {
+            int end = -1;
+            for (int i = scan; i < limit; i++) {
+                byte b = buf[i];
+                if (b == '\n' || b == '\r') {
+                    end = i;
+                    break;
+                }
+            }
+            if (end < 0) {
+                if (!eof) {
+                    scan = limit - pos;
+                    fill();
+                    scan += pos;
+                    continue;
+                }
+                if (pos == limit) {
+                    return false;
+                }
+                end = limit;
+            }
+            int start = pos;
+            pos = end < limit ? end + 1 : end;
+            scan = pos;
+            if (split(start, end) >= 3) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Moves the unread bytes to the front of the buffer, doubling it if they
+     * fill it, and reads more input behind them.
+     */
+    private void fill() throws IOException {
+        int unread = limit - pos;
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, unread);
+            pos = 0;
+            limit = unread;
+        }
+        if (limit == buf.length) {
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    /**
+     * Splits buf[start, end) into fields like trim() followed by split("\\s+").
+     *
+     * @return the number of fields
+     */
+    private int split(int start, int end) {
+        while (start < end && (buf[start] & 0xFF) <= ' ') {
+            start++;
+        }
+        while (end > start && (buf[end - 1] & 0xFF) <= ' ') {
+            end--;
+        }
+        fields = 0;
+        int i = start;
+        while (i < end) {
+            if (fields == starts.length) {
+                starts = Arrays.copyOf(starts, fields * 2);
+                ends = Arrays.copyOf(ends, fields * 2);
+            }
+            starts[fields] = i;
+            while (i < end && !isSpace(buf[i])) {
+                i++;
+            }
+            ends[fields++] = i;
+            while (i < end && isSpace(buf[i])) {
+                i++;
+            }
+        }
+        if (fields >= 3) {
+            reverse = equalsIgnoreCase(2, "reverse");
+            address = equalsIgnoreCase(2, "Address");
+        }
+        return fields;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+    }
+
+    /**
+     * Derives the key the current line contributes to a tree type.
+     *
+     * @param type the tree type
+     * @return the key, or null if the line does not belong to the tree type
+     */
+    String key(TreeType type) {
+        if (type.mode == IP) {
+            if (type.kind == USER) {
+                if (!reverse && !address && fields >= 5 && isIPv4(4)) {
+                    return key(putField(putDash(putField(0, 3)), 4));
+                }
+            } else if (type.kind == REVERSE_ADDRESS) {
+                if (reverse || address) {
+                    for (int i = 3; i < fields; i++) {
+                        if (isIPv4(i)) {
+                            return key(putField(putDash(putText(0, address ? "Address" : "reverse")), i));
+                        }
+                    }
+                }
+            } else if (fields >= 5 && equalsIgnoreCase(2, type.action)) {
+                return key(putField(putDash(putField(0, 2)), 4));
+            }
+        } else if (type.mode == TIME) {
+            if (type.kind == REVERSE_ADDRESS) {
+                if (reverse || address) {
+                    return keyWithTime(putDash(putText(0, address ? "Address" : "reverse")));
+                }
+            } else if (equalsIgnoreCase(2, type.action)) {
+                return keyWithTime(putDash(putField(0, 2)));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the text of a field of the current line
+     */
+    private String field(int f) {
+        return new String(buf, starts[f], ends[f] - starts[f], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param n length of the key built so far
+     * @return the key built so far followed by the first five characters of the time field
+     */
+    private String keyWithTime(int n) {
+        int s = starts[1];
+        int len = Math.min(ends[1] - s, 5);
+        for (int j = 0; j < len; j++) {
+            if (buf[s + j] < 0) {
+                // Count characters, not bytes
+                String time = field(1);
+                return key(n) + (time.length() >= 5 ? time.substring(0, 5) : time);
+            }
+        }
+        ensureKey(n + len);
+        System.arraycopy(buf, s, key, n, len);
+        return key(n + len);
+    }
+
+    private String key(int n) {
+        return new String(key, 0, n, StandardCharsets.UTF_8);
+    }
+
+    private int putField(int n, int f) {
+        int len = ends[f] - starts[f];
+        ensureKey(n + len);
+        System.arraycopy(buf, starts[f], key, n, len);
+        return n + len;
+    }
+
+    private int putText(int n, String ascii) {
+        ensureKey(n + ascii.length());
+        for (int j = 0; j < ascii.length(); j++) {
+            key[n + j] = (byte) ascii.charAt(j);
+        }
+        return n + ascii.length();
+    }
+
+    private int putDash(int n) {
+        ensureKey(n + 1);
+        key[n] = '-';
+        return n + 1;
+    }
+
+    private void ensureKey(int size) {
+        if (size > key.length) {
+            key = Arrays.copyOf(key, Math.max(size, key.length * 2));
+        }
+    }
+
+    /**
+     * @return true if field f matches \d{1,3}(\.\d{1,3}){3}
+     */
+    private boolean isIPv4(int f) {
+        int digits = 0;
+        int dots = 0;
+        for (int j = starts[f]; j < ends[f]; j++) {
+            byte b = buf[j];
+            if (b >= '0' && b <= '9') {
+                if (++digits > 3) {
+                    return false;
+                }
+            } else if (b == '.') {
+                if (digits == 0 || ++dots > 3) {
+                    return false;
+                }
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        return dots == 3 && digits > 0;
+    }
+
+    /**
+     * Compares field f to s like String.equalsIgnoreCase, without decoding
+     * the field unless it has bytes outside ASCII.
+     */
+    private boolean equalsIgnoreCase(int f, String s) {
+        int start = starts[f];
+        int len = ends[f] - start;
+        for (int j = 0; j < len; j++) {
+            if (buf[start + j] < 0) {
+                return field(f).equalsIgnoreCase(s);
+            }
+        }
+        if (len != s.length()) {
+            return false;
+        }
+        for (int j = 0; j < len; j++) {
+            int a = buf[start + j];
+            int b = s.charAt(j);
+            if (a != b && toLower(a) != toLower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(int c) {
+        return c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
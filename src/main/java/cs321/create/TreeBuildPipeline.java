@@ -0,0 +1,246 @@
+package cs321.create;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Builds several trees at once. One parser thread reads the log file and
+ * routes the keys of each tree type to a bounded queue, a writer thread per
+ * tree type takes the keys from its queue and builds the tree with
+ * SSHCreateBTree.createBTree.
+ *
+ * Keys travel in batches so the threads do not meet on the queue locks for
+ * every key. A full queue blocks the parser until its writer catches up, so
+ * the memory in use stays bounded and the build takes about as long as the
+ * largest tree. The time the parser spent blocked on each queue and the time
+ * each writer spent waiting for keys are kept for the report.
+ */
+class TreeBuildPipeline {
+
+    /**
+     * Keys per batch handed from the parser to a writer.
+     */
+    static final int BATCH_SIZE = 1024;
+
+    /**
+     * Batches a queue holds before the parser has to wait for its writer.
+     */
+    static final int QUEUE_CAPACITY = 64;
+
+    private static final List<String> END = Collections.emptyList();
+
+    private final SSHCreateBTreeArguments args;
+    private final List<String> treeTypes;
+    private final List<Writer> writers = new ArrayList<>();
+    private long parseNanos;
+    private long totalNanos;
+
+    /**
+     * @param args the command line arguments
+     * @param treeTypes the tree types to build, one writer thread each
+     */
+    TreeBuildPipeline(SSHCreateBTreeArguments args, List<String> treeTypes) {
+        this.args = args;
+        this.treeTypes = treeTypes;
+    }
+
+    /**
+     * Reads the log file on the calling thread and builds every tree on its
+     * own thread. Returns when all trees are closed.
+     *
+     * @param reader reader of the log file
+     * @throws Exception the first error of the parser or of a writer
+     */
+    void run(SSHFileReader reader) throws Exception {
+        long start = System.nanoTime();
+        for (String type : treeTypes) {
+            Writer writer = new Writer(type);
+            writers.add(writer);
+            writer.thread.start();
+        }
+
+        Throwable failure = null;
+        boolean interrupted = false;
+        try {
+            reader.readEntries(treeTypes, (type, key) -> writers.get(type).add(key));
+        } catch (Throwable e) {
+            failure = e;
+        } finally {
+            parseNanos = System.nanoTime() - start;
+            // Every writer has to get END, or it would wait for keys forever
+            for (Writer writer : writers) {
+                try {
+                    writer.finish();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        for (Writer writer : writers) {
+            writer.thread.join();
+            if (failure == null && writer.failure != null) {
+                failure = writer.failure;
+            }
+        }
+        totalNanos = System.nanoTime() - start;
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof Exception) {
+            throw (Exception) failure;
+        }
+        if (failure != null) {
+            throw new IllegalStateException(failure);
+        }
+    }
+
+    /**
+     * Prints the keys of every tree, the time its writer was busy and its
+     * throughput while busy, the time it waited for keys, and how often and
+     * how long the parser was held up by its full queue.
+     *
+     * @param out where the report goes
+     */
+    void printReport(PrintStream out) {
+        out.printf("%-20s %10s %9s %11s %9s %8s %10s%n",
+                "tree", "keys", "busy(s)", "keys/s", "idle(s)", "blocked", "blocked(s)");
+        for (Writer w : writers) {
+            double seconds = (w.buildNanos - w.idleNanos) / 1e9;
+            out.printf("%-20s %10d %9.2f %11.0f %9.2f %8d %10.2f%n",
+                    w.treeType, w.keys, seconds, seconds > 0 ? w.keys / seconds : 0,
+                    w.idleNanos / 1e9, w.blockedBatches, w.blockedNanos / 1e9);
+        }
+        out.printf("parsed in %.2f s, all trees built in %.2f s%n", parseNanos / 1e9, totalNanos / 1e9);
+    }
+
+    /**
+     * The queue and the thread building one tree. add and finish are called
+     * by the parser, everything else runs on the writer thread.
+     */
+    private class Writer implements Iterator<String> {
+
+        final String treeType;
+        final Thread thread;
+        private final BlockingQueue<List<String>> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        // parser side
+        private List<String> batch = new ArrayList<>(BATCH_SIZE);
+        long blockedBatches;
+        long blockedNanos;
+
+        // writer side
+        private List<String> current = new ArrayList<>();
+        private int next;
+        private boolean ended;
+        long keys;
+        long idleNanos;
+        long buildNanos;
+        volatile Throwable failure;
+
+        Writer(String treeType) {
+            this.treeType = treeType;
+            this.thread = new Thread(this::build, "build-" + treeType);
+        }
+
+        void add(String key) throws InterruptedException {
+            batch.add(key);
+            if (batch.size() == BATCH_SIZE) {
+                put(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+
+        /**
+         * Hands the last batch and END to the writer. END is handed over even
+         * if the parser is interrupted while it waits for the last batch.
+         */
+        void finish() throws InterruptedException {
+            try {
+                if (!batch.isEmpty()) {
+                    put(batch);
+                }
+            } finally {
+                // The writer keeps taking batches until END, so this put returns
+                boolean interrupted = false;
+                while (true) {
+                    try {
+                        queue.put(END);
+                        break;
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        private void put(List<String> keys) throws InterruptedException {
+            if (!queue.offer(keys)) {
+                long start = System.nanoTime();
+                queue.put(keys);
+                blockedBatches++;
+                blockedNanos += System.nanoTime() - start;
+            }
+        }
+
+        private void build() {
+            long start = System.nanoTime();
+            try {
+                SSHCreateBTree.createBTree(args, treeType, SSHCreateBTree.treeObjects(this));
+            } catch (Throwable e) {
+                // Errors too, such as OutOfMemoryError, so the parser still finishes
+                failure = e;
+            } finally {
+                // Keep taking keys after a failure, or the parser would block on a full queue
+                while (hasNext()) {
+                    next();
+                }
+                buildNanos = System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next == current.size()) {
+                if (ended) {
+                    return false;
+                }
+                long start = System.nanoTime();
+                try {
+                    current = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while building " + treeType, e);
+                }
+                idleNanos += System.nanoTime() - start;
+                next = 0;
+                ended = current == END;
+            }
+            return true;
+        }
+
+        @Override
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            keys++;
+            return current.get(next++);
+        }
+    }
+}
@@ -1,7 +1,11 @@
 package cs321.search;
 
 import cs321.btree.BTree;
+import cs321.btree.BTreeFactory;
+import cs321.btree.BTreeInterface;
+import cs321.btree.BTreeOptions;
 import cs321.btree.TreeObject;
+import cs321.cache.CachePolicy;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
@@ -11,6 +15,12 @@ import java.util.*;
 /**
  * Searches a  B-Tree for keys listed in a query file and prints to stdout
  *
+ * Besides single keys, a query line can ask for every key with a prefix
+ * ("Failed-11:*") or every key in a range ("range:Accepted-10..Accepted-20"),
+ * see SearchQuery.
+ *
+ * With --top-frequency and no query file the most frequent keys of the whole
+ * tree are printed, see BTree.topFrequent. B+Tree files are searched the same way.
  */
 public class SSHSearchBTree {
 	public static void main(String[] args) {
@@ -27,44 +37,90 @@ public class SSHSearchBTree {
 			System.err.println(a.toString());
 		}
 
-		 final BTree tree;
+		 final BTreeInterface tree;
 		try {
-			if (a.isUseCache() && a.getCacheSize() > 0) {
-				tree = new BTree(a.getDegree(), a.getBtreeFile(), true, a.getCacheSize());
-			} else {
-				tree = new BTree(a.getDegree(), a.getBtreeFile());
-			}
+			BTreeOptions options = new BTreeOptions()
+					.cache(a.isUseCache() ? a.getCacheSize() : 0)
+					.cachePolicy(a.getCachePolicy())
+					.concurrentCache(a.getThreads() > 1)
+					.pinnedLevels(a.getPinLevels())
+					.pinnedBytes(a.getPinBytes())
+					.pageCache((long) a.getPageCacheMB() << 20)
+					.memoryMapped(a.isMemoryMapped())
+					.readOnly(true);
+			tree = BTreeFactory.open(a.getDegree(), a.getBtreeFile(), options);
 		} catch (Exception e) {
 			System.err.println("Error opening BTree file: " + e.getMessage());
 			return;
 		}
 
-		 final List<String> keys = new ArrayList<>();
+		if (a.getQueryFile() == null) {
+			for (TreeObject top : tree.topFrequent(a.getTopFrequencyCount())) {
+				System.out.println(top.getKey() + " " + top.getCount());
+			}
+			printCacheStats(a, tree);
+			try {
+				tree.close();
+			} catch (IOException e) {
+				System.err.println("Error closing BTree file: " + e.getMessage());
+			}
+			return;
+		}
+
+		 final List<SearchQuery> queries = new ArrayList<>();
 		try (BufferedReader br = new BufferedReader(new FileReader(a.getQueryFile()))) {
 			String line;
 			while ((line = br.readLine()) != null) {
 				String k = line.trim();
-				if (!k.isEmpty()) keys.add(k);
+				if (!k.isEmpty()) queries.add(SearchQuery.parse(k));
 			}
 		} catch (IOException e) {
 			System.err.println("Error reading query file: " + e.getMessage());
 			return;
 		}
 
-		final Map<String, Long> freq = new HashMap<>(Math.max(16, keys.size()));
-		for (String k : keys) {
-			long c = 0;
+		// Each worker searches one contiguous part of the queries, so the
+		// results can be printed in the original order afterwards
+		final long[] counts = new long[queries.size()];
+		final long[] sums = new long[queries.size()];
+		final List<List<TreeObject>> matches = new ArrayList<>(Collections.nCopies(queries.size(), (List<TreeObject>) null));
+		int threads = Math.max(1, Math.min(a.getThreads(), queries.size()));
+		if (threads == 1) {
+			searchRange(tree, queries, counts, sums, matches, 0, queries.size());
+		} else {
+			Thread[] workers = new Thread[threads];
+			for (int t = 0; t < threads; t++) {
+				final int from = (int) ((long) queries.size() * t / threads);
+				final int to = (int) ((long) queries.size() * (t + 1) / threads);
+				workers[t] = new Thread(() -> searchRange(tree, queries, counts, sums, matches, from, to), "search-" + t);
+				workers[t].start();
+			}
 			try {
-				String nk = normalizeKey(k);
-				TreeObject to = tree.search(nk);
-				if (to != null) c = to.getCount();
-			} catch (IOException e) {
-				System.err.println("Error searching key '" + k + "': " + e.getMessage());
+				for (Thread worker : workers) {
+					worker.join();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.err.println("Interrupted while searching");
+				return;
 			}
-			freq.put(k, c);
 		}
 
 		if (a.getTopFrequencyCount() > 0) {
+			final Map<String, Long> freq = new HashMap<>(Math.max(16, queries.size()));
+			for (int i = 0; i < queries.size(); i++) {
+				if (queries.get(i).kind == SearchQuery.Kind.COUNT) {
+					continue; // not a key
+				}
+				if (matches.get(i) == null) {
+					freq.put(queries.get(i).line, counts[i]);
+				} else {
+					for (TreeObject match : matches.get(i)) {
+						freq.put(match.getKey(), match.getCount());
+					}
+				}
+			}
+
 			int topN = a.getTopFrequencyCount();
 			List<Map.Entry<String, Long>> entries = new ArrayList<>(freq.entrySet());
 			entries.removeIf(e -> e.getValue() <= 0);
@@ -81,23 +137,96 @@ public class SSHSearchBTree {
 				printed++;
 			}
 		} else {
-			for (String k : keys) {
-				System.out.println(k + " " + freq.get(k));
+			for (int i = 0; i < queries.size(); i++) {
+				if (queries.get(i).kind == SearchQuery.Kind.COUNT) {
+					System.out.println(queries.get(i).line + " " + counts[i] + " " + sums[i]);
+				} else if (matches.get(i) == null) {
+					System.out.println(queries.get(i).line + " " + counts[i]);
+				} else {
+					for (TreeObject match : matches.get(i)) {
+						System.out.println(match.getKey() + " " + match.getCount());
+					}
+				}
 			}
 		}
 
+		printCacheStats(a, tree);
+		try {
+			tree.close();
+		} catch (IOException e) {
+			System.err.println("Error closing BTree file: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Prints the hits of the node and page caches and the size of the pinned
+	 * levels to stderr with --debug=1, so the policies can be compared on the
+	 * same queries.
+	 */
+	private static void printCacheStats(SSHSearchBTreeArguments a, BTreeInterface tree) {
+		if (a.getDebug() == 1 && (a.isUseCache() || a.getPinLevels() > 0 || a.getPinBytes() > 0 || a.getPageCacheMB() > 0) && tree instanceof BTree) {
+			((BTree) tree).printCacheStats(System.err);
+		}
+	}
+
+	/**
+	 * Runs the queries from index from (inclusive) to to (exclusive). The count
+	 * of a single key is stored in counts, the keys found by a prefix or range
+	 * query in matches, at the index of the query. A count query stores the
+	 * number of keys in counts and the sum of their counts in sums.
+	 */
+	private static void searchRange(BTreeInterface tree, List<SearchQuery> queries, long[] counts, long[] sums,
+									List<List<TreeObject>> matches, int from, int to) {
+		for (int i = from; i < to; i++) {
+			SearchQuery q = queries.get(i);
+			try {
+				switch (q.kind) {
+					case KEY:
+						counts[i] = tree.count(normalizeKey(q.key));
+						break;
+					case PREFIX:
+						matches.set(i, collect(tree.scanPrefix(normalizeKey(q.key))));
+						break;
+					case RANGE:
+						matches.set(i, collect(tree.scan(normalizeKey(q.key), normalizeKey(q.high))));
+						break;
+					case COUNT:
+						counts[i] = tree.rangeCount(normalizeKey(q.key), normalizeKey(q.high));
+						sums[i] = tree.rangeSum(normalizeKey(q.key), normalizeKey(q.high));
+						break;
+				}
+			} catch (IOException | RuntimeException e) {
+				System.err.println("Error searching '" + q.line + "': " + e.getMessage());
+			}
+		}
+	}
+
+	private static List<TreeObject> collect(Iterator<TreeObject> keys) {
+		List<TreeObject> list = new ArrayList<>();
+		while (keys.hasNext()) {
+			list.add(keys.next());
+		}
+		return list;
 	}
 
 	private static void printUsage() {
 		System.err.println("Usage:");
 		System.err.println("  java -jar SSHSearchBTree.jar \\");
-		System.err.println("    --btree-file=<path> --query-file=<path> --degree=<int> \\");
-		System.err.println("    [--cache=0|1] [--cache-size=<int>] [--debug=0|1] [--top-frequency=<int>]");
+		System.err.println("    --btree-file=<path> [--query-file=<path>] --degree=<int> \\");
+		System.err.println("    [--cache=0|1] [--cache-size=<int>] [--cache-policy=lru|clock|2q|arc|w-tinylfu] \\");
+		System.err.println("    [--debug=0|1] [--top-frequency=<int>] [--mmap=0|1] \\");
+		System.err.println("    [--threads=<int>] [--pin-levels=<int>] [--pin-bytes=<int>] [--page-cache-mb=<int>]");
+		System.err.println("  Query file lines: <key> | <prefix>* | range:<low>..<high> | count:<low>..<high>");
+		System.err.println("  Without --query-file, --top-frequency prints the most frequent keys of the tree");
 	}
 
 
-	private static  String normalizeKey(String s) {
-		if (s.length() > 32) {
+	/**
+	 * Truncates a key to the 32 characters a tree stores, leaving the open
+	 * bound of a range null.
+	 */
+	private static String normalizeKey(String s) {
+		if (s != null && s.length() > 32) {
 			return s.substring(0, 32);
 		}
 		return s;
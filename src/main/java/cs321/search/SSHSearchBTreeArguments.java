@@ -3,6 +3,8 @@ package cs321.search;
 import java.util.HashMap;
 import java.util.Map;
 
+import cs321.cache.CachePolicy;
+
 public class SSHSearchBTreeArguments {
     private final boolean useCache;
     private final int degree;
@@ -11,9 +13,21 @@ public class SSHSearchBTreeArguments {
     private final String btreeFile;
     private final String queryFile;
     private final int topFrequencyCount;
+    private final boolean memoryMapped;
+    private final int threads;
+    private final CachePolicy cachePolicy;
+    private final int pinLevels;
+    private final long pinBytes;
+    private final int pageCacheMB;
 
 
     public SSHSearchBTreeArguments(boolean useCache, int degree, int cacheSize, int debug, String btreeFile, String queryFile, int topFrequencyCount) {
+        this(useCache, degree, cacheSize, debug, btreeFile, queryFile, topFrequencyCount, false, 1, CachePolicy.LRU, 0, 0, 0);
+    }
+
+    public SSHSearchBTreeArguments(boolean useCache, int degree, int cacheSize, int debug, String btreeFile, String queryFile, int topFrequencyCount,
+                                   boolean memoryMapped, int threads, CachePolicy cachePolicy, int pinLevels, long pinBytes,
+                                   int pageCacheMB) {
         this.useCache = useCache;
         this.degree = degree;
         this.cacheSize = cacheSize;
@@ -21,6 +35,12 @@ public class SSHSearchBTreeArguments {
         this.btreeFile = btreeFile;
         this.queryFile = queryFile;
         this.topFrequencyCount = topFrequencyCount;
+        this.memoryMapped = memoryMapped;
+        this.threads = threads;
+        this.cachePolicy = cachePolicy;
+        this.pinLevels = pinLevels;
+        this.pinBytes = pinBytes;
+        this.pageCacheMB = pageCacheMB;
     }
 
     public boolean isUseCache() { return useCache; }
@@ -28,8 +48,18 @@ public class SSHSearchBTreeArguments {
     public int getCacheSize() { return cacheSize; }
     public int getDebug() { return debug; }
     public String getBtreeFile() { return btreeFile; }
+    /** @return the query file, or null to print the top keys of the whole tree */
     public String getQueryFile() { return queryFile; }
     public int getTopFrequencyCount() { return topFrequencyCount; }
+    public boolean isMemoryMapped() { return memoryMapped; }
+    public int getThreads() { return threads; }
+    public CachePolicy getCachePolicy() { return cachePolicy; }
+    /** @return the number of upper levels of the tree kept in memory, 0 for none */
+    public int getPinLevels() { return pinLevels; }
+    /** @return the memory the pinned upper nodes may use, 0 for no limit */
+    public long getPinBytes() { return pinBytes; }
+    /** @return the megabytes of raw pages cached off the heap, 0 for none */
+    public int getPageCacheMB() { return pageCacheMB; }
 
     public static SSHSearchBTreeArguments parse(String[] args) {
         Map<String, String> m = new HashMap<>();
@@ -47,7 +77,6 @@ public class SSHSearchBTreeArguments {
         String query = m.get("--query-file");
         String degreeStr = m.get("--degree");
         if (btree == null || btree.isEmpty()) throw new IllegalArgumentException("Missing --btree-file=<path>");
-        if (query == null || query.isEmpty()) throw new IllegalArgumentException("Missing --query-file=<path>");
         if (degreeStr == null) throw new IllegalArgumentException("Missing --degree=<int> (0 for default)");
 
         int degree;
@@ -66,6 +95,12 @@ public class SSHSearchBTreeArguments {
             catch (NumberFormatException e) { throw new IllegalArgumentException("--cache-size must be an integer"); }
         }
 
+        CachePolicy cachePolicy = CachePolicy.LRU;
+        if (m.containsKey("--cache-policy")) {
+            try { cachePolicy = CachePolicy.forName(m.get("--cache-policy")); }
+            catch (IllegalArgumentException e) { throw new IllegalArgumentException("--cache-policy must be lru, clock, 2q, arc or w-tinylfu"); }
+        }
+
         int debug = 0;
         if (m.containsKey("--debug")) {
             String d = m.get("--debug");
@@ -79,8 +114,49 @@ public class SSHSearchBTreeArguments {
             catch (NumberFormatException e) { throw new IllegalArgumentException("--top-frequency must be an integer"); }
             if (topN < 1) throw new IllegalArgumentException("--top-frequency must be >= 1");
         }
+        // Without a query file the top keys of the whole tree are printed
+        if ((query == null || query.isEmpty()) && topN < 1) {
+            throw new IllegalArgumentException("Missing --query-file=<path>");
+        }
+        if (query != null && query.isEmpty()) query = null;
+
+        boolean memoryMapped = false;
+        if (m.containsKey("--mmap")) {
+            String mm = m.get("--mmap");
+            if (!"0".equals(mm) && !"1".equals(mm)) throw new IllegalArgumentException("--mmap must be 0 or 1");
+            memoryMapped = "1".equals(mm);
+        }
+
+        int threads = 1;
+        if (m.containsKey("--threads")) {
+            try { threads = Integer.parseInt(m.get("--threads")); }
+            catch (NumberFormatException e) { throw new IllegalArgumentException("--threads must be an integer"); }
+            if (threads < 1) throw new IllegalArgumentException("--threads must be >= 1");
+        }
+
+        int pinLevels = 0;
+        if (m.containsKey("--pin-levels")) {
+            try { pinLevels = Integer.parseInt(m.get("--pin-levels")); }
+            catch (NumberFormatException e) { throw new IllegalArgumentException("--pin-levels must be an integer"); }
+            if (pinLevels < 0) throw new IllegalArgumentException("--pin-levels must be >= 0");
+        }
+
+        long pinBytes = 0;
+        if (m.containsKey("--pin-bytes")) {
+            try { pinBytes = Long.parseLong(m.get("--pin-bytes")); }
+            catch (NumberFormatException e) { throw new IllegalArgumentException("--pin-bytes must be an integer"); }
+            if (pinBytes < 0) throw new IllegalArgumentException("--pin-bytes must be >= 0");
+        }
+
+        int pageCacheMB = 0;
+        if (m.containsKey("--page-cache-mb")) {
+            try { pageCacheMB = Integer.parseInt(m.get("--page-cache-mb")); }
+            catch (NumberFormatException e) { throw new IllegalArgumentException("--page-cache-mb must be an integer"); }
+            if (pageCacheMB < 0) throw new IllegalArgumentException("--page-cache-mb must be >= 0");
+        }
 
-        return new SSHSearchBTreeArguments(useCache, degree, cacheSize, debug, btree, query, topN);
+        return new SSHSearchBTreeArguments(useCache, degree, cacheSize, debug, btree, query, topN, memoryMapped, threads, cachePolicy,
+                pinLevels, pinBytes, pageCacheMB);
     }
 
     @Override
@@ -93,6 +169,12 @@ public class SSHSearchBTreeArguments {
                 ", btreeFile='" + btreeFile + '\'' +
                 ", queryFile='" + queryFile + '\'' +
                 ", topFrequencyCount=" + topFrequencyCount +
+                ", memoryMapped=" + memoryMapped +
+                ", threads=" + threads +
+                ", cachePolicy=" + cachePolicy.getName() +
+                ", pinLevels=" + pinLevels +
+                ", pinBytes=" + pinBytes +
+                ", pageCacheMB=" + pageCacheMB +
                 '}';
     }
 }
@@ -0,0 +1,57 @@
+package cs321.search;
+
+/**
+ * One line of a query file for SSHSearchBTree.
+ *
+ * <pre>
+ * key          looks up a single key
+ * prefix*      lists every key that starts with prefix
+ * range:lo..hi lists every key from lo to hi, both inclusive
+ * count:lo..hi counts the keys from lo to hi and adds up their counts
+ * </pre>
+ *
+ * Either bound of a range can be left out, "range:lo.." runs to the last key.
+ * A line without the range: or count: form is a key or a prefix even if it
+ * holds "..", as keys such as "Reverse-185..92.1" may.
+ */
+class SearchQuery {
+
+    enum Kind { KEY, PREFIX, RANGE, COUNT }
+
+    private static final String RANGE_SEPARATOR = "..";
+    private static final String RANGE_PREFIX = "range:";
+    private static final String COUNT_PREFIX = "count:";
+
+    final Kind kind;
+    final String line;
+    final String key;  // the key, the prefix or the lower bound, null if open
+    final String high; // upper bound of a range, null if open
+
+    private SearchQuery(Kind kind, String line, String key, String high) {
+        this.kind = kind;
+        this.line = line;
+        this.key = key;
+        this.high = high;
+    }
+
+    /**
+     * @param line a trimmed, non empty line of the query file
+     * @return the query on the line
+     */
+    static SearchQuery parse(String line) {
+        boolean count = line.startsWith(COUNT_PREFIX);
+        if (count || line.startsWith(RANGE_PREFIX)) {
+            String bounds = line.substring(count ? COUNT_PREFIX.length() : RANGE_PREFIX.length());
+            int separator = bounds.indexOf(RANGE_SEPARATOR);
+            if (separator >= 0) {
+                String low = bounds.substring(0, separator).trim();
+                String high = bounds.substring(separator + RANGE_SEPARATOR.length()).trim();
+                return new SearchQuery(count ? Kind.COUNT : Kind.RANGE, line, low.isEmpty() ? null : low, high.isEmpty() ? null : high);
+            }
+        }
+        if (line.endsWith("*")) {
+            return new SearchQuery(Kind.PREFIX, line, line.substring(0, line.length() - 1), null);
+        }
+        return new SearchQuery(Kind.KEY, line, line, null);
+    }
+}
@@ -0,0 +1,184 @@
+package cs321.btree;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit testing for the B+Tree layout: inserts, searches, scans over the leaf
+ * chain, bulk loading and opening files through BTreeFactory.
+ */
+public class BPlusTreeTest {
+
+    /**
+     * Use the same filename for each time a tree is created.
+     */
+    private static String testFilename = "Test_BPlusTree.tmp";
+
+    /**
+     * Avoid some test errors if the test file failed to clean up
+     * in a previous run.
+     */
+    @BeforeClass
+    public static void beforeAll() {
+
+        deleteTestFile(testFilename);
+    }
+
+    /**
+     * After each test case, remove the test file.
+     */
+    @After
+    public void cleanUpTests() {
+
+        deleteTestFile(testFilename);
+    }
+
+    /**
+     * Inserts keys with duplicates in random order, then checks counts,
+     * scans and order statistics against a sorted map, before and after
+     * the tree is reopened.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testInsertSearchAndScan() throws IOException {
+
+        TreeMap<String, Long> expected = new TreeMap<>();
+        BPlusTree b = new BPlusTree(2, testFilename, new BTreeOptions());
+        for (int i = 0; i < 3000; i++) {
+            String key = "Accepted-" + (i * 7919 % 1000) + ":" + (i % 3);
+            b.insert(new TreeObject(key));
+            expected.merge(key, 1L, Long::sum);
+        }
+        assertTrue(b.getHeight() > 1);
+        assertEquals(expected.size(), b.getSize());
+        TreeAssertions.assertExpectedKeys(expected, b);
+        b.close();
+
+        BTreeInterface loaded = BTreeFactory.open(2, testFilename, new BTreeOptions().readOnly(true));
+        assertTrue(loaded instanceof BPlusTree);
+        TreeAssertions.assertExpectedKeys(expected, loaded);
+        assertNull(loaded.search("Accepted-"));
+        assertEquals(0, loaded.count("zzz"));
+        loaded.close();
+    }
+
+    /**
+     * A bulk loaded tree stores the leaves in key order one after the other
+     * and answers like an inserted one. Inserting afterwards splits the full
+     * leaves and keeps the chain intact.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testBulkLoadThenInsert() throws IOException {
+
+        TreeMap<String, Long> expected = new TreeMap<>();
+        for (int i = 0; i < 2000; i++) {
+            expected.put(String.format("Failed-%04d", i * 3), (long) (i % 17 + 1));
+        }
+        List<TreeObject> sorted = new ArrayList<>();
+        for (String key : expected.keySet()) {
+            sorted.add(new TreeObject(key, expected.get(key)));
+        }
+
+        BPlusTree b = new BPlusTree(3, testFilename, new BTreeOptions().memoryMapped(true));
+        b.bulkLoad(sorted);
+        TreeAssertions.assertExpectedKeys(expected, b);
+
+        for (int i = 0; i < 2000; i++) {
+            String key = String.format("Failed-%04d", i * 2);
+            b.insert(new TreeObject(key));
+            expected.merge(key, 1L, Long::sum);
+        }
+        TreeAssertions.assertExpectedKeys(expected, b);
+        b.close();
+
+        BTreeInterface loaded = BTreeFactory.open(3, testFilename, new BTreeOptions());
+        TreeAssertions.assertExpectedKeys(expected, loaded);
+        loaded.close();
+    }
+
+    /**
+     * Internal nodes are only limited by the bytes of their page, so a bulk
+     * loaded B+Tree is shallower than a BTree of the same degree, whose nodes
+     * have at most 2t children.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testInternalNodesHaveHigherFanout() throws IOException {
+
+        List<TreeObject> sorted = new ArrayList<>();
+        for (int i = 0; i < 20000; i++) {
+            sorted.add(new TreeObject(String.format("Failed-%05d", i * 3), 1));
+        }
+
+        BTree btree = new BTree(3, testFilename);
+        btree.bulkLoad(sorted);
+        int btreeHeight = btree.getHeight();
+        btree.close();
+        deleteTestFile(testFilename);
+
+        BPlusTree b = new BPlusTree(3, testFilename, new BTreeOptions());
+        b.bulkLoad(sorted);
+        assertTrue(b.getHeight() + " levels, BTree " + btreeHeight, b.getHeight() < btreeHeight);
+        b.close();
+    }
+
+    /**
+     * Separators are the shortest prefix of the right key that is greater
+     * than the left key.
+     */
+    @Test
+    public void testShortestSeparator() {
+
+        assertEquals("b", BPlusTree.shortestSeparator("abc", "bcd"));
+        assertEquals("root-2", BPlusTree.shortestSeparator("root-1.2.3.4", "root-2.3.4.5"));
+        assertEquals("ab", BPlusTree.shortestSeparator("a", "abc"));
+        assertEquals("x\uD83D\uDE00", BPlusTree.shortestSeparator("x", "x\uD83D\uDE00y"));
+    }
+
+    /**
+     * The factory creates the kind of tree the options ask for, and a BTree
+     * file is still opened as a BTree.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testFactoryPicksLayout() throws IOException {
+
+        BTreeInterface b = BTreeFactory.open(2, testFilename, new BTreeOptions().bPlusTree(true));
+        assertTrue(b instanceof BPlusTree);
+        b.insert(new TreeObject("a"));
+        b.close();
+        deleteTestFile(testFilename);
+
+        b = BTreeFactory.open(2, testFilename, new BTreeOptions());
+        assertTrue(b instanceof BTree);
+        b.insert(new TreeObject("a"));
+        b.close();
+
+        b = BTreeFactory.open(2, testFilename, new BTreeOptions().bPlusTree(true));
+        assertTrue(b instanceof BTree);
+        assertEquals(1, b.count("a"));
+        b.close();
+    }
+
+    private static void deleteTestFile(String filename) {
+        File file = new File(filename);
+        if (file.exists() && !file.isDirectory()) {
+            System.out.println("Deleting " + filename);
+            file.delete();
+        }
+    }
+}
@@ -1,11 +1,14 @@
 package cs321.btree;
 
+import cs321.cache.CachePolicy;
 import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.sql.Connection;
 import java.sql.DriverManager;
@@ -14,6 +17,10 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -50,6 +57,8 @@ public class BTreeTest {
     public void cleanUpTests() {
 
         deleteTestFile(testFilename);
+        deleteTestFile(testFilename + ".pool");
+        deleteTestFile(testFilename + ".plain");
     }
 
     // HINT:
@@ -508,6 +517,744 @@ public class BTreeTest {
         }
     }
 
+    /**
+     * Builds a BTree in memory mapped mode with a chunk size of a few nodes, so
+     * the file has to be mapped in several pieces, then reopens the file in the
+     * default mode and checks that every key and count was stored.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testMemoryMappedBTreePersistsToFile() throws IOException {
+
+        BTreeOptions options = new BTreeOptions().memoryMapped(true).mappedChunkSize(1024);
+        BTree mapped = new BTree(2, testFilename, options);
+
+        String[] input = new String[1000];
+        for (int i = 0; i < 1000; i++) {
+            input[i] = i + "";
+            mapped.insert(new TreeObject(i + ""));
+        }
+        mapped.insert(new TreeObject("500"));
+        long height = mapped.getHeight();
+        mapped.close();
+
+        BTree loaded = new BTree(2, testFilename);
+
+        assertEquals(1000, loaded.getSize());
+        assertEquals(height, loaded.getHeight());
+        assertEquals(2, loaded.search("500").getCount());
+        assertTrue(validateInserts(loaded, input));
+    }
+
+    /**
+     * Inserts keys with many duplicates through a small write-back buffer pool,
+     * so nodes are evicted and written back while the tree grows, and checks
+     * the tree both before and after it is closed and reopened.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testBufferPoolWritesBackOnClose() throws IOException {
+
+        BTree pooled = new BTree(2, testFilename, new BTreeOptions().bufferPool(8));
+
+        String[] input = new String[3000];
+        for (int i = 0; i < 3000; i++) {
+            input[i] = (i % 1000) + "";
+            pooled.insert(new TreeObject(input[i]));
+        }
+
+        assertEquals(1000, pooled.getSize());
+        assertEquals(3, pooled.search("999").getCount());
+        assertTrue(validateInserts(pooled, input));
+        pooled.close();
+
+        BTree loaded = new BTree(2, testFilename);
+
+        assertEquals(1000, loaded.getSize());
+        assertEquals(3, loaded.search("999").getCount());
+        assertEquals(3, loaded.search("0").getCount());
+        assertTrue(validateInserts(loaded, input));
+    }
+
+    /**
+     * Writes a file with the original fixed slot pages and checks that it can
+     * still be opened, searched and changed with the default options.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testFixedSlotFileStaysReadable() throws IOException {
+
+        BTree fixed = new BTree(10, testFilename, new BTreeOptions().fixedSlotFormat(true));
+
+        String[] input = new String[1000];
+        for (int i = 0; i < 1000; i++) {
+            input[i] = "Accepted-" + i;
+            fixed.insert(new TreeObject(input[i]));
+        }
+        fixed.close();
+        long fixedLength = new File(testFilename).length();
+
+        BTree loaded = new BTree(10, testFilename);
+
+        assertEquals(1000, loaded.getSize());
+        assertEquals(1, loaded.search("Accepted-999").getCount());
+        loaded.insert(new TreeObject("Accepted-999"));
+        assertEquals(2, loaded.search("Accepted-999").getCount());
+        assertTrue(validateInserts(loaded, input));
+        loaded.close();
+
+        // The same keys in slotted pages take much less space
+        deleteTestFile(testFilename);
+        BTree slotted = new BTree(10, testFilename);
+        for (String key : input) {
+            slotted.insert(new TreeObject(key));
+        }
+        slotted.close();
+        assertTrue(new File(testFilename).length() < fixedLength / 2);
+    }
+
+    /**
+     * Inserts keys long enough that nodes run out of page bytes before they
+     * reach 2t - 1 keys, then reopens the file and checks every key.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testSlottedPagesSplitLongKeys() throws IOException {
+
+        BTree b = new BTree(25, testFilename);
+
+        String[] input = new String[2000];
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 80; i++) {
+            padding.append('x');
+        }
+        for (int i = 0; i < 2000; i++) {
+            input[i] = padding + "-" + (i * 7919 % 2000);
+            b.insert(new TreeObject(input[i]));
+        }
+        b.close();
+
+        BTree loaded = new BTree(25, testFilename);
+
+        assertEquals(2000, loaded.getSize());
+        assertTrue(validateInserts(loaded, input));
+    }
+
+    /**
+     * Looks up keys straight from the page bytes of a reopened file, in both
+     * page formats, including keys whose UTF-8 byte order differs from the
+     * order of String.compareTo.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testCountReadsPageBytes() throws IOException {
+
+        String[] suffixes = {"", "\u00e9", "\u4e2d", "\ue000", "\uffee", "\ud83d\ude00", "\ud800\udc00"};
+        for (boolean fixedSlots : new boolean[]{false, true}) {
+            deleteTestFile(testFilename);
+            BTree b = new BTree(2, testFilename, new BTreeOptions().fixedSlotFormat(fixedSlots));
+            for (int i = 0; i < 500; i++) {
+                String key = "k" + i + suffixes[i % suffixes.length];
+                for (int j = 0; j <= i % 3; j++) {
+                    b.insert(new TreeObject(key));
+                }
+            }
+            for (String suffix : suffixes) {
+                b.insert(new TreeObject("u" + suffix));
+            }
+            b.close();
+
+            BTree loaded = new BTree(2, testFilename);
+            for (int i = 0; i < 500; i++) {
+                String key = "k" + i + suffixes[i % suffixes.length];
+                assertEquals(key, i % 3 + 1, loaded.count(key));
+                assertEquals(i % 3 + 1, loaded.search(key).getCount());
+                assertEquals(0, loaded.count(key + "x"));
+                assertNull(loaded.search("k" + i + "\ud83d"));
+            }
+            for (String suffix : suffixes) {
+                assertEquals(1, loaded.count("u" + suffix));
+            }
+            assertEquals(0, loaded.count(""));
+            assertEquals(0, loaded.count("zzz"));
+            loaded.close();
+        }
+    }
+
+    /**
+     * Duplicate inserts only rewrite the count of the key; checks that the
+     * counts are on disk after reopening, for both page formats and for
+     * memory mapped files.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testDuplicateCountsPersist() throws IOException {
+
+        BTreeOptions[] variants = {
+                new BTreeOptions(),
+                new BTreeOptions().fixedSlotFormat(true),
+                new BTreeOptions().memoryMapped(true)
+        };
+        for (BTreeOptions options : variants) {
+            deleteTestFile(testFilename);
+            BTree b = new BTree(3, testFilename, options);
+            for (int i = 0; i < 2000; i++) {
+                b.insert(new TreeObject("key" + (i % 50)));
+            }
+            b.close();
+
+            BTree loaded = new BTree(3, testFilename);
+            assertEquals(50, loaded.getSize());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(40, loaded.count("key" + i));
+            }
+            loaded.close();
+        }
+    }
+
+    /**
+     * With a checkpoint interval of 0 the metadata is only written by flush()
+     * and close(). The node count and height are stored in the metadata and
+     * match the tree after reopening.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testMetadataWrittenOnFlush() throws IOException {
+
+        BTree b = new BTree(2, testFilename, new BTreeOptions().checkpointInterval(0));
+        for (int i = 0; i < 100; i++) {
+            b.insert(new TreeObject(i + ""));
+        }
+
+        BTree before = new BTree(2, testFilename);
+        assertEquals(0, before.getSize());
+
+        b.flush();
+        BTree after = new BTree(2, testFilename);
+        assertEquals(100, after.getSize());
+
+        for (int i = 100; i < 1000; i++) {
+            b.insert(new TreeObject(i + ""));
+        }
+        long nodes = b.getNumberOfNodes();
+        int height = b.getHeight();
+        b.close();
+
+        BTree loaded = new BTree(2, testFilename);
+        assertEquals(1000, loaded.getSize());
+        assertEquals(nodes, loaded.getNumberOfNodes());
+        assertEquals(height, loaded.getHeight());
+        assertTrue(height > 3);
+    }
+
+    /**
+     * Searches a read-only tree from several threads at once, through the
+     * locked and the concurrent cache and through memory mapped pages, and
+     * checks every result.
+     *
+     * @throws Exception Exception thrown when testing fails
+     */
+    @Test
+    public void testReadOnlyConcurrentSearch() throws Exception {
+
+        BTree b = new BTree(2, testFilename);
+        for (int i = 0; i < 3000; i++) {
+            b.insert(new TreeObject("key" + (i % 1000)));
+        }
+        b.close();
+
+        BTreeOptions[] variants = {
+                new BTreeOptions().readOnly(true),
+                new BTreeOptions().readOnly(true).cache(100),
+                new BTreeOptions().readOnly(true).cache(100).concurrentCache(true),
+                new BTreeOptions().readOnly(true).cache(100).cachePolicy(CachePolicy.ARC).concurrentCache(true),
+                new BTreeOptions().readOnly(true).cache(10).concurrentCache(true).pageCache(64 * 4096),
+                new BTreeOptions().readOnly(true).memoryMapped(true).mappedChunkSize(4096)
+        };
+        for (BTreeOptions options : variants) {
+            BTree shared = new BTree(2, testFilename, options);
+            final int[] errors = new int[1];
+            Thread[] workers = new Thread[8];
+            for (int t = 0; t < workers.length; t++) {
+                final int offset = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < 5000; i++) {
+                            int k = (i * 7 + offset * 131) % 1200;
+                            long expected = k < 1000 ? 3 : 0;
+                            if (shared.count("key" + k) != expected) {
+                                synchronized (errors) {
+                                    errors[0]++;
+                                }
+                            }
+                        }
+                    } catch (IOException e) {
+                        synchronized (errors) {
+                            errors[0]++;
+                        }
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            assertEquals(0, errors[0]);
+            shared.close();
+        }
+    }
+
+    /**
+     * Lookups through pinned upper levels, cut by levels or by bytes, find
+     * the same counts as lookups through the nodes, also for missing keys and
+     * keys with characters above U+FFFF, and see inserts made after the
+     * levels were pinned.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testPinnedLevelsLookups() throws IOException {
+
+        HashMap<String, Long> counts = new HashMap<>();
+        List<String> probes = new ArrayList<>();
+        for (int i = 0; i < 1100; i++) {
+            probes.add("key" + i);
+            probes.add("key" + i + "\ud83d\ude00");
+            probes.add("key" + i + "\uffff");
+        }
+        probes.add("");
+        BTreeOptions[] variants = {
+                new BTreeOptions().pinnedLevels(1),
+                new BTreeOptions().pinnedLevels(3),
+                new BTreeOptions().pinnedLevels(100),
+                new BTreeOptions().pinnedBytes(1),
+                new BTreeOptions().pinnedBytes(4096),
+                new BTreeOptions().pinnedLevels(4).pinnedBytes(1 << 20).cache(50)
+        };
+        for (BTreeOptions options : variants) {
+            deleteTestFile(testFilename);
+            counts.clear();
+            BTree b = new BTree(2, testFilename);
+            for (int i = 0; i < 3000; i++) {
+                String key = "key" + (i * 7 % 1000) + (i % 3 == 0 ? "\ud83d\ude00" : "");
+                b.insert(new TreeObject(key));
+                counts.merge(key, 1L, Long::sum);
+            }
+            b.close();
+
+            BTree pinned = new BTree(2, testFilename, options);
+            for (String key : probes) {
+                assertEquals(key, (long) counts.getOrDefault(key, 0L), pinned.count(key));
+            }
+            pinned.insert(new TreeObject("key5"));
+            pinned.insert(new TreeObject("key1005"));
+            assertEquals(counts.get("key5") + 1, pinned.count("key5"));
+            assertEquals(1, pinned.count("key1005"));
+
+            ByteArrayOutputStream stats = new ByteArrayOutputStream();
+            pinned.printCacheStats(new PrintStream(stats));
+            assertTrue(stats.toString(), stats.toString().contains("Pinned "));
+            pinned.close();
+        }
+    }
+
+    /**
+     * Trees built and searched through an off-heap page cache, one that
+     * evicts pages all the time and one that holds the whole tree, under a
+     * node cache, a buffer pool or memory mapped pages, give every key its
+     * count before and after they are reopened.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testPageCache() throws IOException {
+
+        BTreeOptions[] variants = {
+                new BTreeOptions().pageCache(1),
+                new BTreeOptions().pageCache(5 * 4096),
+                new BTreeOptions().pageCache(3 * 4096).cache(2),
+                new BTreeOptions().pageCache(1 << 20).bufferPool(8),
+                new BTreeOptions().pageCache(1 << 20).memoryMapped(true).mappedChunkSize(4096)
+        };
+        for (BTreeOptions options : variants) {
+            deleteTestFile(testFilename);
+            HashMap<String, Long> counts = new HashMap<>();
+            BTree b = new BTree(2, testFilename, options);
+            for (int i = 0; i < 3000; i++) {
+                String key = "key" + (i * 7 % 1000);
+                b.insert(new TreeObject(key));
+                counts.merge(key, 1L, Long::sum);
+                if (i % 500 == 0) {
+                    assertEquals(key, (long) counts.get(key), b.count(key));
+                }
+            }
+            for (Map.Entry<String, Long> e : counts.entrySet()) {
+                assertEquals(e.getKey(), (long) e.getValue(), b.count(e.getKey()));
+            }
+            ByteArrayOutputStream stats = new ByteArrayOutputStream();
+            b.printCacheStats(new PrintStream(stats));
+            assertTrue(stats.toString(), stats.toString().contains("Off-heap page cache"));
+            b.close();
+
+            BTree reopened = new BTree(2, testFilename, new BTreeOptions().readOnly(true).pageCache(8 * 4096));
+            for (int round = 0; round < 2; round++) {
+                for (Map.Entry<String, Long> e : counts.entrySet()) {
+                    assertEquals(e.getKey(), (long) e.getValue(), reopened.count(e.getKey()));
+                }
+                assertEquals(0, reopened.count("key1000"));
+            }
+            assertEquals(counts.size(), reopened.getSortedKeyArray().length);
+            reopened.close();
+        }
+    }
+
+    /**
+     * A read-only tree cannot be changed.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testReadOnlyRejectsInsert() throws IOException {
+
+        new BTree(2, testFilename).close();
+        BTree b = new BTree(2, testFilename, new BTreeOptions().readOnly(true));
+        b.insert(new TreeObject("1"));
+    }
+
+    /**
+     * Scans ranges and prefixes of a reopened tree and compares them with the
+     * sorted keys.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testScanRangesAndPrefixes() throws IOException {
+
+        BTree empty = new BTree(2, testFilename);
+        assertFalse(empty.scan(null, null).hasNext());
+        assertFalse(empty.scanPrefix("a").hasNext());
+        empty.close();
+        deleteTestFile(testFilename);
+
+        BTree b = new BTree(3, testFilename);
+        for (int i = 0; i < 2000; i++) {
+            b.insert(new TreeObject(String.format("Failed-%02d:%02d", i % 24, i % 60)));
+        }
+        b.close();
+
+        BTree loaded = new BTree(3, testFilename);
+        String[] sorted = loaded.getSortedKeyArray();
+
+        assertArrayEquals(sorted, keysOf(loaded.scan(null, null)));
+
+        ArrayList<String> expected = new ArrayList<>();
+        for (String key : sorted) {
+            if (key.compareTo("Failed-03:30") >= 0 && key.compareTo("Failed-05:00") <= 0) {
+                expected.add(key);
+            }
+        }
+        assertArrayEquals(expected.toArray(new String[0]), keysOf(loaded.scan("Failed-03:30", "Failed-05:00")));
+
+        expected.clear();
+        for (String key : sorted) {
+            if (key.startsWith("Failed-11:")) {
+                expected.add(key);
+            }
+        }
+        assertFalse(expected.isEmpty());
+        assertArrayEquals(expected.toArray(new String[0]), keysOf(loaded.scanPrefix("Failed-11:")));
+
+        assertEquals(0, keysOf(loaded.scanPrefix("Accepted-")).length);
+        assertEquals(0, keysOf(loaded.scan("Failed-99", null)).length);
+        assertEquals(sorted[sorted.length - 1], keysOf(loaded.scan(sorted[sorted.length - 1], "z"))[0]);
+
+        TreeObject first = loaded.scan(null, null).next();
+        assertEquals(loaded.count(first.getKey()), first.getCount());
+    }
+
+    /**
+     * Top frequency searches with subtree max counts return the same keys as
+     * sorting every key, after inserts, after reopening and after a bulk load,
+     * and match the full scan used for trees without max counts.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testTopFrequentUsesMaxCounts() throws IOException {
+
+        BTreeOptions options = new BTreeOptions().maxCounts(true);
+        BTree b = new BTree(3, testFilename, options);
+        assertTrue(b.topFrequent(5).isEmpty());
+        for (int i = 0; i < 3000; i++) {
+            // Skewed counts, the key of i % 7 == 0 collects the most
+            b.insert(new TreeObject("key-" + (i % 7 == 0 ? i % 5 : i % 400)));
+        }
+        String[] expected = topOf(b, 25);
+        assertArrayEquals(expected, countsOf(b.topFrequent(25)));
+        b.close();
+
+        BTree loaded = new BTree(3, testFilename, new BTreeOptions().readOnly(true));
+        assertArrayEquals(expected, countsOf(loaded.topFrequent(25)));
+        assertEquals(loaded.getSize(), loaded.topFrequent(1000).size());
+        loaded.close();
+        deleteTestFile(testFilename);
+
+        BTree pooled = new BTree(3, testFilename, new BTreeOptions().maxCounts(true).bufferPool(4));
+        BTree plain = new BTree(3, testFilename + ".plain");
+        ArrayList<TreeObject> sorted = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            TreeObject key = new TreeObject("key-" + (i * 7919 % 500) % (1 + i % 50));
+            pooled.insert(key);
+            plain.insert(new TreeObject(key.getKey()));
+        }
+        assertArrayEquals(topOf(pooled, 10), countsOf(pooled.topFrequent(10)));
+        assertArrayEquals(countsOf(plain.topFrequent(10)), countsOf(pooled.topFrequent(10)));
+        Iterator<TreeObject> all = pooled.scan(null, null);
+        while (all.hasNext()) {
+            sorted.add(all.next());
+        }
+        pooled.close();
+        plain.close();
+        deleteTestFile(testFilename);
+        deleteTestFile(testFilename + ".plain");
+
+        BTree bulk = new BTree(3, testFilename, options);
+        bulk.bulkLoad(sorted);
+        assertArrayEquals(topOf(bulk, 10), countsOf(bulk.topFrequent(10)));
+        bulk.close();
+    }
+
+    /**
+     * rank, select, rangeCount and rangeSum read the subtree sizes of the
+     * pages and agree with counting the sorted keys, after inserts with and
+     * without a buffer pool, after reopening and after a bulk load. A tree
+     * without subtree sizes gives the same answers by scanning.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testOrderStatistics() throws IOException {
+
+        BTree empty = new BTree(2, testFilename, new BTreeOptions().subtreeSizes(true));
+        assertEquals(0, empty.rank("a"));
+        assertNull(empty.select(0));
+        assertEquals(0, empty.rangeSum(null, null));
+        empty.close();
+        deleteTestFile(testFilename);
+
+        BTree sized = new BTree(3, testFilename, new BTreeOptions().subtreeSizes(true).maxCounts(true));
+        BTree pooled = new BTree(3, testFilename + ".pool", new BTreeOptions().subtreeSizes(true).bufferPool(4));
+        BTree plain = new BTree(3, testFilename + ".plain");
+        for (int i = 0; i < 2000; i++) {
+            String key = String.format("Invalid-%02d:%02d", i * 37 % 24, i * 11 % 60);
+            sized.insert(new TreeObject(key));
+            pooled.insert(new TreeObject(key));
+            plain.insert(new TreeObject(key));
+        }
+        pooled.close();
+        sized.close();
+
+        ArrayList<TreeObject> sorted = new ArrayList<>();
+        Iterator<TreeObject> all = plain.scan(null, null);
+        while (all.hasNext()) {
+            sorted.add(all.next());
+        }
+        for (String name : new String[] {testFilename, testFilename + ".pool"}) {
+            BTree b = new BTree(3, name, new BTreeOptions().readOnly(true));
+            assertOrderStatistics(sorted, b);
+            assertOrderStatistics(sorted, plain);
+            b.close();
+        }
+        plain.close();
+        deleteTestFile(testFilename);
+        deleteTestFile(testFilename + ".pool");
+        deleteTestFile(testFilename + ".plain");
+
+        BTree bulk = new BTree(3, testFilename, new BTreeOptions().subtreeSizes(true));
+        bulk.bulkLoad(sorted);
+        assertOrderStatistics(sorted, bulk);
+        bulk.close();
+    }
+
+    /**
+     * Inserting a key with a count adds the count to the key, so counted
+     * inserts give the same tree, max counts and subtree sizes as inserting
+     * the key once per occurrence, also for a B+ tree.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testInsertAddsCounts() throws IOException {
+
+        BTreeOptions options = new BTreeOptions().subtreeSizes(true).maxCounts(true);
+        BTree counted = new BTree(3, testFilename, options);
+        BTree single = new BTree(3, testFilename + ".single", options);
+        BTreeInterface bPlus = BTreeFactory.open(3, testFilename + ".bplus", new BTreeOptions().bPlusTree(true));
+        for (int i = 0; i < 500; i++) {
+            String key = String.format("Invalid-%02d:%02d", i * 37 % 24, i * 11 % 60);
+            int count = 1 + i % 4;
+            counted.insert(new TreeObject(key, count));
+            bPlus.insert(new TreeObject(key, count));
+            for (int j = 0; j < count; j++) {
+                single.insert(new TreeObject(key));
+            }
+        }
+
+        ArrayList<TreeObject> sorted = new ArrayList<>();
+        Iterator<TreeObject> all = single.scan(null, null);
+        while (all.hasNext()) {
+            sorted.add(all.next());
+        }
+        assertOrderStatistics(sorted, counted);
+        assertArrayEquals(topOf(single, 10), countsOf(counted.topFrequent(10)));
+        for (TreeObject key : sorted) {
+            assertEquals(key.getCount(), bPlus.count(key.getKey()));
+        }
+        counted.close();
+        single.close();
+        bPlus.close();
+        deleteTestFile(testFilename + ".single");
+        deleteTestFile(testFilename + ".bplus");
+    }
+
+    private static void assertOrderStatistics(List<TreeObject> sorted, BTree b) {
+        long total = 0;
+        for (TreeObject key : sorted) {
+            total += key.getCount();
+        }
+        assertEquals(sorted.size(), b.rangeCount(null, null));
+        assertEquals(total, b.rangeSum(null, null));
+        assertNull(b.select(sorted.size()));
+
+        for (int i = 0; i < sorted.size(); i += 7) {
+            String key = sorted.get(i).getKey();
+            assertEquals(i, b.rank(key));
+            assertEquals(i + 1, b.rank(key + " ")); // not in the tree, sorts right after key
+            assertEquals(key, b.select(i).getKey());
+            assertEquals(sorted.get(i).getCount(), b.select(i).getCount());
+        }
+
+        String[][] ranges = {{"Invalid-03:00", "Invalid-05:00"}, {"Invalid-03:00x", "Invalid-05"}, {null, "Invalid-10"},
+                {"Invalid-20:30", null}, {"Invalid-09", "Invalid-08"}, {"A", "B"}};
+        for (String[] range : ranges) {
+            long keys = 0;
+            long events = 0;
+            for (TreeObject key : sorted) {
+                if ((range[0] == null || key.getKey().compareTo(range[0]) >= 0)
+                        && (range[1] == null || key.getKey().compareTo(range[1]) <= 0)) {
+                    keys++;
+                    events += key.getCount();
+                }
+            }
+            assertEquals(keys, b.rangeCount(range[0], range[1]));
+            assertEquals(events, b.rangeSum(range[0], range[1]));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFixedSlotFormatRejectsMaxCounts() {
+        new BTree(2, testFilename, new BTreeOptions().fixedSlotFormat(true).maxCounts(true));
+    }
+
+    /**
+     * The k most frequent keys of the tree, worked out by sorting all of them.
+     */
+    private static String[] topOf(BTree b, int k) {
+        ArrayList<TreeObject> all = new ArrayList<>();
+        Iterator<TreeObject> keys = b.scan(null, null);
+        while (keys.hasNext()) {
+            all.add(keys.next());
+        }
+        all.sort((x, y) -> x.getCount() != y.getCount() ? Long.compare(y.getCount(), x.getCount()) : x.compareTo(y));
+        return countsOf(all.subList(0, Math.min(k, all.size())));
+    }
+
+    private static String[] countsOf(List<TreeObject> keys) {
+        String[] out = new String[keys.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = keys.get(i).getKey() + " " + keys.get(i).getCount();
+        }
+        return out;
+    }
+
+    private static String[] keysOf(Iterator<TreeObject> keys) {
+        ArrayList<String> list = new ArrayList<>();
+        while (keys.hasNext()) {
+            list.add(keys.next().getKey());
+        }
+        return list.toArray(new String[0]);
+    }
+
+    /**
+     * Slotted pages store keys of up to 96 UTF-8 bytes and reject longer ones.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testSlottedPagesRejectLongKeys() throws IOException {
+
+        BTree b = new BTree(2, testFilename);
+
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < 97; i++) {
+            key.append('k');
+        }
+        b.insert(new TreeObject(key.toString()));
+    }
+
+    /**
+     * Bulk loads ten thousand sorted keys with their counts, checks the result
+     * against the keys, and then checks that normal inserts still work on the
+     * bulk loaded tree.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testBulkLoad() throws IOException {
+
+        BTree b = new BTree(2, testFilename);
+
+        String[] input = new String[10000];
+        ArrayList<TreeObject> sorted = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            input[i] = String.format("%05d", i);
+            sorted.add(new TreeObject(input[i], i % 7 + 1));
+        }
+        b.bulkLoad(sorted);
+
+        assertEquals(10000, b.getSize());
+        // (2t)^6 - 1 = 4095 < 10000 <= (2t)^7 - 1, so the packed tree has height 6
+        assertEquals(6, b.getHeight());
+        assertTrue(validateInserts(b, input));
+        assertEquals(4, b.search("00003").getCount());
+
+        b.insert(new TreeObject("00003"));
+        b.insert(new TreeObject("10000"));
+        assertEquals(5, b.search("00003").getCount());
+        assertEquals(10001, b.getSize());
+        assertNotNull(b.search("10000"));
+    }
+
+    /**
+     * Bulk loading keys out of order is rejected.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testBulkLoadUnsortedKeys() throws IOException {
+
+        BTree b = new BTree(2, testFilename);
+
+        b.bulkLoad(Arrays.asList(new TreeObject("b"), new TreeObject("a")));
+    }
+
     /**
      * Test that verifies the dumpToFile method properly writes BTree contents to a file.
      * Creates a BTree, inserts various keys (including duplicates), dumps to file,
@@ -0,0 +1,182 @@
+package cs321.btree;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit testing for ShardedBTree: routing by hash and by key ranges, merged
+ * scans and dumps, order statistics across shards, and parallel builds.
+ */
+public class ShardedBTreeTest {
+
+    /**
+     * Use the same filename for each time a tree is created.
+     */
+    private static String testFilename = "Test_ShardedBTree.tmp";
+
+    private static final int SHARDS = 4;
+
+    /**
+     * Avoid some test errors if the test files failed to clean up
+     * in a previous run.
+     */
+    @BeforeClass
+    public static void beforeAll() {
+
+        deleteTestFiles();
+    }
+
+    /**
+     * After each test case, remove the test files.
+     */
+    @After
+    public void cleanUpTests() {
+
+        deleteTestFiles();
+    }
+
+    /**
+     * Keys inserted by several threads at once into a hash sharded tree are
+     * all there, with their counts, before and after the tree is reopened.
+     *
+     * @throws Exception Exception thrown when testing fails
+     */
+    @Test
+    public void testConcurrentInsertByHash() throws Exception {
+
+        ShardedBTree b = new ShardedBTree(2, testFilename, new BTreeOptions().shards(SHARDS));
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    for (int i = offset; i < 4000; i += threads.length) {
+                        b.insert(new TreeObject("Failed-" + (i * 7919 % 1500)));
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        TreeMap<String, Long> expected = new TreeMap<>();
+        for (int i = 0; i < 4000; i++) {
+            expected.merge("Failed-" + (i * 7919 % 1500), 1L, Long::sum);
+        }
+        TreeAssertions.assertExpectedKeys(expected, b);
+        b.close();
+
+        BTreeInterface loaded = BTreeFactory.open(2, testFilename, new BTreeOptions().readOnly(true));
+        assertTrue(loaded instanceof ShardedBTree);
+        assertEquals(SHARDS, ((ShardedBTree) loaded).getShardCount());
+        TreeAssertions.assertExpectedKeys(expected, loaded);
+        loaded.close();
+    }
+
+    /**
+     * A tree split by key ranges keeps each range in its own shard, and
+     * insertAll and bulkLoad give the same tree as inserting one at a time.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test
+    public void testRangeSplitsAndParallelBuilds() throws IOException {
+
+        TreeMap<String, Long> expected = new TreeMap<>();
+        List<TreeObject> inserts = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            String key = String.format("user%d-10.0.%d.%d", i % 7, i % 13, i % 11);
+            inserts.add(new TreeObject(key));
+            expected.merge(key, 1L, Long::sum);
+        }
+
+        BTreeOptions options = new BTreeOptions().shardSplits("user2", "user4", "user5").bPlusTree(true);
+        ShardedBTree b = (ShardedBTree) BTreeFactory.open(3, testFilename, options);
+        b.insertAll(inserts.iterator());
+        assertEquals(4, b.getShardCount());
+        assertEquals(0, b.shardOf("user1-10.0.0.0"));
+        assertEquals(1, b.shardOf("user2"));
+        assertEquals(3, b.shardOf("user6-10.0.0.0"));
+        TreeAssertions.assertExpectedKeys(expected, b);
+        b.close();
+        deleteTestFiles();
+
+        List<TreeObject> sorted = new ArrayList<>();
+        for (Map.Entry<String, Long> e : expected.entrySet()) {
+            sorted.add(new TreeObject(e.getKey(), e.getValue()));
+        }
+        BTreeInterface loaded = BTreeFactory.open(3, testFilename, new BTreeOptions().shards(3).subtreeSizes(true));
+        loaded.bulkLoad(sorted);
+        TreeAssertions.assertExpectedKeys(expected, loaded);
+        loaded.close();
+    }
+
+    /**
+     * An Error in one shard ends insertAll and bulkLoad with that Error, after
+     * the other shards are done, instead of leaving the caller waiting for
+     * room in the queue of the failed shard.
+     *
+     * @throws IOException Exception thrown when testing fails due to IO errors
+     */
+    @Test(timeout = 60000)
+    public void testFailingShard() throws IOException {
+
+        Error error = new OutOfMemoryError("test");
+        BTreeInterface[] shards = new BTreeInterface[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            shards[i] = new BTree(2, ShardedBTree.shardName(testFilename, i));
+        }
+        shards[1] = new BTree(2, ShardedBTree.shardName(testFilename, 1)) {
+            @Override
+            public void insert(TreeObject obj) {
+                throw error;
+            }
+
+            @Override
+            public void bulkLoad(Collection<TreeObject> sortedKeys) {
+                throw error;
+            }
+        };
+        ShardedBTree b = new ShardedBTree(shards);
+
+        List<TreeObject> keys = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            keys.add(new TreeObject(String.format("Failed-%06d", i)));
+        }
+        try {
+            b.bulkLoad(keys);
+            fail("bulkLoad should throw the Error of the shard");
+        } catch (OutOfMemoryError e) {
+            assertSame(error, e);
+        }
+        try {
+            b.insertAll(keys.iterator());
+            fail("insertAll should throw the Error of the shard");
+        } catch (OutOfMemoryError e) {
+            assertSame(error, e);
+        }
+        b.close();
+    }
+
+    private static void deleteTestFiles() {
+        new File(testFilename).delete();
+        for (int i = 0; i < SHARDS; i++) {
+            new File(ShardedBTree.shardName(testFilename, i)).delete();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cs321.btree;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks shared by the tests of the tree layouts, which must all answer
+ * like a BTree holding the same keys.
+ */
+final class TreeAssertions {
+
+    private TreeAssertions() {
+    }
+
+    /**
+     * Checks every query of BTreeInterface against the keys the tree should hold.
+     *
+     * @param expected the keys and counts the tree should hold
+     * @param b the tree to check
+     * @throws IOException Exception thrown when the tree cannot be read
+     */
+    static void assertExpectedKeys(TreeMap<String, Long> expected, BTreeInterface b) throws IOException {
+        assertEquals(expected.size(), b.getSize());
+        for (String key : expected.keySet()) {
+            assertEquals(key, (long) expected.get(key), b.count(key));
+        }
+        assertNull(b.search("zzz"));
+
+        StringWriter dump = new StringWriter();
+        try (PrintWriter out = new PrintWriter(dump)) {
+            b.dumpToFile(out);
+        }
+        StringWriter sorted = new StringWriter();
+        try (PrintWriter out = new PrintWriter(sorted)) {
+            for (String key : expected.keySet()) {
+                out.println(key + " " + expected.get(key));
+            }
+        }
+        assertEquals(sorted.toString(), dump.toString());
+
+        String[] keys = expected.keySet().toArray(new String[0]);
+        String from = keys[keys.length / 3];
+        String to = keys[2 * keys.length / 3];
+        Iterator<TreeObject> range = b.scan(from, to);
+        long sum = 0;
+        for (String key : expected.subMap(from, true, to, true).keySet()) {
+            assertEquals(key, range.next().getKey());
+            sum += expected.get(key);
+        }
+        assertFalse(range.hasNext());
+        assertEquals(expected.subMap(from, true, to, true).size(), b.rangeCount(from, to));
+        assertEquals(sum, b.rangeSum(from, to));
+
+        for (String prefix : new String[] {from.substring(0, 6), from.substring(0, from.length() - 1)}) {
+            Iterator<TreeObject> matches = b.scanPrefix(prefix);
+            for (String key : expected.subMap(prefix, prefix + Character.MAX_VALUE).keySet()) {
+                assertEquals(key, matches.next().getKey());
+            }
+            assertFalse(matches.hasNext());
+        }
+
+        assertEquals(expected.headMap(from).size(), b.rank(from));
+        assertEquals(to, b.select(expected.headMap(to).size()).getKey());
+        for (int i = 0; i < keys.length; i += 97) {
+            assertEquals(i, b.rank(keys[i]));
+            assertEquals(keys[i], b.select(i).getKey());
+        }
+        assertNull(b.select(keys.length));
+
+        List<TreeObject> top = b.topFrequent(10);
+        List<TreeObject> all = new ArrayList<>();
+        for (Map.Entry<String, Long> e : expected.entrySet()) {
+            all.add(new TreeObject(e.getKey(), e.getValue()));
+        }
+        List<TreeObject> expectedTop = BTree.topFrequent(all.iterator(), 10);
+        assertEquals(expectedTop.size(), top.size());
+        for (int i = 0; i < top.size(); i++) {
+            assertEquals(expectedTop.get(i).getKey(), top.get(i).getKey());
+            assertEquals(expectedTop.get(i).getCount(), top.get(i).getCount());
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package cs321.cache;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+/**
+ * Times the hit path of Cache, a get of a key that is in the cache, for
+ * caches from 100 to 1M entries, next to the LinkedList based cache it
+ * replaced. The time of a hit should not grow with the size of the cache;
+ * the list based cache is only timed up to 10000 entries, as it scans the
+ * list on every get.
+ *
+ * <pre>
+ * java -cp build/classes/java/main:build/classes/java/test cs321.cache.CacheBenchmark [gets]
+ * </pre>
+ */
+public class CacheBenchmark {
+
+    private static final int LIST_LIMIT = 10000;
+
+    public static void main(String[] args) {
+        int gets = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        System.out.printf("%10s %14s %14s%n", "entries", "Cache ns/get", "list ns/get");
+        for (int size = 100; size <= 1000000; size *= 10) {
+            Cache<Long, CacheTest.Item> cache = new Cache<>(size);
+            for (int i = 0; i < size; i++) {
+                cache.add(new CacheTest.Item(i));
+            }
+            double cacheNanos = timeGets(cache::get, size, gets);
+
+            String list = "-";
+            if (size <= LIST_LIMIT) {
+                LinkedListCache linked = new LinkedListCache(size);
+                for (int i = 0; i < size; i++) {
+                    linked.add(new CacheTest.Item(i));
+                }
+                list = String.format("%.1f", timeGets(linked::get, size, Math.max(1000, gets / size)));
+            }
+            System.out.printf("%10d %14.1f %14s%n", size, cacheNanos, list);
+        }
+    }
+
+    private interface Lookup {
+        CacheTest.Item get(Long key);
+    }
+
+    /**
+     * @return nanoseconds per get of random keys that are all in the cache
+     */
+    private static double timeGets(Lookup lookup, int size, int gets) {
+        Random random = new Random(42);
+        Long[] keys = new Long[4096];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = (long) random.nextInt(size);
+        }
+        long hits = 0;
+        for (int round = 0; round < 2; round++) { // the first round warms up
+            long start = System.nanoTime();
+            for (int i = 0; i < gets; i++) {
+                if (lookup.get(keys[i & (keys.length - 1)]) != null) {
+                    hits++;
+                }
+            }
+            if (round == 1) {
+                if (hits != 2L * gets) {
+                    throw new IllegalStateException("A key fell out of the cache");
+                }
+                return (System.nanoTime() - start) / (double) gets;
+            }
+        }
+        throw new AssertionError();
+    }
+
+    /**
+     * The cache before it was indexed by a HashMap: a LinkedList searched
+     * from the front on every get.
+     */
+    private static final class LinkedListCache {
+        private final int maxSize;
+        private final LinkedList<CacheTest.Item> cache = new LinkedList<>();
+
+        LinkedListCache(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        CacheTest.Item get(Long key) {
+            for (int i = 0; i < cache.size(); i++) {
+                CacheTest.Item current = cache.get(i);
+                if (current.getKey().equals(key)) {
+                    cache.remove(i);
+                    cache.addFirst(current);
+                    return current;
+                }
+            }
+            return null;
+        }
+
+        void add(CacheTest.Item value) {
+            if (cache.size() == maxSize) {
+                cache.removeLast();
+            }
+            cache.addFirst(value);
+        }
+    }
+}
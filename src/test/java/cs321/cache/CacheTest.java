@@ -0,0 +1,302 @@
+package cs321.cache;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit testing for Cache: least recently used eviction, removal, adding a
+ * key again, and the hit counters. The caches of the other policies are
+ * checked for the same contract and for keeping hot items through a scan,
+ * and ConcurrentCache for the contract across threads.
+ */
+public class CacheTest {
+
+    /**
+     * An item that is its own key.
+     */
+    static final class Item implements KeyInterface<Long> {
+        final long key;
+
+        Item(long key) {
+            this.key = key;
+        }
+
+        @Override
+        public Long getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * The least recently used item is evicted, where get and add count as a
+     * use and a miss does not.
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        Cache<Long, Item> cache = new Cache<>(3);
+        assertNull(cache.add(new Item(1)));
+        assertNull(cache.add(new Item(2)));
+        assertNull(cache.add(new Item(3)));
+        assertEquals(1L, (long) cache.get(1L).getKey());
+        assertNull(cache.get(4L));
+
+        assertEquals(2L, (long) cache.add(new Item(4)).getKey());
+        assertNull(cache.get(2L));
+        assertEquals(3L, (long) cache.add(new Item(5)).getKey());
+        assertEquals(1L, (long) cache.add(new Item(6)).getKey());
+        assertNotNull(cache.get(4L));
+        assertNotNull(cache.get(5L));
+        assertNotNull(cache.get(6L));
+        assertTrue(cache.toString().contains(String.format("%-30s %10d%n", "Total number of references:", 6)));
+        assertTrue(cache.toString().contains(String.format("%-30s %10d%n", "Total number of cache hits:", 4)));
+    }
+
+    /**
+     * Adding a key that is in the cache replaces its item without evicting
+     * another, and a removed item frees its place.
+     */
+    @Test
+    public void testAddAgainAndRemove() {
+        Cache<Long, Item> cache = new Cache<>(2);
+        Item first = new Item(1);
+        cache.add(first);
+        cache.add(new Item(2));
+        Item again = new Item(1);
+        assertNull(cache.add(again));
+        assertSame(again, cache.get(1L));
+
+        assertEquals(2L, (long) cache.remove(2L).getKey());
+        assertNull(cache.remove(2L));
+        assertNull(cache.add(new Item(3)));
+        assertSame(again, cache.remove(1L));
+        assertEquals(3L, (long) cache.remove(3L).getKey());
+        assertNull(cache.remove(3L));
+
+        cache.add(new Item(7));
+        cache.clear();
+        assertNull(cache.get(7L));
+        assertNull(cache.add(new Item(8)));
+        assertNull(cache.add(new Item(9)));
+        assertEquals(8L, (long) cache.add(new Item(10)).getKey());
+    }
+
+    /**
+     * A random mix of gets, adds and removes gives the same items and
+     * evictions as a plain list kept in recency order.
+     */
+    @Test
+    public void testMatchesRecencyList() {
+        Cache<Long, Item> cache = new Cache<>(50);
+        LinkedList<Long> order = new LinkedList<>();
+        Random random = new Random(321);
+        for (int i = 0; i < 20000; i++) {
+            long key = random.nextInt(120);
+            int op = random.nextInt(10);
+            if (op < 5) {
+                Item hit = cache.get(key);
+                assertEquals(order.contains(key), hit != null);
+                if (hit != null) {
+                    order.remove(key);
+                    order.addFirst(key);
+                }
+            } else if (op < 9) {
+                order.remove(key);
+                Item evicted = cache.add(new Item(key));
+                Long expected = order.size() == 50 ? order.removeLast() : null;
+                assertEquals(expected, evicted == null ? null : evicted.getKey());
+                order.addFirst(key);
+            } else {
+                assertEquals(order.remove(key), cache.remove(key) != null);
+            }
+        }
+    }
+
+    /**
+     * Every policy holds at most its size, returns the item added last for a
+     * key it holds, and returns each item it drops from add or remove.
+     */
+    @Test
+    public void testPoliciesKeepContract() {
+        for (CachePolicy policy : CachePolicy.values()) {
+            for (int size : new int[] {1, 3, 64}) {
+                CacheInterface<Long, Item> cache = policy.create(size);
+                Map<Long, Item> held = new HashMap<>();
+                Random random = new Random(size);
+                for (int i = 0; i < 20000; i++) {
+                    long key = random.nextInt(4 * size + 3);
+                    int op = random.nextInt(10);
+                    if (op < 5) {
+                        Item hit = cache.get(key);
+                        assertSame(policy + " get " + key, held.get(key), hit);
+                    } else if (op < 9) {
+                        Item item = new Item(key);
+                        Item evicted = cache.add(item);
+                        held.put(key, item);
+                        if (evicted != null) {
+                            assertSame(policy + " evicted", evicted, held.remove(evicted.getKey()));
+                        }
+                        assertTrue(policy + " size", held.size() <= size);
+                    } else {
+                        assertSame(policy + " remove " + key, held.remove(key), cache.remove(key));
+                    }
+                }
+                cache.clear();
+                for (long key : held.keySet()) {
+                    assertNull(cache.get(key));
+                }
+            }
+        }
+    }
+
+    /**
+     * A scan of many keys that are used once flushes the hot items out of an
+     * LRU cache, but not out of a scan resistant one.
+     */
+    @Test
+    public void testScanResistance() {
+        for (CachePolicy policy : CachePolicy.values()) {
+            CacheInterface<Long, Item> cache = policy.create(100);
+            Random random = new Random(7);
+            for (int i = 0; i < 20000; i++) {
+                // 40 hot keys among cold ones that are rarely used again
+                access(cache, i % 3 == 0 ? 100 + random.nextInt(100000) : random.nextInt(40));
+            }
+            for (long key = 1000; key < 3000; key++) {
+                access(cache, key);
+            }
+            Set<Long> kept = new HashSet<>();
+            for (long key = 0; key < 40; key++) {
+                if (cache.get(key) != null) {
+                    kept.add(key);
+                }
+            }
+            if (policy == CachePolicy.LRU || policy == CachePolicy.CLOCK) {
+                assertTrue(policy + " kept " + kept.size(), kept.size() < 10);
+            } else {
+                assertTrue(policy + " kept " + kept.size(), kept.size() >= 36);
+            }
+            assertTrue(cache.toString(), cache.toString().contains(policy == CachePolicy.LRU ? "Cache with 100" : policy.getName() + " cache with 100"));
+        }
+        assertEquals(CachePolicy.TWO_QUEUE, CachePolicy.forName("2q"));
+        assertEquals(CachePolicy.W_TINY_LFU, CachePolicy.forName("w-tinylfu"));
+    }
+
+    /**
+     * A concurrent cache with one segment is an exact LRU cache. With more
+     * segments it holds at most its size, evicts the least recently used
+     * item of a segment, and never returns an item of another key.
+     */
+    @Test
+    public void testConcurrentCacheKeepsContract() {
+        ConcurrentCache<Long, Item> single = new ConcurrentCache<>(3, 1);
+        single.add(new Item(1));
+        single.add(new Item(2));
+        single.add(new Item(3));
+        assertNotNull(single.get(1L));
+        assertEquals(2L, (long) single.add(new Item(4)).getKey());
+        assertTrue(single.isThreadSafe());
+        assertFalse(new Cache<Long, Item>(3).isThreadSafe());
+
+        for (int size : new int[] {1, 5, 64, 1000}) {
+            ConcurrentCache<Long, Item> cache = new ConcurrentCache<>(size);
+            Map<Long, Item> held = new HashMap<>();
+            Random random = new Random(size);
+            for (int i = 0; i < 20000; i++) {
+                long key = random.nextInt(4 * size + 3) * 4096L + 64;
+                int op = random.nextInt(10);
+                if (op < 5) {
+                    assertSame("get " + key, held.get(key), cache.get(key));
+                } else if (op < 9) {
+                    Item item = new Item(key);
+                    Item evicted = cache.add(item);
+                    held.put(key, item);
+                    if (evicted != null) {
+                        assertSame("evicted", evicted, held.remove(evicted.getKey()));
+                    }
+                    assertTrue("size", held.size() <= size);
+                } else {
+                    assertSame("remove " + key, held.remove(key), cache.remove(key));
+                }
+            }
+            // Page addresses spread over the segments, so a full cache keeps most of its size
+            assertTrue(size + " held " + held.size(), held.size() >= size * 3 / 4);
+            cache.clear();
+            for (long key : held.keySet()) {
+                assertNull(cache.get(key));
+            }
+            assertTrue(cache.toString(), cache.toString().contains("Concurrent cache with " + size));
+        }
+    }
+
+    /**
+     * Threads that get, add and remove keys of one concurrent cache at once
+     * only ever get the item of the key they asked for, the cache keeps its
+     * size, and every get is counted.
+     *
+     * @throws Exception Exception thrown when a thread is interrupted
+     */
+    @Test
+    public void testConcurrentCacheAcrossThreads() throws Exception {
+        ConcurrentCache<Long, Item> cache = new ConcurrentCache<>(256);
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger gets = new AtomicInteger();
+        Thread[] workers = new Thread[16];
+        for (int t = 0; t < workers.length; t++) {
+            final int seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < 20000; i++) {
+                    long key = random.nextInt(1024);
+                    if (random.nextInt(20) == 0) {
+                        cache.remove(key);
+                        continue;
+                    }
+                    Item hit = cache.get(key);
+                    gets.incrementAndGet();
+                    if (hit == null) {
+                        Item evicted = cache.add(new Item(key));
+                        if (evicted != null && evicted.getKey() == key) {
+                            errors.incrementAndGet();
+                        }
+                    } else if (hit.getKey() != key) {
+                        errors.incrementAndGet();
+                    }
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(gets.get(), cache.numReferences());
+
+        int held = 0;
+        for (long key = 0; key < 1024; key++) {
+            Item hit = cache.get(key);
+            if (hit != null) {
+                assertEquals(key, (long) hit.getKey());
+                held++;
+            }
+        }
+        assertTrue("held " + held, held <= 256);
+    }
+
+    /**
+     * Gets a key like BTree.diskRead does, adding it on a miss.
+     */
+    static void access(CacheInterface<Long, Item> cache, long key) {
+        if (cache.get(key) == null) {
+            cache.add(new Item(key));
+        }
+    }
+}
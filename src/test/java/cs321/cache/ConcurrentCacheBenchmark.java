@@ -0,0 +1,83 @@
+package cs321.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Times gets of keys that are in the cache from 1 to 32 threads at once,
+ * for ConcurrentCache and for Cache behind one lock, as BTree used to share
+ * its cache between search threads. The gets per second of ConcurrentCache
+ * should grow with the threads up to the number of cores; those of the
+ * locked Cache should not.
+ *
+ * <pre>
+ * java -cp build/classes/java/main:build/classes/java/test cs321.cache.ConcurrentCacheBenchmark [entries] [gets per thread]
+ * </pre>
+ */
+public class ConcurrentCacheBenchmark {
+
+    public static void main(String[] args) throws InterruptedException {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int gets = args.length > 1 ? Integer.parseInt(args[1]) : 2000000;
+        System.out.printf("%d entries, %d cores%n", size, Runtime.getRuntime().availableProcessors());
+
+        Cache<Long, CacheTest.Item> locked = new Cache<>(size);
+        ConcurrentCache<Long, CacheTest.Item> concurrent = new ConcurrentCache<>(size);
+        for (int i = 0; i < size; i++) {
+            // Page addresses, as BTree caches them
+            locked.add(new CacheTest.Item(64 + 4096L * i));
+            concurrent.add(new CacheTest.Item(64 + 4096L * i));
+        }
+        // A segment that got more than its share of the keys evicted some
+        List<Long> held = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (concurrent.get(64 + 4096L * i) != null) {
+                held.add(64 + 4096L * i);
+            }
+        }
+        System.out.printf("the concurrent cache holds %d keys%n", held.size());
+        System.out.printf("%8s %18s %18s%n", "threads", "locked Mgets/s", "concurrent Mgets/s");
+        for (int threads = 1; threads <= 32; threads *= 2) {
+            double lockedRate = rate(key -> {
+                synchronized (locked) {
+                    return locked.get(key);
+                }
+            }, held, threads, gets);
+            double concurrentRate = rate(concurrent::get, held, threads, gets);
+            System.out.printf("%8d %18.1f %18.1f%n", threads, lockedRate, concurrentRate);
+        }
+    }
+
+    /**
+     * @return millions of gets per second of all threads together
+     */
+    private static double rate(Function<Long, CacheTest.Item> lookup, List<Long> held, int threads, int gets)
+            throws InterruptedException {
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int seed = t;
+            workers[t] = new Thread(() -> {
+                Random random = new Random(seed);
+                Long[] keys = new Long[4096];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = held.get(random.nextInt(held.size()));
+                }
+                for (int i = 0; i < gets; i++) {
+                    if (lookup.apply(keys[i & (keys.length - 1)]) == null) {
+                        throw new IllegalStateException("A key fell out of the cache");
+                    }
+                }
+            });
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) threads * gets / ((System.nanoTime() - start) / 1000.0);
+    }
+}
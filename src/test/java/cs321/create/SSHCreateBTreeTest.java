@@ -3,6 +3,8 @@ package cs321.create;
 import java.io.File;
 import java.util.Random;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.fail;
 import org.junit.Test;
 
@@ -31,4 +33,22 @@ public class SSHCreateBTreeTest
         
         assertTrue(new File("SSH_log.txt.ssh.btree." + type + "." + degree).exists());
     }
+
+    /**
+     * --parse-threads above 1 for several tree types builds the trees one by
+     * one from the chunked counts, as the pipeline would ignore it.
+     *
+     * @throws Exception Exception thrown when the arguments are rejected
+     */
+    @Test
+    public void testParseThreadsSelectSequentialBuild() throws Exception {
+        SSHCreateBTreeArguments args = SSHCreateBTree.parseArguments(new String[] {"--cache=0", "--degree=0",
+                "--sshFile=data/SSH_Files/SSH_log.txt", "--type=all", "--database=no", "--parse-threads=4"});
+        assertFalse(args.isParallel());
+        assertEquals(4, args.getParseThreads());
+
+        args = SSHCreateBTree.parseArguments(new String[] {"--cache=0", "--degree=0",
+                "--sshFile=data/SSH_Files/SSH_log.txt", "--type=all", "--database=no"});
+        assertTrue(args.isParallel());
+    }
 }
@@ -0,0 +1,86 @@
+package cs321.create;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * Times SSHDataWrangler against the wrangler it replaced, which called
+ * String.replaceAll three times per line, and checks that both write the
+ * same file. The wrangler is timed with one thread and with the given number
+ * of threads.
+ *
+ * <pre>
+ * java -cp build/classes/java/main:build/classes/java/test cs321.create.SSHDataWranglerBenchmark SSH_log_raw.txt [threads] [rounds]
+ * </pre>
+ */
+public class SSHDataWranglerBenchmark {
+
+    private static final String KEYWORD_REGEX = "(?i)---|\\bpm\\b|\\bSSHD\\b|\\bpassword\\b|\\bfrom and for\\b|\\binvalid user\\b|\\buser\\b|\\bfailed - POSSIBLE BREAK-IN ATTEMPT!\\b|\\bmapping\\b|\\bmaps to\\b|\\bchecking getaddrinfo\\b|-";
+    private static final String LAB_ID_REGEX = "(?i)Lab-id:[\\[a-j]*]";
+    private static final String FAILED_ID_REGEX = "(?i)Failed id.*";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SSHDataWranglerBenchmark <raw-log> [threads] [rounds]");
+            System.exit(1);
+        }
+        File raw = new File(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        File expected = File.createTempFile("wrangled-regex", ".txt");
+        File actual = File.createTempFile("wrangled", ".txt");
+        try {
+            for (int round = 1; round <= rounds; round++) {
+                long start = System.nanoTime();
+                replaceAllWrangle(raw, expected);
+                long regexNanos = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                SSHDataWrangler.wrangle(raw, actual, 1);
+                long singleNanos = System.nanoTime() - start;
+                assertSameFile(expected, actual);
+
+                start = System.nanoTime();
+                SSHDataWrangler.wrangle(raw, actual, threads);
+                long parallelNanos = System.nanoTime() - start;
+                assertSameFile(expected, actual);
+
+                System.out.printf("round %d: replaceAll %.0f ms, wrangler %.0f ms (%.1fx), %d threads %.0f ms (%.1fx)%n",
+                        round, regexNanos / 1e6, singleNanos / 1e6, (double) regexNanos / singleNanos,
+                        threads, parallelNanos / 1e6, (double) regexNanos / parallelNanos);
+            }
+        } finally {
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    /**
+     * Wrangles a line like SSHDataWrangler did before it had its own matcher.
+     */
+    static String replaceAllWrangle(String line) {
+        line = line.replaceAll(KEYWORD_REGEX, "");
+        line = line.replaceAll(LAB_ID_REGEX, "");
+        return line.replaceAll(FAILED_ID_REGEX, "").trim();
+    }
+
+    private static void replaceAllWrangle(File raw, File ssh) throws IOException {
+        try (Scanner scanner = new Scanner(raw);
+             BufferedWriter writer = new BufferedWriter(new FileWriter(ssh))) {
+            while (scanner.hasNextLine()) {
+                writer.write(replaceAllWrangle(scanner.nextLine()) + "\n");
+            }
+        }
+    }
+
+    private static void assertSameFile(File expected, File actual) throws IOException {
+        if (!Arrays.equals(Files.readAllBytes(expected.toPath()), Files.readAllBytes(actual.toPath()))) {
+            throw new IllegalStateException("The wranglers disagree on " + actual);
+        }
+    }
+}
@@ -1,12 +1,92 @@
 package cs321.create;
 
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
 
+/**
+ * Unit testing for SSHDataWrangler, which must rewrite lines exactly like
+ * the three String.replaceAll calls it replaced.
+ */
 public class SSHDataWranglerTest {
 
-    public static void main(String[] args) throws Exception {
-        // Test the SSHDataWrangler with a sample input
-        String[] testArgs = {"rawSSHFile=" +  Paths.get("data/SSH_FIles/SSH_log.txt").toAbsolutePath(), "sshFile=wrangled_SSH_log.txt"};
-        SSHDataWrangler.main(testArgs);
+    private static final String rawFilename = "Test_SSHDataWrangler_raw.tmp";
+    private static final String testFilename = "Test_SSHDataWrangler.tmp";
+
+    private static final String[] LINES = {
+            "Dec 10 06:55:46 LabSZ sshd[24200]: reverse mapping checking getaddrinfo for ns.example.com [173.234.31.186] failed - POSSIBLE BREAK-IN ATTEMPT!",
+            "Dec 10 07:02:47 LabSZ sshd[24203]: Address 5.36.59.76 maps to 5.36.59.76.dynamic.example.com, but this does not map back to the address - POSSIBLE BREAK-IN ATTEMPT!",
+            "Dec 10 07:07:38 LabSZ sshd[24206]: Failed password for invalid user test9 from 52.80.34.196 port 36060 ssh2",
+            "Dec 10 09:12:32 LabSZ sshd[24490]: Accepted password for fztu from 119.137.62.142 port 49116 ssh2",
+            "Dec 10 09:12:35 LabSZ sshd[24492]: Invalid user pi from 10.0.0.1",
+            "  Dec 10 11:03:40 LabSZ Lab-id:[abj] sshd[25448]: Received disconnect from 1.2.3.4: 11: Bye Bye [preauth]\t",
+            "Dec 10 11:03:44 pm SSHD --- Failed id 7 for user root",
+            "Dec 10 11:03:44 PM sshd_x usERs user_ user- -user failed - POSSIBLE BREAK-IN ATTEMPT!x FROM AND FOR",
+            "Dec 10 11:03:44 Failed i-d 7, fail-ed id 8, mapsto maps to, Mapping-mapping, passwordpassword",
+            "Dec 10 11:03:44 g\u00fcnter user checking getaddrinfo",
+            "",
+            "   ",
+            "- ---- -"
+    };
+
+    @After
+    public void cleanUpTests() {
+        new File(rawFilename).delete();
+        new File(testFilename).delete();
+    }
+
+    /**
+     * Single lines are wrangled like the regexes do, including word
+     * boundaries, case, keywords that are joined when a '-' is removed and
+     * the line ends Scanner.nextLine knows.
+     */
+    @Test
+    public void testWrangleMatchesReplaceAll() {
+        for (String line : LINES) {
+            assertEquals(line, SSHDataWranglerBenchmark.replaceAllWrangle(line), SSHDataWrangler.wrangle(line));
+        }
+        assertEquals("Dec 10 07:07:38 LabSZ [24206]: Failed  for  test9 from 52.80.34.196 port 36060 ssh2",
+                SSHDataWrangler.wrangle(LINES[2]));
+        assertEquals("Dec 10 11:03:44", SSHDataWrangler.wrangle(LINES[6]));
+
+        char[] lines = "sshd a\u2028pm b\u0085c -\r\n\rd".toCharArray();
+        char[] out = new char[lines.length + 1];
+        assertEquals("a\nb\nc\n\nd\n", new String(out, 0, SSHDataWrangler.wrangleLines(lines, 0, lines.length, out)));
+    }
+
+    /**
+     * A file of several blocks is wrangled the same with one thread and with
+     * several, for each kind of line end.
+     *
+     * @throws Exception Exception thrown when a test file cannot be written or read
+     */
+    @Test
+    public void testWrangleFileInBlocks() throws Exception {
+        String[] ends = {"\n", "\r\n", "\r"};
+        List<String> expected = new ArrayList<>();
+        try (PrintWriter out = new PrintWriter(rawFilename)) {
+            int chars = 0;
+            for (int i = 0; chars < 3 * SSHDataWrangler.BLOCK_SIZE; i++) {
+                String line = LINES[i % LINES.length].replace('\u00fc', 'u') + " " + i;
+                out.print(line + ends[i % ends.length]);
+                chars += line.length() + 2;
+                expected.add(SSHDataWranglerBenchmark.replaceAllWrangle(line));
+            }
+            out.print("Dec 10 11:03:40 last line without an end");
+            expected.add("Dec 10 11:03:40 last line without an end");
+        }
+
+        for (int threads : new int[] {1, 3}) {
+            SSHDataWrangler.wrangle(new File(rawFilename), new File(testFilename), threads);
+            assertEquals(expected, Files.readAllLines(Paths.get(testFilename)));
+        }
     }
-}
\ No newline at end of file
+}
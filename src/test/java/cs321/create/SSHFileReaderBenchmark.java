@@ -0,0 +1,139 @@
+package cs321.create;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Times SSHFileReader against the String based parser it replaced, which
+ * trimmed and split every line once with a regex and matched IPv4 addresses
+ * with String.matches. Both read every tree type from the same file, and the
+ * number and hash of their keys must agree.
+ *
+ * <pre>
+ * java -cp build/classes/java/main:build/classes/java/test cs321.create.SSHFileReaderBenchmark data/SSH_Files/SSH_log.txt [rounds]
+ * </pre>
+ */
+public class SSHFileReaderBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: SSHFileReaderBenchmark <wrangled-log> [rounds]");
+            System.exit(1);
+        }
+        String file = args[0];
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        List<String> types = SSHFileReader.TREE_TYPES;
+
+        for (int round = 1; round <= rounds; round++) {
+            long start = System.nanoTime();
+            long[] split = splitParse(file, types);
+            long splitNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            long[] tokens = new long[2];
+            new SSHFileReader(file, "all").readEntries(types, (type, key) -> {
+                tokens[0]++;
+                tokens[1] = 31 * tokens[1] + key.hashCode();
+            });
+            long tokenNanos = System.nanoTime() - start;
+
+            if (split[0] != tokens[0] || split[1] != tokens[1]) {
+                throw new IllegalStateException("The parsers disagree: " + split[0] + " and " + tokens[0] + " keys");
+            }
+            System.out.printf("round %d: %d lines, %d keys, split %.0f ms, tokenizer %.0f ms, %.1fx%n",
+                    round, split[2], tokens[0], splitNanos / 1e6, tokenNanos / 1e6, (double) splitNanos / tokenNanos);
+        }
+    }
+
+    /**
+     * Parses the file like SSHFileReader did before it used SSHLineTokenizer.
+     *
+     * @return the number of keys, a hash of the keys in order, and the number of lines
+     */
+    private static long[] splitParse(String file, List<String> types) throws IOException {
+        long[] result = new long[3];
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                result[2]++;
+                line = line.trim();
+                if (line.isEmpty()) continue;
+                String[] t = line.split("\\s+");
+                if (t.length < 3) continue;
+                for (String type : types) {
+                    String key = splitKey(t, type);
+                    if (key != null) {
+                        result[0]++;
+                        result[1] = 31 * result[1] + key.hashCode();
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The key a line contributes to a tree type, as derived by the String
+     * based parser.
+     *
+     * @param line a line of the wrangled log
+     * @param treeType a tree type such as "accepted-ip"
+     * @return the key, or null if the line does not belong to the tree type
+     */
+    static String splitKey(String line, String treeType) {
+        line = line.trim();
+        if (line.isEmpty()) return null;
+        String[] t = line.split("\\s+");
+        return t.length < 3 ? null : splitKey(t, treeType);
+    }
+
+    private static String splitKey(String[] t, String treeType) {
+        String[] type = treeType.split("-");
+        String kind = type[0];
+        String mode = type.length > 1 ? type[1] : "";
+        String action = t[2];
+
+        if ("ip".equals(mode)) {
+            if ("user".equals(kind)) {
+                if (!action.equalsIgnoreCase("reverse")
+                        && !action.equalsIgnoreCase("Address")
+                        && t.length >= 5
+                        && isIPv4(t[4])) {
+                    return t[3] + "-" + t[4];
+                }
+            } else if ("reverseaddress".equals(kind)) {
+                if (action.equalsIgnoreCase("reverse") || action.equalsIgnoreCase("Address")) {
+                    for (int i = 3; i < t.length; i++) {
+                        if (isIPv4(t[i])) {
+                            String prefix = action.equalsIgnoreCase("Address") ? "Address-" : "reverse-";
+                            return prefix + t[i];
+                        }
+                    }
+                }
+            } else {
+                if (action.equalsIgnoreCase(kind) && t.length >= 5) {
+                    return action + "-" + t[4];
+                }
+            }
+        } else if ("time".equals(mode)) {
+            String hhmm = (t[1].length() >= 5) ? t[1].substring(0, 5) : t[1];
+            if ("reverseaddress".equals(kind)) {
+                if (action.equalsIgnoreCase("reverse") || action.equalsIgnoreCase("Address")) {
+                    String prefix = action.equalsIgnoreCase("Address") ? "Address-" : "reverse-";
+                    return prefix + hhmm;
+                }
+            } else {
+                if (action.equalsIgnoreCase(kind)) {
+                    return action + "-" + hhmm;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isIPv4(String s) {
+        return s != null && s.matches("\\d{1,3}(?:\\.\\d{1,3}){3}");
+    }
+}
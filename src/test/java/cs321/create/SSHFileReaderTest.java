@@ -0,0 +1,223 @@
+package cs321.create;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit testing for SSHFileReader, reading one tree type at a time and
+ * several tree types in one pass or in parallel chunks.
+ */
+public class SSHFileReaderTest {
+
+    private static final String testFilename = "Test_SSHFileReader.tmp";
+
+    @After
+    public void cleanUpTests() {
+        new File(testFilename).delete();
+    }
+
+    /**
+     * Reading every tree type in one pass gives each type the same keys as
+     * reading it on its own.
+     *
+     * @throws Exception Exception thrown when the test file cannot be read
+     */
+    @Test
+    public void testReadAllTypesInOnePass() throws Exception {
+        writeLog("12/11 11:56:56 Invalid support 98.226.166.134",
+                "12/25 16:41:59 Failed user208 125.219.43.169 ",
+                "12/20 17:22:22 reverse 185.117.92.165",
+                "12/20 17:23:01 Address 185.117.92.166 maps to host",
+                "12/17 18:38:49 Accepted git 95.163.64.177",
+                "12/17 18:39:12 Received disconnect",
+                "",
+                "12/17 18:39:50 Failed root 95.163.64.177");
+
+        Map<String, List<String>> all = new SSHFileReader(testFilename, "all").readEntries(SSHFileReader.TREE_TYPES);
+        assertEquals(SSHFileReader.TREE_TYPES, Arrays.asList(all.keySet().toArray(new String[0])));
+        for (String type : SSHFileReader.TREE_TYPES) {
+            assertEquals(type, new SSHFileReader(testFilename, type).readEntries(), all.get(type));
+        }
+
+        assertEquals(Arrays.asList("Failed-125.219.43.169", "Failed-95.163.64.177"), all.get("failed-ip"));
+        assertEquals(Arrays.asList("reverse-17:22", "Address-17:23"), all.get("reverseaddress-time"));
+        assertEquals(Arrays.asList("support-98.226.166.134", "user208-125.219.43.169", "git-95.163.64.177",
+                "root-95.163.64.177"), all.get("user-ip"));
+    }
+
+    /**
+     * entries() hands out the keys one at a time and closes the file at the
+     * end, or when the reader is closed before the end.
+     *
+     * @throws Exception Exception thrown when the test file cannot be read
+     */
+    @Test
+    public void testEntriesStreamKeys() throws Exception {
+        writeLog("12/17 18:38:49 Accepted git 95.163.64.177",
+                "12/25 16:41:59 Failed user208 125.219.43.169 ",
+                "12/17 18:39:12 Accepted root 95.163.64.178");
+
+        try (SSHFileReader reader = new SSHFileReader(testFilename, "accepted-ip")) {
+            Iterator<String> keys = reader.entries();
+            assertTrue(keys.hasNext());
+            assertEquals("Accepted-95.163.64.177", keys.next());
+            assertEquals("Accepted-95.163.64.178", keys.next());
+            assertFalse(keys.hasNext());
+        }
+
+        SSHFileReader reader = new SSHFileReader(testFilename, "accepted-ip");
+        try {
+            Iterator<String> unfinished = reader.entries();
+            assertEquals("Accepted-95.163.64.177", unfinished.next());
+            reader.close();
+            assertFalse(unfinished.hasNext());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * The byte tokenizer derives the same keys as the String based parser,
+     * also for odd whitespace, line ends, almost-IPv4 fields, text outside
+     * ASCII and lines longer than its buffer.
+     *
+     * @throws Exception Exception thrown when the test file cannot be read
+     */
+    @Test
+    public void testTokenizerMatchesSplitParser() throws Exception {
+        StringBuilder longLine = new StringBuilder("12/17 18:38:49 Address");
+        for (int i = 0; i < 20000; i++) {
+            longLine.append(" host").append(i);
+        }
+        longLine.append(" 1.2.3.4");
+        String[] lines = {
+                "  12/11 11:56:56\tInvalid  support 98.226.166.134  ",
+                "12/25 16:41:59 FAILED user208 125.219.43.169\r",
+                "12/20 17:22:22 Reverse 1234.117.92.165 185.117.92 185..92.1 185.117.92.1.",
+                "12/20 17:23:01 address x 185.117.92.166",
+                "12/17 18:38:49 Accepted g\u00fcnter 95.163.64.177",
+                "12/17 18:38:49 Acc\u00e9pted git 95.163.64.177",
+                "12/17 18:3\u00e9:49 Accepted git 95.163.64.177",
+                "12/17 1:2 Invalid",
+                "12/17 18:39:12",
+                "\u000b12/17 18:39:50\u000bFailed\u0001 root 95.163.64.177",
+                longLine.toString(),
+                "12/18 09:00:00 Failed root 10.0.0.1"
+        };
+        try (PrintWriter out = new PrintWriter(testFilename, "UTF-8")) {
+            for (String line : lines) {
+                out.print(line + "\n");
+            }
+            out.print("12/18 09:00:01 Accepted root 10.0.0.2");
+        }
+
+        Map<String, List<String>> all = new SSHFileReader(testFilename, "all").readEntries(SSHFileReader.TREE_TYPES);
+        for (String type : SSHFileReader.TREE_TYPES) {
+            List<String> expected = new ArrayList<>();
+            for (String line : Files.readAllLines(new File(testFilename).toPath())) {
+                for (String part : line.split("\r")) {
+                    String key = SSHFileReaderBenchmark.splitKey(part, type);
+                    if (key != null) {
+                        expected.add(key);
+                    }
+                }
+            }
+            assertEquals(type, expected, all.get(type));
+        }
+        assertEquals("Address-1.2.3.4", all.get("reverseaddress-ip").get(1));
+        assertEquals("Accepted-10.0.0.2", all.get("accepted-ip").get(2));
+    }
+
+    /**
+     * Counting memory mapped chunks on several threads finds every key as
+     * often as reading the file in one pass, whatever the chunks are cut
+     * into, including chunks smaller than a line.
+     *
+     * @throws Exception Exception thrown when the test file cannot be read
+     */
+    @Test
+    public void testCountEntriesInChunks() throws Exception {
+        String[] lines = new String[3000];
+        for (int i = 0; i < lines.length; i++) {
+            String[] actions = {"Accepted", "Failed", "Invalid", "reverse", "Address"};
+            lines[i] = String.format("12/%02d %02d:%02d:%02d %s user%d 10.0.%d.%d", 1 + i % 28, i % 24, i % 60, i % 7,
+                    actions[i * 7 % 5], i % 13, i % 3, i % 17) + (i % 10 == 0 ? "\r" : "");
+        }
+        writeLog(lines);
+
+        SSHFileReader reader = new SSHFileReader(testFilename, "all");
+        Map<String, Map<String, Long>> expected = new LinkedHashMap<>();
+        for (Map.Entry<String, List<String>> e : reader.readEntries(SSHFileReader.TREE_TYPES).entrySet()) {
+            Map<String, Long> counts = new HashMap<>();
+            for (String key : e.getValue()) {
+                counts.merge(key, 1L, Long::sum);
+            }
+            expected.put(e.getKey(), counts);
+        }
+
+        assertEquals(expected, reader.countEntries(SSHFileReader.TREE_TYPES, 1));
+        assertEquals(expected, reader.countEntries(SSHFileReader.TREE_TYPES, 3, 7));
+        assertEquals(expected, reader.countEntries(SSHFileReader.TREE_TYPES, 4, 100000));
+    }
+
+    /**
+     * A raw log read with raw set gives the keys of the log SSHDataWrangler
+     * writes for it, streamed, in one pass and counted in chunks.
+     *
+     * @throws Exception Exception thrown when a test file cannot be written or read
+     */
+    @Test
+    public void testReadRawLog() throws Exception {
+        String[] lines = new String[2000];
+        for (int i = 0; i < lines.length; i++) {
+            String[] formats = {
+                    "12/%02d 06:55:%02d pm SSHD reverse mapping checking getaddrinfo for 185.117.92.%d failed - POSSIBLE BREAK-IN ATTEMPT!",
+                    "12/%02d 07:02:%02d pm SSHD Address 10.1.%d.1 maps to ns.example.com",
+                    "12/%02d 07:07:%02d pm SSHD Failed password from and for invalid user root 52.80.34.%d",
+                    "12/%02d 09:12:%02d pm SSHD Accepted password from and for git 119.137.%d.142",
+                    "12/%02d 09:12:%02d pm SSHD Invalid SSHD user-%d 10.0.0.1",
+                    "12/%02d 11:03:%02d pm SSHD --- Failed id %d for user root"};
+            lines[i] = String.format(formats[i % formats.length], 1 + i % 31, i % 60, i % 5);
+        }
+        writeLog(lines);
+        String wrangledFilename = testFilename + ".wrangled";
+        SSHDataWrangler.wrangle(new File(testFilename), new File(wrangledFilename), 1);
+
+        try {
+            Map<String, List<String>> expected = new SSHFileReader(wrangledFilename, "all").readEntries(SSHFileReader.TREE_TYPES);
+            assertFalse(expected.get("accepted-ip").isEmpty());
+            assertFalse(expected.get("reverseaddress-ip").isEmpty());
+            SSHFileReader raw = new SSHFileReader(testFilename, "user-ip", true);
+            assertEquals(expected, raw.readEntries(SSHFileReader.TREE_TYPES));
+            assertEquals(expected.get("user-ip"), raw.readEntries());
+            assertEquals(new SSHFileReader(wrangledFilename, "all").countEntries(SSHFileReader.TREE_TYPES, 1),
+                    raw.countEntries(SSHFileReader.TREE_TYPES, 3, 9));
+        } finally {
+            new File(wrangledFilename).delete();
+        }
+    }
+
+    private static void writeLog(String... lines) throws IOException {
+        try (PrintWriter out = new PrintWriter(testFilename)) {
+            for (String line : lines) {
+                out.println(line);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package cs321.create;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Unit testing for TreeBuildPipeline, building several trees at once from
+ * one read of the log file.
+ */
+public class TreeBuildPipelineTest {
+
+    private static final String testFilename = "Test_TreeBuildPipeline.tmp";
+    private static final List<String> TYPES = Arrays.asList("failed-ip", "user-ip", "accepted-time");
+
+    @After
+    public void cleanUpTests() {
+        new File(testFilename).delete();
+        for (String type : TYPES) {
+            new File("SSH_log.txt.ssh.btree." + type + ".2").delete();
+            new File("dump-" + type + ".2.txt").delete();
+        }
+    }
+
+    /**
+     * Every tree gets the keys of its type, also when the queues fill up
+     * and the parser has to wait for the writers.
+     *
+     * @throws Exception Exception thrown when a tree cannot be built
+     */
+    @Test
+    public void testBuildsEveryTree() throws Exception {
+        int lines = 200000; // more keys than a queue holds
+        try (PrintWriter out = new PrintWriter(testFilename)) {
+            for (int i = 0; i < lines; i++) {
+                out.println("12/25 16:41:59 Failed user" + (i % 10) + " 10.0.0." + (i % 5));
+            }
+            out.println("12/17 18:38:49 Accepted git 95.163.64.177");
+        }
+
+        SSHCreateBTreeArguments args = new SSHCreateBTreeArguments.Builder(false, 2, testFilename, String.join(",", TYPES), 0, 1)
+                .maxCounts(true).subtreeSizes(true).database(false).parallel(true).build();
+        TreeBuildPipeline pipeline = new TreeBuildPipeline(args, args.getTreeTypes());
+        pipeline.run(new SSHFileReader(testFilename, args.getTreeType()));
+
+        List<String> failed = Files.readAllLines(new File("dump-failed-ip.2.txt").toPath());
+        assertEquals(5, failed.size());
+        assertEquals("Failed-10.0.0.0 " + lines / 5, failed.get(0));
+        assertEquals(11, Files.readAllLines(new File("dump-user-ip.2.txt").toPath()).size());
+        assertEquals(Arrays.asList("Accepted-18:38 1"), Files.readAllLines(new File("dump-accepted-time.2.txt").toPath()));
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        pipeline.printReport(new PrintStream(report, true));
+        assertTrue(report.toString(), report.toString().contains("user-ip"));
+    }
+
+    /**
+     * An Error thrown while parsing still ends every writer, and run throws
+     * it instead of waiting for the writers forever.
+     *
+     * @throws Exception Exception thrown when the test file cannot be written
+     */
+    @Test(timeout = 60000)
+    public void testParserErrorEndsWriters() throws Exception {
+        try (PrintWriter out = new PrintWriter(testFilename)) {
+            out.println("12/25 16:41:59 Failed user0 10.0.0.0");
+        }
+        SSHCreateBTreeArguments args = new SSHCreateBTreeArguments.Builder(false, 2, testFilename, String.join(",", TYPES), 0, 1)
+                .maxCounts(true).subtreeSizes(true).database(false).parallel(true).build();
+        Error error = new OutOfMemoryError("test");
+        SSHFileReader reader = new SSHFileReader(testFilename, args.getTreeType()) {
+            @Override
+            void readEntries(List<String> treeTypes, KeySink sink) throws InterruptedException {
+                for (int i = 0; i < 100000; i++) {
+                    sink.accept(0, "Failed-10.0.0." + (i % 5));
+                }
+                throw error;
+            }
+        };
+        try {
+            new TreeBuildPipeline(args, args.getTreeTypes()).run(reader);
+            fail("run should throw the Error of the parser");
+        } catch (OutOfMemoryError e) {
+            assertSame(error, e);
+        }
+    }
+}
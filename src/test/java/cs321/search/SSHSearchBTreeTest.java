@@ -7,4 +7,24 @@ import static org.junit.Assert.*;
 public class SSHSearchBTreeTest
 {
 
+    /**
+     * A key holding ".." is looked up as a key; only the range: and count:
+     * forms are ranges.
+     */
+    @Test
+    public void testQueryParsesDotsInKeyAsKey() {
+        SearchQuery query = SearchQuery.parse("Reverse-185..92.1");
+        assertEquals(SearchQuery.Kind.KEY, query.kind);
+        assertEquals("Reverse-185..92.1", query.key);
+
+        query = SearchQuery.parse("range:Accepted-10..Accepted-20");
+        assertEquals(SearchQuery.Kind.RANGE, query.kind);
+        assertEquals("Accepted-10", query.key);
+        assertEquals("Accepted-20", query.high);
+
+        query = SearchQuery.parse("count:Failed-..");
+        assertEquals(SearchQuery.Kind.COUNT, query.kind);
+        assertEquals("Failed-", query.key);
+        assertNull(query.high);
+    }
 }